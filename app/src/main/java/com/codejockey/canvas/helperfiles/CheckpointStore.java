@@ -0,0 +1,191 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+//Bitmap snapshots of a drawing at points in its command history, so a
+//replay or seek can start from the nearest one instead of from the
+//first command.
+//
+//A checkpoint at index N holds the pixels, paper and ink after the first
+//N commands have run. Drawings are mostly flat color, so pixels are
+//stored run-length encoded as (count, color) pairs; an image that doesn't
+//shrink that way is stored as a plain copy.
+//
+//Checkpoints are taken every `interval` commands, which bounds a seek to
+//restoring one snapshot and replaying at most about that many commands.
+//The store has a memory budget; when it is exceeded the least recently
+//used checkpoints are dropped, except the oldest one, which is the
+//fallback for every seek before the next.
+
+public class CheckpointStore
+{
+    public static class Checkpoint
+    {
+        public final int index;
+        public final int width;
+        public final int height;
+        public final int paper;
+        public final int ink;
+
+        private final int[]   data;     //runs, or plain pixels
+        private final boolean encoded;
+        private long          lastUsed;
+
+        Checkpoint(int index, int width, int height, int paper, int ink, int[] data, boolean encoded)
+        {
+            this.index   = index;
+            this.width   = width;
+            this.height  = height;
+            this.paper   = paper;
+            this.ink     = ink;
+            this.data    = data;
+            this.encoded = encoded;
+        }
+
+        //Approximate heap cost, pixel data plus object headers
+        public long getMemory()
+        {
+            return data.length * 4L + 64;
+        }
+    }
+
+    private final TreeMap<Integer, Checkpoint> checkpoints = new TreeMap<Integer, Checkpoint>();
+    private final int  interval;
+    private final long budget;
+    private long memory;
+    private long clock;
+
+    //Scratch run buffer, grown as needed and kept between saves
+    private int[] runs = new int[1024];
+
+    public CheckpointStore(int interval, long budget)
+    {
+        this.interval = Math.max(1, interval);
+        this.budget   = budget;
+    }
+
+    //Whether a checkpoint at this command index would be worth taking
+    public boolean isDue(int index)
+    {
+        Map.Entry<Integer, Checkpoint> last = checkpoints.lastEntry();
+        return last == null || index - last.getKey() >= interval;
+    }
+
+    //Snapshots pixels as the state after the first index commands
+    public void save(int index, int[] pixels, int width, int height, int paper, int ink)
+    {
+        int count = width * height;
+        int used  = 0;
+        for (int px = 0; px < count && used < count; )
+        {
+            int color = pixels[px];
+            int start = px;
+            while (++px < count && pixels[px] == color)
+            {
+            }
+            if (used + 2 > runs.length)
+            {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[used++] = px - start;
+            runs[used++] = color;
+        }
+
+        Checkpoint checkpoint;
+        if (used < count)
+        {
+            checkpoint = new Checkpoint(index, width, height, paper, ink, Arrays.copyOf(runs, used), true);
+        }
+        else
+        {
+            checkpoint = new Checkpoint(index, width, height, paper, ink, Arrays.copyOf(pixels, count), false);
+        }
+        checkpoint.lastUsed = ++clock;
+
+        Checkpoint replaced = checkpoints.put(index, checkpoint);
+        if (replaced != null)
+        {
+            memory -= replaced.getMemory();
+        }
+        memory += checkpoint.getMemory();
+        trim();
+    }
+
+    //Latest checkpoint at or before index, or null if there is none
+    public Checkpoint nearest(int index)
+    {
+        Map.Entry<Integer, Checkpoint> entry = checkpoints.floorEntry(index);
+        if (entry == null)
+        {
+            return null;
+        }
+        entry.getValue().lastUsed = ++clock;
+        return entry.getValue();
+    }
+
+    //Decodes a checkpoint's pixels into an array of width * height
+    public void restore(Checkpoint checkpoint, int[] pixels)
+    {
+        if (!checkpoint.encoded)
+        {
+            System.arraycopy(checkpoint.data, 0, pixels, 0, checkpoint.data.length);
+            return;
+        }
+        int[] data = checkpoint.data;
+        int px = 0;
+        for (int i = 0; i < data.length; i += 2)
+        {
+            Arrays.fill(pixels, px, px + data[i], data[i + 1]);
+            px += data[i];
+        }
+    }
+
+    //Drops checkpoints past index, for when history is cut short
+    public void discardAfter(int index)
+    {
+        while (!checkpoints.isEmpty() && checkpoints.lastKey() > index)
+        {
+            memory -= checkpoints.pollLastEntry().getValue().getMemory();
+        }
+    }
+
+    public void clear()
+    {
+        checkpoints.clear();
+        memory = 0;
+    }
+
+    public int size()
+    {
+        return checkpoints.size();
+    }
+
+    public long getMemory()
+    {
+        return memory;
+    }
+
+    //Evicts least recently used checkpoints until within budget
+    private void trim()
+    {
+        while (memory > budget && checkpoints.size() > 1)
+        {
+            Checkpoint oldest = null;
+            for (Checkpoint checkpoint : checkpoints.values())
+            {
+                if (checkpoint.index == checkpoints.firstKey())
+                {
+                    continue;
+                }
+                if (oldest == null || checkpoint.lastUsed < oldest.lastUsed)
+                {
+                    oldest = checkpoint;
+                }
+            }
+            checkpoints.remove(oldest.index);
+            memory -= oldest.getMemory();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.codejockey.canvas.helperfiles;
+
+//Decides whether a pixel counts as "the same color" as a target color.
+//Shared by the flood fillers and Utilities.pixelInColor.
+//
+//The per-channel bounds are worked out once, when the target or the
+//tolerance changes, and packed into ARGB ints. A pixel is then tested
+//with a single read and a handful of integer operations: the channels
+//are split into two 16-bit lanes (alpha/green and red/blue) with a guard
+//bit above each 8-bit value, so one subtraction compares two channels
+//at once and the guard bit says which side of the bound each one fell.
+
+public class ColorMatcher
+{
+    //Red, green and blue each within tolerance, alpha ignored.
+    //This is what the fillers have always done.
+    public static final int MODE_TOLERANCE  = 0;
+    //Identical ARGB value, tolerance ignored
+    public static final int MODE_EXACT      = 1;
+    //Like MODE_TOLERANCE but alpha must also be within tolerance, using
+    //the largest of the three channel tolerances
+    public static final int MODE_ALPHA      = 2;
+    //Weighted ("redmean") RGB distance, so that a tolerance of t accepts
+    //about what a shift of t on every channel would
+    public static final int MODE_PERCEPTUAL = 3;
+
+    //Guard bit above each 8-bit value in a 16-bit lane
+    private static final int GUARD = 0x01000100;
+    private static final int LANES = 0x00FF00FF;
+
+    private int   mode      = MODE_TOLERANCE;
+    private int   target    = 0;
+    private int[] tolerance = new int[] {0,0,0};
+
+    //Packed bounds, split into lanes: even holds red/blue, odd alpha/green
+    private int loEven, loOdd, hiEven, hiOdd;
+
+    //Squared distance limit for MODE_PERCEPTUAL, in redmean units * 256
+    private int maxDistance;
+
+    public ColorMatcher()
+    {
+        update();
+    }
+
+    public int getMode()
+    {
+        return mode;
+    }
+
+    public void setMode(int mode)
+    {
+        this.mode = mode;
+        update();
+    }
+
+    public int getTarget()
+    {
+        return target;
+    }
+
+    public void setTarget(int color)
+    {
+        target = color;
+        update();
+    }
+
+    public int[] getTolerance()
+    {
+        return tolerance;
+    }
+
+    public void setTolerance(int value)
+    {
+        setTolerance(value, value, value);
+    }
+
+    public void setTolerance(int red, int green, int blue)
+    {
+        tolerance[0] = red;
+        tolerance[1] = green;
+        tolerance[2] = blue;
+        update();
+    }
+
+    //Tests one pixel against the precomputed bounds
+    public boolean matches(int pixel)
+    {
+        if (mode == MODE_PERCEPTUAL)
+        {
+            return distance(pixel, target) <= maxDistance;
+        }
+        int even = pixel & LANES;
+        int odd  = (pixel >>> 8) & LANES;
+
+        return (((even | GUARD) - loEven) & ((hiEven | GUARD) - even)
+              & ((odd | GUARD) - loOdd) & ((hiOdd | GUARD) - odd) & GUARD) == GUARD;
+    }
+
+    //Tests a pixel against packed ARGB bounds, each channel inclusive
+    public static boolean inRange(int pixel, int lo, int hi)
+    {
+        int even = pixel & LANES;
+        int odd  = (pixel >>> 8) & LANES;
+
+        return (((even | GUARD) - (lo & LANES)) & (((hi & LANES) | GUARD) - even)
+              & ((odd | GUARD) - ((lo >>> 8) & LANES)) & ((((hi >>> 8) & LANES) | GUARD) - odd) & GUARD) == GUARD;
+    }
+
+    //Packed lower bound of color minus tolerance, channels clamped to 0..255
+    public static int lowerBound(int color, int aTol, int rTol, int gTol, int bTol)
+    {
+        return pack(((color >>> 24)       ) - aTol,
+                    ((color >>> 16) & 0xff) - rTol,
+                    ((color >>> 8)  & 0xff) - gTol,
+                    ( color         & 0xff) - bTol);
+    }
+
+    //Packed upper bound of color plus tolerance, channels clamped to 0..255
+    public static int upperBound(int color, int aTol, int rTol, int gTol, int bTol)
+    {
+        return pack(((color >>> 24)       ) + aTol,
+                    ((color >>> 16) & 0xff) + rTol,
+                    ((color >>> 8)  & 0xff) + gTol,
+                    ( color         & 0xff) + bTol);
+    }
+
+    //Redmean color distance squared, scaled by 256
+    public static int distance(int c1, int c2)
+    {
+        int r1 = (c1 >>> 16) & 0xff, g1 = (c1 >>> 8) & 0xff, b1 = c1 & 0xff;
+        int r2 = (c2 >>> 16) & 0xff, g2 = (c2 >>> 8) & 0xff, b2 = c2 & 0xff;
+        int rMean = (r1 + r2) >> 1;
+        int dr = r1 - r2, dg = g1 - g2, db = b1 - b2;
+
+        return (512 + rMean) * dr * dr + 1024 * dg * dg + (767 - rMean) * db * db;
+    }
+
+    private void update()
+    {
+        int lo, hi;
+
+        switch (mode)
+        {
+            case MODE_EXACT:
+                lo = target;
+                hi = target;
+                break;
+            case MODE_ALPHA:
+                int aTol = Math.max(tolerance[0], Math.max(tolerance[1], tolerance[2]));
+                lo = lowerBound(target, aTol, tolerance[0], tolerance[1], tolerance[2]);
+                hi = upperBound(target, aTol, tolerance[0], tolerance[1], tolerance[2]);
+                break;
+            default:
+                //Alpha bounds wide open
+                lo = lowerBound(target, 255, tolerance[0], tolerance[1], tolerance[2]);
+                hi = upperBound(target, 255, tolerance[0], tolerance[1], tolerance[2]);
+                break;
+        }
+        loEven = lo & LANES;
+        loOdd  = (lo >>> 8) & LANES;
+        hiEven = hi & LANES;
+        hiOdd  = (hi >>> 8) & LANES;
+
+        //A grey shift of t on every channel is about (2 + 4 + 2) * t * t * 256
+        int t = Math.min(1000, (tolerance[0] + tolerance[1] + tolerance[2]) / 3);
+        maxDistance = t < 0? -1: 8 * 256 * t * t;
+    }
+
+    private static int pack(int a, int r, int g, int b)
+    {
+        return (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(int value)
+    {
+        return value < 0? 0: value > 255? 255: value;
+    }
+}
@@ -0,0 +1,253 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+//Command history of a Drawing, kept as parallel primitive arrays.
+//
+//Each command is a type byte plus x, y and color ints and a long time,
+//21 bytes in all, stored in growable arrays instead of one object per
+//command, so recording a touch move allocates nothing once the arrays are
+//big enough. Point commands (DOWN/MOVE/UP/FILL) use x and y, RESET uses
+//them for the canvas size, and PAPER/INK/ERASE use color; unused fields
+//are zero. DOWN/MOVE/UP keep the sample's PenState in the color field and
+//its event time, in uptime nanos, in time, so replay feeds the width
+//model what the live stroke had. A time of zero means not recorded.
+//FILL keeps the gap-closing settings it was drawn with in the color
+//field, see fillSettings, so replay fills the same area.
+//
+//Commands are read back by index or through a Cursor, which is reusable
+//and allocation free, for replay and exporters.
+
+public class CommandBuffer
+{
+    //These are the command types we know
+    public static final int RESET = 1;     //Reset drawing
+    public static final int PAPER = 2;     //Set paper color
+    public static final int INK   = 3;     //Set ink color
+    public static final int ERASE = 4;     //Erase canvas
+    public static final int DOWN  = 5;     //Start a line
+    public static final int MOVE  = 6;     //Draw the line
+    public static final int UP    = 7;     //End the line
+    public static final int FILL  = 8;     //Fill an area
+
+    private byte[] type;
+    private int[]  x;
+    private int[]  y;
+    private int[]  color;
+    private long[] time;
+    private int    size;
+
+    public CommandBuffer(int capacity)
+    {
+        capacity = Math.max(16, capacity);
+        type  = new byte[capacity];
+        x     = new int[capacity];
+        y     = new int[capacity];
+        color = new int[capacity];
+        time  = new long[capacity];
+    }
+
+    public void add(int type, int x, int y, int color)
+    {
+        add(type, x, y, color, 0);
+    }
+
+    public void add(int type, int x, int y, int color, long time)
+    {
+        if (size == this.type.length)
+        {
+            int capacity = size + (size >> 1);
+            this.type  = Arrays.copyOf(this.type, capacity);
+            this.x     = Arrays.copyOf(this.x, capacity);
+            this.y     = Arrays.copyOf(this.y, capacity);
+            this.color = Arrays.copyOf(this.color, capacity);
+            this.time  = Arrays.copyOf(this.time, capacity);
+        }
+        this.type[size]  = (byte) type;
+        this.x[size]     = x;
+        this.y[size]     = y;
+        this.color[size] = color;
+        this.time[size]  = time;
+        size++;
+    }
+
+    //Records a DOWN/MOVE/UP/FILL command, or RESET with the canvas size
+    public void addPoint(int type, int x, int y)
+    {
+        add(type, x, y, 0);
+    }
+
+    //Records a DOWN/MOVE/UP command with the sample's PenState and event
+    //time in uptime nanos
+    public void addPoint(int type, int x, int y, int pen, long time)
+    {
+        add(type, x, y, pen, time);
+    }
+
+    //Records a FILL command with its packed fill settings
+    public void addFill(int x, int y, int settings)
+    {
+        add(FILL, x, y, settings);
+    }
+
+    //Packs a fill's gap width, up to 255 pixels, in the low byte and its
+    //leak limit in thousandths above it, where zero means no limit. A
+    //zero, as FILLs recorded without settings have, is a plain fill.
+    public static int fillSettings(int gap, float leakLimit)
+    {
+        int thousandths = leakLimit >= 1 ? 0 : Math.max(1, Math.round(leakLimit * 1000));
+        return thousandths << 8 | Math.max(0, Math.min(255, gap));
+    }
+
+    public static int fillGap(int settings)
+    {
+        return settings & 0xff;
+    }
+
+    public static float fillLeakLimit(int settings)
+    {
+        int thousandths = settings >>> 8;
+        return thousandths == 0 ? 1.0f : thousandths / 1000f;
+    }
+
+    //Records a PAPER/INK/ERASE command
+    public void addColor(int type, int color)
+    {
+        add(type, 0, 0, color);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    //Drops every command from index size on, e.g. to rewrite a stroke
+    public void truncate(int size)
+    {
+        this.size = Math.max(0, Math.min(this.size, size));
+    }
+
+    public int getType(int index)
+    {
+        return type[index];
+    }
+
+    public int getX(int index)
+    {
+        return x[index];
+    }
+
+    public int getY(int index)
+    {
+        return y[index];
+    }
+
+    public int getColor(int index)
+    {
+        return color[index];
+    }
+
+    public int getPen(int index)
+    {
+        return color[index];
+    }
+
+    public long getTime(int index)
+    {
+        return time[index];
+    }
+
+    //New cursor positioned before the first command
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    //Saves every command to a log; the caller flushes the writer
+    public void writeTo(CommandLog.Writer writer) throws IOException
+    {
+        for (int i = 0; i < size; i++)
+        {
+            writer.write(type[i], x[i], y[i], color[i], time[i]);
+        }
+    }
+
+    //Appends every command remaining in a log
+    public void readFrom(CommandLog.Reader reader) throws IOException
+    {
+        while (reader.next())
+        {
+            add(reader.getType(), reader.getX(), reader.getY(), reader.getColor(), reader.getTime());
+        }
+    }
+
+    //Walks the buffer one command at a time. Commands added while walking
+    //are picked up, since the cursor reads the buffer's arrays directly.
+    public class Cursor
+    {
+        private int index = -1;
+
+        public boolean next()
+        {
+            if (index + 1 >= size)
+            {
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        //Back to before the first command, so the cursor can be reused
+        public void rewind()
+        {
+            index = -1;
+        }
+
+        //Positions the cursor so the next call to next() lands on index
+        public void seek(int index)
+        {
+            this.index = index - 1;
+        }
+
+        public int getIndex()
+        {
+            return index;
+        }
+
+        public int getType()
+        {
+            return type[index];
+        }
+
+        public int getX()
+        {
+            return x[index];
+        }
+
+        public int getY()
+        {
+            return y[index];
+        }
+
+        public int getColor()
+        {
+            return color[index];
+        }
+
+        public int getPen()
+        {
+            return color[index];
+        }
+
+        public long getTime()
+        {
+            return time[index];
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+//Compact binary encoding of a Drawing command history.
+//
+//A log starts with the three magic bytes "CVL" and a version byte, then
+//holds one record per command:
+//
+//  varint (type << 1 | colorFollows)
+//  RESET               varint width, varint height
+//  DOWN/MOVE/UP/FILL   zigzag varint dx, zigzag varint dy, relative to
+//                      the previous point, then varint PenState only if
+//                      colorFollows is set; otherwise the pen is the same
+//                      as last time. FILL keeps its fill settings in the
+//                      same register (see CommandBuffer.fillSettings).
+//  DOWN/MOVE/UP        then varint time, relative to the previous
+//                      DOWN/MOVE/UP: zigzag millis << 1 when the step is
+//                      whole milliseconds, else zigzag nanos << 1 | 1
+//  PAPER/INK/ERASE     four byte color, only if colorFollows is set;
+//                      otherwise the color is the same as last time
+//
+//PAPER and ERASE share one color register (erase always uses the paper
+//color), INK has its own. A MOVE of a few pixels a frame apart takes four
+//bytes, six or so when the pressure changes. Version 1 logs have no pens;
+//they read back as PenState.NONE. Version 1 and 2 logs have no times;
+//they read back as zero.
+//
+//Writer and Reader stream through a fixed ByteBuffer over a java.nio
+//channel, so a long session is saved or loaded without building a
+//command object per record. Reader works like a cursor: next() decodes
+//one record into its type/x/y/color fields.
+
+public class CommandLog
+{
+    //Command types, as recorded in CommandBuffer
+    public static final int RESET = CommandBuffer.RESET;
+    public static final int PAPER = CommandBuffer.PAPER;
+    public static final int INK   = CommandBuffer.INK;
+    public static final int ERASE = CommandBuffer.ERASE;
+    public static final int DOWN  = CommandBuffer.DOWN;
+    public static final int MOVE  = CommandBuffer.MOVE;
+    public static final int UP    = CommandBuffer.UP;
+    public static final int FILL  = CommandBuffer.FILL;
+
+    private static final byte[] MAGIC   = { 'C', 'V', 'L' };
+    private static final int    VERSION = 3;
+
+    //Longest possible record: opcode varint plus three five byte varints
+    //and a ten byte time
+    private static final int MAX_RECORD  = 30;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int BUFFER_SIZE = 8192;
+
+    private CommandLog()
+    {
+    }
+
+    //Color register a color command reads and writes
+    private static int colorSlot(int type)
+    {
+        return type == INK ? 1 : 0;
+    }
+
+    //Streams commands into a channel. Call flush() when done; the channel
+    //itself is left open.
+    public static class Writer
+    {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private int  lastX, lastY, lastPen;
+        private long lastTime;
+        private final int[] lastColor = new int[2];
+        private final boolean[] colorKnown = new boolean[2];
+
+        public Writer(WritableByteChannel channel) throws IOException
+        {
+            this.channel = channel;
+            buffer.put(MAGIC);
+            buffer.put((byte) VERSION);
+        }
+
+        public void write(int type, int x, int y, int color) throws IOException
+        {
+            write(type, x, y, color, 0);
+        }
+
+        //Time is only kept for DOWN/MOVE/UP, in uptime nanos
+        public void write(int type, int x, int y, int color, long time) throws IOException
+        {
+            if (buffer.remaining() < MAX_RECORD)
+            {
+                drain();
+            }
+            switch (type)
+            {
+                case RESET:
+                    putVarint(type << 1);
+                    putVarint(x);
+                    putVarint(y);
+                    break;
+                case DOWN:
+                case MOVE:
+                case UP:
+                case FILL:
+                    putVarint(type << 1 | (color != lastPen ? 1 : 0));
+                    putVarint(zigzag(x - lastX));
+                    putVarint(zigzag(y - lastY));
+                    if (color != lastPen)
+                    {
+                        putVarint(color);
+                        lastPen = color;
+                    }
+                    if (type != FILL)
+                    {
+                        putTime(time - lastTime);
+                        lastTime = time;
+                    }
+                    lastX = x;
+                    lastY = y;
+                    break;
+                case PAPER:
+                case INK:
+                case ERASE:
+                    int slot = colorSlot(type);
+                    if (colorKnown[slot] && lastColor[slot] == color)
+                    {
+                        putVarint(type << 1);
+                    }
+                    else
+                    {
+                        putVarint(type << 1 | 1);
+                        buffer.putInt(color);
+                        lastColor[slot]  = color;
+                        colorKnown[slot] = true;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command type " + type);
+            }
+        }
+
+        public void flush() throws IOException
+        {
+            drain();
+        }
+
+        private void drain() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putTime(long step)
+        {
+            if (step % NANOS_PER_MILLI == 0)
+            {
+                putVarint(zigzag(step / NANOS_PER_MILLI) << 1);
+            }
+            else
+            {
+                putVarint(zigzag(step) << 1 | 1);
+            }
+        }
+
+        private void putVarint(int value)
+        {
+            while ((value & ~0x7f) != 0)
+            {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void putVarint(long value)
+        {
+            while ((value & ~0x7fL) != 0)
+            {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    //Reads commands back from a channel, one record per next()
+    public static class Reader
+    {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean endOfChannel;
+        private final int version;
+
+        private int  type, x, y, color;
+        private long time;
+        private int  lastX, lastY, lastPen;
+        private long lastTime;
+        private final int[] lastColor = new int[2];
+
+        public Reader(ReadableByteChannel channel) throws IOException
+        {
+            this.channel = channel;
+            buffer.flip();
+            fill(MAGIC.length + 1);
+            if (buffer.remaining() < MAGIC.length + 1)
+            {
+                throw new IOException("Not a canvas command log");
+            }
+            for (byte b : MAGIC)
+            {
+                if (buffer.get() != b)
+                {
+                    throw new IOException("Not a canvas command log");
+                }
+            }
+            version = buffer.get();
+            if (version < 1 || version > VERSION)
+            {
+                throw new IOException("Unsupported command log version " + version);
+            }
+        }
+
+        //Decodes the next record; false at the end of the log
+        public boolean next() throws IOException
+        {
+            fill(MAX_RECORD);
+            if (!buffer.hasRemaining())
+            {
+                return false;
+            }
+            int op = getVarint();
+            type  = op >>> 1;
+            x     = 0;
+            y     = 0;
+            color = 0;
+            time  = 0;
+            switch (type)
+            {
+                case RESET:
+                    x = getVarint();
+                    y = getVarint();
+                    break;
+                case DOWN:
+                case MOVE:
+                case UP:
+                case FILL:
+                    lastX += unzigzag(getVarint());
+                    lastY += unzigzag(getVarint());
+                    if ((op & 1) != 0)
+                    {
+                        lastPen = getVarint();
+                    }
+                    if (type != FILL && version >= 3)
+                    {
+                        lastTime += getTimeStep();
+                        time = lastTime;
+                    }
+                    x = lastX;
+                    y = lastY;
+                    color = lastPen;
+                    break;
+                case PAPER:
+                case INK:
+                case ERASE:
+                    if ((op & 1) != 0)
+                    {
+                        need(4);
+                        lastColor[colorSlot(type)] = buffer.getInt();
+                    }
+                    color = lastColor[colorSlot(type)];
+                    break;
+                default:
+                    throw new IOException("Corrupt command log, unknown type " + type);
+            }
+            return true;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        //Point for DOWN/MOVE/UP/FILL, canvas size for RESET, else zero
+        public int getX()
+        {
+            return x;
+        }
+
+        public int getY()
+        {
+            return y;
+        }
+
+        //Color for PAPER/INK/ERASE, PenState for points, else zero
+        public int getColor()
+        {
+            return color;
+        }
+
+        public int getPen()
+        {
+            return color;
+        }
+
+        //Event time of DOWN/MOVE/UP in uptime nanos; zero when the log
+        //predates recorded times, and for other commands
+        public long getTime()
+        {
+            return time;
+        }
+
+        //Tops the buffer up until it holds at least count bytes or the
+        //channel is exhausted
+        private void fill(int count) throws IOException
+        {
+            if (buffer.remaining() >= count || endOfChannel)
+            {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < count)
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    endOfChannel = true;
+                    break;
+                }
+            }
+            buffer.flip();
+        }
+
+        private void need(int count) throws IOException
+        {
+            if (buffer.remaining() < count)
+            {
+                throw new EOFException("Truncated command log");
+            }
+        }
+
+        private int getVarint() throws IOException
+        {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7)
+            {
+                need(1);
+                int b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0)
+                {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt command log, varint too long");
+        }
+
+        private long getVarlong() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7)
+            {
+                need(1);
+                int b = buffer.get();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt command log, varint too long");
+        }
+
+        private long getTimeStep() throws IOException
+        {
+            long value = getVarlong();
+            long step = unzigzag(value >>> 1);
+            return (value & 1) != 0 ? step : step * NANOS_PER_MILLI;
+        }
+    }
+
+    private static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
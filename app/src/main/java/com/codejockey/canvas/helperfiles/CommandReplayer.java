@@ -0,0 +1,141 @@
+package com.codejockey.canvas.helperfiles;
+
+//Runs a drawing's command history onto a target, starting from the
+//nearest checkpoint instead of the first command, and keeps the history
+//in step with what the target shows.
+//
+//The target does the drawing: it restores checkpoints, runs single
+//commands without recording them and takes checkpoints when due. The
+//replayer decides where to start, which commands to run and when the
+//history has to be cut short.
+//
+//A seek shows the drawing as it stood after the first N commands. The
+//commands past N are kept, so a later seek can go forward again, until
+//something new is recorded: cut() then drops them along with the
+//checkpoints taken after them, so the new command follows on from what
+//is shown and a replay draws the same pixels.
+
+public class CommandReplayer
+{
+    public interface Target
+    {
+        //Loads the nearest checkpoint at or before index, or a blank
+        //drawing if there is none, and returns the index it stands for
+        int restore(int index);
+
+        //Runs one command without recording it
+        void run(CommandBuffer.Cursor command);
+
+        //Takes a checkpoint as the state after the first index commands,
+        //if one is due
+        void checkpoint(int index);
+    }
+
+    private final CheckpointStore checkpoints;
+    private final Target target;
+    private CommandBuffer commands;
+    private CommandBuffer.Cursor cursor;
+    private int from;           //first command the replay shows
+    private int shown = -1;     //commands shown after a seek, -1 for all
+
+    public CommandReplayer(CommandBuffer commands, CheckpointStore checkpoints, Target target)
+    {
+        this.checkpoints = checkpoints;
+        this.target      = target;
+        setCommands(commands);
+    }
+
+    //Replaces the history, as when a saved drawing is loaded
+    public void setCommands(CommandBuffer commands)
+    {
+        this.commands = commands;
+        cursor = commands.cursor();
+        shown  = -1;
+    }
+
+    //Restores the nearest checkpoint at or before from, ready to run the
+    //rest of the history one command at a time with next() and run()
+    public void start(int from)
+    {
+        this.from = from;
+        cursor.seek(target.restore(from));
+        shown = -1;
+    }
+
+    //Moves on to the next command; false at the end of the history
+    public boolean next()
+    {
+        return cursor.next();
+    }
+
+    //Runs the current command, checkpointing after any that isn't part
+    //way through a stroke
+    public void run()
+    {
+        target.run(cursor);
+        int type = cursor.getType();
+        if (type != CommandBuffer.DOWN && type != CommandBuffer.MOVE)
+        {
+            target.checkpoint(cursor.getIndex() + 1);
+        }
+    }
+
+    //Whether the current command comes before the start of the replay,
+    //only rebuilding the state since the checkpoint
+    public boolean isCatchingUp()
+    {
+        return cursor.getIndex() < from;
+    }
+
+    public int getType()
+    {
+        return cursor.getType();
+    }
+
+    //Event time the current command was recorded at, or 0 if none
+    public long getTime()
+    {
+        return cursor.getTime();
+    }
+
+    //Runs the whole history from the nearest checkpoint at or before from
+    public void replay(int from)
+    {
+        start(from);
+        while (next())
+        {
+            run();
+        }
+    }
+
+    //Shows the drawing as it stood after the first index commands
+    public void seek(int index)
+    {
+        index = Math.max(0, Math.min(index, commands.size()));
+        start(index);
+        while (next() && cursor.getIndex() < index)
+        {
+            run();
+        }
+        shown = index < commands.size() ? index : -1;
+    }
+
+    //Whether a seek left the drawing at an earlier point than the end
+    public boolean isSeeking()
+    {
+        return shown >= 0;
+    }
+
+    //Drops the history past what a seek left showing, and checkpoints
+    //taken after it. Call before recording a command.
+    public void cut()
+    {
+        if (shown < 0)
+        {
+            return;
+        }
+        commands.truncate(shown);
+        checkpoints.discardAfter(shown);
+        shown = -1;
+    }
+}
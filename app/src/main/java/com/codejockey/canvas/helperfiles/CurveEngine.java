@@ -0,0 +1,242 @@
+package com.codejockey.canvas.helperfiles;
+
+//Uniform cubic b-spline through the last four knots of a stroke.
+//
+//Based on Section 4.2 of Ammeraal, L. (1998) Computer Graphics for Java
+//Programmers, Chichester: John Wiley. Each new knot adds one span, from
+//near the second knot to near the third; spans meet end to end, so a
+//stroke is drawn as one span per knot.
+//
+//A span is sampled by forward differencing: after setting up the first
+//three differences of the cubic, each further point costs three adds per
+//axis instead of evaluating the polynomial. The last point is set from
+//the polynomial, so rounding doesn't open a gap to the next span.
+//
+//Each knot comes with its event time and PenState. Given a WidthModel,
+//the engine asks it for a width at each knot and eases the stroke width
+//toward that along the next span, by at most spanChange per span, which
+//damps the odd spike in event times. Times are only ever what the caller
+//passes in; nothing here reads the clock, so the same knots plot the same
+//points and widths bit for bit, however fast they are fed in.
+//
+//Points go into a buffer that is reused for every span; nothing is
+//allocated once the buffer is big enough for the most steps asked for.
+
+public class CurveEngine
+{
+    //Last four knots, newest last
+    private final float[] knotX = new float[4];
+    private final float[] knotY = new float[4];
+    private final long[]  knotTime = new long[4];
+
+    //Width along the curve; without a model it stays at 1
+    private WidthModel widthModel;
+    private final float spanChange;
+    private float width  = 1;
+    private float target = 1;
+
+    //Points of the last span, with their widths
+    private float[] xs     = new float[32];
+    private float[] ys     = new float[32];
+    private float[] widths = new float[32];
+    private int     count;
+
+    public CurveEngine()
+    {
+        this(null, 0);
+    }
+
+    public CurveEngine(WidthModel widthModel, float spanChange)
+    {
+        this.widthModel = widthModel;
+        this.spanChange = spanChange;
+    }
+
+    //Takes widths from another model, from the next curve on
+    public void setWidthModel(WidthModel widthModel)
+    {
+        this.widthModel = widthModel;
+    }
+
+    public void open(float x, float y)
+    {
+        open(x, y, 0, PenState.NONE);
+    }
+
+    //Starts a curve at a point, sampled at time (nanos) with a PenState.
+    //The point is loaded as the last three knots, so the first span can
+    //be drawn with the next knot and the curve starts on the point rather
+    //than short of it.
+    public void open(float x, float y, long time, int pen)
+    {
+        knotX[1] = knotX[2] = knotX[3] = x;
+        knotY[1] = knotY[2] = knotY[3] = y;
+        knotTime[1] = knotTime[2] = knotTime[3] = time;
+        if (widthModel != null)
+        {
+            width  = widthModel.start(x, y, time, pen);
+            target = width;
+        }
+        count = 0;
+    }
+
+    public void add(float x, float y)
+    {
+        add(x, y, knotTime[3], PenState.NONE);
+    }
+
+    //Adds a knot, dropping the oldest
+    public void add(float x, float y, long time, int pen)
+    {
+        knotX[0] = knotX[1];
+        knotX[1] = knotX[2];
+        knotX[2] = knotX[3];
+        knotX[3] = x;
+        knotY[0] = knotY[1];
+        knotY[1] = knotY[2];
+        knotY[2] = knotY[3];
+        knotY[3] = y;
+        knotTime[0] = knotTime[1];
+        knotTime[1] = knotTime[2];
+        knotTime[2] = knotTime[3];
+        knotTime[3] = time;
+        if (widthModel != null)
+        {
+            target = widthModel.sample(x, y, time, pen);
+        }
+    }
+
+    //Picks how many steps to plot the span of the last four knots in: as
+    //few as keep every straight step within tolerance pixels of the
+    //curve and no longer than maxLength, from 1 to maxSteps.
+    //
+    //A step of h bulges from its chord by at most h * h / 8 times the
+    //largest second derivative, which for a cubic is at one end of the
+    //span, so tight turns get more steps and gentle ones fewer.
+    public int steps(float tolerance, float maxLength, int maxSteps)
+    {
+        float a1 = (knotX[2] - knotX[0]) / 2;
+        float b1 = (knotY[2] - knotY[0]) / 2;
+        float a2 = (knotX[0] - 2 * knotX[1] + knotX[2]) / 2;
+        float b2 = (knotY[0] - 2 * knotY[1] + knotY[2]) / 2;
+        float a3 = (knotX[3] - knotX[0] + 3 * (knotX[1] - knotX[2])) / 6;
+        float b3 = (knotY[3] - knotY[0] + 3 * (knotY[1] - knotY[2])) / 6;
+
+        //Second derivative at each end
+        float start = 4 * (a2 * a2 + b2 * b2);
+        float endX = 2 * a2 + 6 * a3;
+        float endY = 2 * b2 + 6 * b3;
+        float bend = (float) Math.sqrt(Math.max(start, endX * endX + endY * endY));
+        float length = (float) Math.hypot(a1 + a2 + a3, b1 + b2 + b3);
+
+        double steps = Math.max(Math.sqrt(bend / (8 * tolerance)), length / maxLength);
+        return (int) Math.max(1, Math.min(maxSteps, Math.ceil(steps)));
+    }
+
+    //Samples the span of the last four knots at steps + 1 evenly spaced
+    //points, readable with getX, getY and getWidth; returns the number of
+    //points
+    public int plot(int steps)
+    {
+        if (xs.length < steps + 1)
+        {
+            xs     = new float[steps + 1];
+            ys     = new float[steps + 1];
+            widths = new float[steps + 1];
+        }
+
+        //Polynomial coefficients, lowest power first
+        float a0 = (knotX[0] + 4 * knotX[1] + knotX[2]) / 6;
+        float b0 = (knotY[0] + 4 * knotY[1] + knotY[2]) / 6;
+        float a1 = (knotX[2] - knotX[0]) / 2;
+        float b1 = (knotY[2] - knotY[0]) / 2;
+        float a2 = (knotX[0] - 2 * knotX[1] + knotX[2]) / 2;
+        float b2 = (knotY[0] - 2 * knotY[1] + knotY[2]) / 2;
+        float a3 = (knotX[3] - knotX[0] + 3 * (knotX[1] - knotX[2])) / 6;
+        float b3 = (knotY[3] - knotY[0] + 3 * (knotY[1] - knotY[2])) / 6;
+
+        //Forward differences for a step of h
+        float h  = 1.0f / steps;
+        float h2 = h * h;
+        float h3 = h2 * h;
+        float dx1 = a1 * h + a2 * h2 + a3 * h3;
+        float dy1 = b1 * h + b2 * h2 + b3 * h3;
+        float dx2 = 2 * a2 * h2 + 6 * a3 * h3;
+        float dy2 = 2 * b2 * h2 + 6 * b3 * h3;
+        float dx3 = 6 * a3 * h3;
+        float dy3 = 6 * b3 * h3;
+
+        float x = a0;
+        float y = b0;
+        for (int step = 0; step < steps; step++)
+        {
+            xs[step] = x;
+            ys[step] = y;
+            x   += dx1;
+            y   += dy1;
+            dx1 += dx2;
+            dy1 += dy2;
+            dx2 += dx3;
+            dy2 += dy3;
+        }
+        xs[steps] = a0 + a1 + a2 + a3;
+        ys[steps] = b0 + b1 + b2 + b3;
+
+        //Width moves only on steps that go somewhere
+        float change = spanChange / steps;
+        widths[0] = width;
+        for (int step = 1; step <= steps; step++)
+        {
+            if (xs[step] != xs[step - 1] || ys[step] != ys[step - 1])
+            {
+                width = target > width ? Math.min(target, width + change) : Math.max(target, width - change);
+            }
+            widths[step] = width;
+        }
+        count = steps + 1;
+        return count;
+    }
+
+    //Points from the last plot
+    public int size()
+    {
+        return count;
+    }
+
+    public float getX(int index)
+    {
+        return xs[index];
+    }
+
+    public float getY(int index)
+    {
+        return ys[index];
+    }
+
+    public float getWidth(int index)
+    {
+        return widths[index];
+    }
+
+    //Width at the end of the last plot
+    public float getWidth()
+    {
+        return width;
+    }
+
+    //Knots, 0 oldest to 3 newest
+    public float getKnotX(int index)
+    {
+        return knotX[index];
+    }
+
+    public float getKnotY(int index)
+    {
+        return knotY[index];
+    }
+
+    public long getKnotTime(int index)
+    {
+        return knotTime[index];
+    }
+}
@@ -12,11 +12,14 @@ package com.codejockey.canvas.helperfiles;
     * Snaps curve end to curve start, if user drew a shape, to make it
       easier to draw closed shapes.
     * Adjusts curve thickness based on drawing velocity, so that slow
-      drawing creates thinner lines.
+      drawing creates thinner lines, or on stylus pressure with a
+      pluggable WidthModel.
     * Smooths curve thickness by removing outliers (some devices have
       peaky sample rates).
     * Allows perfect shape filling by using 100% pixel colors (no anti-
       aliasing).
+    * Optionally closes small gaps in outlines when filling, and drops
+      fills that leak out over most of the canvas.
     * Draws on larger bitmap, scales down to view size, to allow
       zooming and give better image quality.
 
@@ -28,16 +31,19 @@ package com.codejockey.canvas.helperfiles;
         import android.graphics.Color;
         import android.graphics.Paint;
         import android.graphics.Point;
+        import android.graphics.Rect;
         import android.os.AsyncTask;
+        import android.os.SystemClock;
         import android.os.Vibrator;
         import android.util.Log;
         import android.view.GestureDetector;
         import android.view.MotionEvent;
         import android.widget.ImageView;
         import android.content.Context;
-        import java.util.ArrayList;
-        import java.util.List;
-        import java.util.ListIterator;
+        import java.io.IOException;
+        import java.util.Arrays;
+        import java.nio.channels.ReadableByteChannel;
+        import java.nio.channels.WritableByteChannel;
 
 //  Import Magnet API
 //        import com.samsung.magnet.wrapper.MagnetAgent;
@@ -90,16 +96,43 @@ public class Drawing
     //  We vary paintbrush width by at most this much each stroke
     //  to reduce the effects of event time spikes (affects some devices)
     private static final float OUTLIER_TOLERANCE = 0.1f;
-    //  Number of steps we draw between points
+    //  Number of steps between points the width was tuned for
     private static final int CURVE_STEPS = 30;
+    //  Each span gets as few steps as keep the drawn lines within
+    //  CURVE_TOLERANCE pixels of the curve and no longer than
+    //  CURVE_SEGMENT pixels, so slow strokes take a few lines per knot
+    //  and fast or tight ones take more, up to CURVE_MAX_STEPS
+    private static final int CURVE_MAX_STEPS = 100;
+    private static final float CURVE_TOLERANCE = 0.5f;
+    private static final float CURVE_SEGMENT = 8.0f;
     //  Weight of curve between points
     private static final float CURVE_DENSITY = 5.0f;
     //  Starting point for event sample rate guess
     private static final int DIFF_BASELINE = 40;
 
-    //  Points in curve; we store last four knots
-    private Point [] knots = new Point [4];
-    private long last_knot_time = 0;
+    //  Each span is drawn as one triangle strip, its width varying along
+    //  it, rather than a line per step; the span's points, widths and
+    //  vertex colors are kept for the next span
+    private StrokeTessellator tessellator = new StrokeTessellator ();
+    private float [] span_x = new float [CURVE_MAX_STEPS + 1];
+    private float [] span_y = new float [CURVE_MAX_STEPS + 1];
+    private float [] span_width = new float [CURVE_MAX_STEPS + 1];
+    private int [] span_colors = new int [0];
+    private boolean curve_capped;       //  Start of curve drawn yet?
+    private boolean curve_closing;      //  Drawing the last span?
+
+    //  Spline through the last four knots; it samples each span into
+    //  a reused buffer, so moving the curve along allocates nothing.
+    //  Its width model picks the width at each knot from the sample
+    //  being drawn, its event time and PenState; the curve then eases
+    //  toward that width along the span, as far per span as it did
+    //  over CURVE_STEPS lines. By default width follows speed,
+    //  DIFF_BASELINE / CURVE_DENSITY pixels wider per pixel/msec.
+    private CurveEngine curve = new CurveEngine (
+            new VelocityWidthModel (1.0f, (float) DIFF_BASELINE / CURVE_DENSITY, 2.0f, DIFF_BASELINE),
+            OUTLIER_TOLERANCE * CURVE_STEPS);
+    private long sample_time;           //  Event time, nanosecs
+    private int sample_pen;             //  PenState
 
     //  Smart invalidation after drawing curve
     private float minx, maxx, miny, maxy;
@@ -113,39 +146,115 @@ public class Drawing
     //  Did we snap the start of the line to the edge?
     private boolean start_snapped;
 
-    //  Each command represents one instruction
+    //  Flood fill workspace, created on first fill and reused after that
+    //  so rapid tap-fills don't allocate a canvas-sized buffer each time.
+    //  The filler reads bitmap rows on demand and writes back only the
+    //  filled box, so small fills don't copy the whole bitmap.
+    private ScanlineFloodFiller filler;
+    private int [] fill_pixels;
+    private ScanlineFloodFiller.PixelSource fill_source =
+            new ScanlineFloodFiller.PixelSource () {
+                public void readPixels (int [] pixels, int offset, int stride, int x, int y, int w, int h) {
+                    bitmap.getPixels (pixels, offset, stride, x, y, w, h);
+                }
+                public void writePixels (int [] pixels, int offset, int stride, int x, int y, int w, int h) {
+                    bitmap.setPixels (pixels, offset, stride, x, y, w, h);
+                }
+            };
+
+    //  Optional multi-core fill; worth it on large canvases with most of
+    //  the area filled, where the single-threaded fill is the bottleneck
+    private boolean parallel_fill;
+    private ParallelFloodFiller parallel_filler;
+
+    //  Widest outline gap, in pixels, that fills won't leak through;
+    //  zero turns gap closing off
+    private int fill_gap;
+    private GapClosingFloodFiller gap_filler;
+    //  Gap-closing fills covering more than this fraction of the canvas
+    //  are taken to have leaked anyway and are dropped. A fill through a
+    //  gap runs out into the background, which is most of the canvas in
+    //  an outline drawing; half still lets any shape up to half the
+    //  canvas fill. Each FILL records the gap and limit it was drawn
+    //  with, so replay fills the same area whatever they are now. The
+    //  parallel mode isn't recorded; it fills exactly as the plain one.
+    private float fill_leak_limit = 0.5f;
+
+    //  List of commands since we started, each one instruction
     //  We can replay these from first to last
-    class command {
-        //  These are the command types we know
-        public static final int RESET = 1;     //  Reset drawing
-        public static final int PAPER = 2;     //  Set paper color
-        public static final int INK   = 3;     //  Set ink color
-        public static final int ERASE = 4;     //  Erase canvas
-        public static final int DOWN  = 5;     //  Start a line
-        public static final int MOVE  = 6;     //  Draw the line
-        public static final int UP    = 7;     //  Draw the line
-        public static final int FILL  = 8;     //  Fill an area
-        private int type;
-        private int x;
-        private int y;
-        private int color;
-        public command (int type, Point point) {
-            this.type = type;
-            this.x = point.x;
-            this.y = point.y;
-        }
-        public command (int type, int x, int y) {
-            this.type = type;
-            this.x = x;
-            this.y = y;
-        }
-        public command (int type, int color) {
-            this.type = type;
-            this.color = color;
-        }
-    }
-    //  List of commands since we started
-    private List commands = new ArrayList <command> (1000);
+    private CommandBuffer commands = new CommandBuffer (1000);
+
+    //  Snapshots of the bitmap every so many commands, so replay and
+    //  seek start from the nearest one rather than the first command
+    private static final int CHECKPOINT_INTERVAL = 250;
+    private static final long CHECKPOINT_BUDGET = 32 * 1024 * 1024;
+    private CheckpointStore checkpoints =
+            new CheckpointStore (CHECKPOINT_INTERVAL, CHECKPOINT_BUDGET);
+    private int [] checkpoint_pixels;
+
+    //  Runs the history for replay and seek, from the nearest checkpoint,
+    //  and cuts it short when something is drawn after a seek
+    private CommandReplayer replayer = new CommandReplayer (commands, checkpoints,
+            new CommandReplayer.Target () {
+                public int restore (int index) {
+                    return restore_checkpoint (index);
+                }
+                public void run (CommandBuffer.Cursor cmd) {
+                    replay_command (cmd);
+                }
+                public void checkpoint (int index) {
+                    Drawing.this.checkpoint (index);
+                }
+            }
+    );
+
+    //  Replay publishes at most REPLAY_FPS frames a second, merging the
+    //  commands in between; see setReplaySpeed for pacing commands
+    private static final int REPLAY_FPS = 60;
+    private ReplayPacer replay_pacer =
+            new ReplayPacer (REPLAY_FPS, 0, DIFF_BASELINE * 1000000L);
+    //  Replay frames are double-buffered: the replay thread copies the
+    //  changed region into the back bitmap, the UI thread copies it on
+    //  to the front bitmap, which stays on screen. Both are kept for
+    //  the next replay.
+    private Bitmap replay_front, replay_back;
+    private Canvas replay_front_canvas = new Canvas ();
+    private Canvas replay_back_canvas = new Canvas ();
+    private Rect replay_dirty = new Rect ();        //  Changed since last frame
+    private Rect replay_frame = new Rect ();        //  Region of frame in flight
+    private volatile boolean replay_frame_pending;
+
+    //  Strokes are compacted when they end, keeping the curve within
+    //  this many pixels; zero keeps every sample. Half a pixel, as in
+    //  CustomView, is less than the bitmap can show. Curve width follows
+    //  the spacing of samples, so the compacted stroke is redrawn over
+    //  the pixels from before it, which are kept for the tiles the stroke
+    //  reaches as it is drawn; what is shown and checkpointed is then
+    //  what the history replays.
+    private float simplify_tolerance = 0.5f;
+    private StrokeSimplifier simplifier = new StrokeSimplifier ();
+    private float [] stroke_x = new float [256];
+    private float [] stroke_y = new float [256];
+    private int [] stroke_pen = new int [256];
+    private long [] stroke_time = new long [256];
+    private TileBackup stroke_backup = new TileBackup (64);
+    private boolean stroke_saved;       //  Backing up what it draws over
+    private int stroke_start;           //  Index of the stroke's DOWN
+
+    //  Samples of the current MOVE event, including its history
+    private TouchBatch touch_batch = new TouchBatch ();
+
+    //  Provisional tail from the end of the curve through the last knot
+    //  to where the finger is predicted to go next; the curve lags the
+    //  finger by a knot or so. The pixels under the tail are kept so
+    //  the next touch event can put them back before drawing for real.
+    private static final int TAIL_HORIZON = 30;     //  Msecs to predict
+    private MotionPredictor predictor = new MotionPredictor ();
+    private float [] tail_points = new float [4];
+    private int [] tail_pixels = new int [0];
+    private Rect tail_rect = new Rect ();
+    private boolean tail_shown;
+    private float plot_x, plot_y;       //  Where curve_plot last ended
 
     public Drawing (Context _context, ImageView _imageview)
     {
@@ -169,22 +278,47 @@ public class Drawing
 
     public void onTouchEvent (MotionEvent event)
     {
+        //  Real samples replace the predicted tail
+        rect_reset ();
+        tail_erase ();
         if (!gesture_detector.onTouchEvent (event)) {
-            Point point = get_point (event);
+            int x = event_x (event);
+            int y = event_y (event);
             switch (event.getAction ()) {
                 case MotionEvent.ACTION_DOWN:
-                    commands.add (new command (command.DOWN, point));
-                    down_headless (point);
+                    replayer.cut ();
+                    stroke_start = commands.size ();
+                    stroke_save ();
+                    event_sample (event);
+                    commands.addPoint (CommandBuffer.DOWN, x, y, sample_pen, sample_time);
+                    down_headless (x, y);
                     break;
                 case MotionEvent.ACTION_MOVE:
-                    commands.add (new command (command.MOVE, point));
-                    move_headless (point);
+                    //  Draw every sample batched into the event, then
+                    //  invalidate their joint extent once
+                    long batch_start = Metrics.INPUT_BATCH.start ();
+                    touch_batch.drain (event);
+                    for (int sample = 0; sample < touch_batch.size (); sample++) {
+                        int sample_x = scale_x (touch_batch.getX (sample));
+                        int sample_y = scale_y (touch_batch.getY (sample));
+                        sample_time = touch_batch.getTime (sample) * 1000000L;
+                        sample_pen = touch_batch.getPen (sample);
+                        commands.addPoint (CommandBuffer.MOVE, sample_x, sample_y, sample_pen, sample_time);
+                        move_headless (sample_x, sample_y);
+                    }
+                    tail_draw ();
                     rect_invalidate ();
+                    touch_batch.recordMetrics (batch_start, SystemClock.uptimeMillis ());
                     break;
                 case MotionEvent.ACTION_UP:
-                    commands.add (new command (command.UP, point));
-                    up_headless (point);
+                    event_sample (event);
+                    commands.addPoint (CommandBuffer.UP, x, y, sample_pen, sample_time);
+                    up_headless (x, y);
                     rect_invalidate ();
+                    compact_stroke ();
+                    stroke_saved = false;
+                    stroke_backup.clear ();
+                    checkpoint (commands.size ());
                     break;
             }
         }
@@ -193,7 +327,8 @@ public class Drawing
     //  Set the canvas size
     public void reset (int _width, int _height)
     {
-        commands.add (new command (command.RESET, _width, _height));
+        replayer.cut ();
+        commands.addPoint (CommandBuffer.RESET, _width, _height);
         width = _width;
         height = _height;
         paper = Color.WHITE;
@@ -212,27 +347,125 @@ public class Drawing
         imageview.setImageBitmap (bitmap);
         imageview.setScaleType (ImageView.ScaleType.FIT_XY);
         imageview.invalidate ();
+
+        stroke_backup.setSource (fill_source, width, height);
+
+        //  Older checkpoints are the wrong size now
+        checkpoints.clear ();
+        checkpoint (commands.size ());
     }
 
     //  Set the drawing ink color
     public void setInk (int _ink)
     {
-        commands.add (new command (command.INK, _ink));
+        replayer.cut ();
+        commands.addColor (CommandBuffer.INK, _ink);
         ink = _ink;
     }
 
     //  Set the drawing paper color
     public void setPaper (int _paper)
     {
-        commands.add (new command (command.PAPER, _paper));
+        replayer.cut ();
+        commands.addColor (CommandBuffer.PAPER, _paper);
         paper = _paper;
     }
 
+    //  Use all cores for flood fills (off by default)
+    public void setParallelFill (boolean enabled)
+    {
+        parallel_fill = enabled;
+        if (!enabled)
+            release ();
+    }
+
+    //  Stop the parallel fill threads; the owner calls this when done
+    //  with the drawing. A later parallel fill starts them again.
+    public void release ()
+    {
+        if (parallel_filler != null) {
+            parallel_filler.shutdown ();
+            parallel_filler = null;
+        }
+    }
+
+    //  Replay at this multiple of the speed the commands were recorded
+    //  at, going by their event times (0 is as fast as possible)
+    public void setReplaySpeed (float speed)
+    {
+        replay_pacer.setSpeed (speed);
+    }
+
+    //  Cap on frames per second shown during replay
+    public void setReplayFrameRate (int fps)
+    {
+        replay_pacer.setFrameRate (fps);
+    }
+
+    //  Close gaps up to this many pixels wide when filling (0 is off)
+    public void setFillGap (int pixels)
+    {
+        fill_gap = pixels;
+    }
+
+    //  Drop gap-closing fills covering more than this fraction (0..1,
+    //  0.5 by default; 1 never drops them)
+    public void setFillLeakLimit (float fraction)
+    {
+        fill_leak_limit = fraction;
+    }
+
+    //  Draw stroke widths with another model, e.g. a PenWidthModel for
+    //  a stylus; replays use it too
+    public void setWidthModel (WidthModel model)
+    {
+        curve.setWidthModel (model);
+    }
+
+    //  Compact each stroke's recorded samples when it ends, keeping the
+    //  curve within this many pixels (0.5 by default); zero turns it off
+    public void setSimplifyTolerance (float pixels)
+    {
+        simplify_tolerance = pixels;
+    }
+
     //  Reset the canvas to the current paper color
     public void erase ()
     {
-        commands.add (new command (command.ERASE, paper));
+        replayer.cut ();
+        commands.addColor (CommandBuffer.ERASE, paper);
         erase_headless ();
+        checkpoint (commands.size ());
+    }
+
+    //  Save the command history in compact binary form, see CommandLog
+    public void saveCommands (WritableByteChannel channel) throws IOException
+    {
+        CommandLog.Writer writer = new CommandLog.Writer (channel);
+        commands.writeTo (writer);
+        writer.flush ();
+    }
+
+    //  Load a saved command history in place of ours and replay it
+    public void loadCommands (ReadableByteChannel channel) throws IOException
+    {
+        CommandLog.Reader reader = new CommandLog.Reader (channel);
+        CommandBuffer loaded = new CommandBuffer (1000);
+        loaded.readFrom (reader);
+        commands = loaded;
+        checkpoints.clear ();
+        replayer.setCommands (loaded);
+        new replay_commands (0).execute ("nothing");
+    }
+
+    //  Show the drawing as it stood after the first index commands,
+    //  starting from the nearest checkpoint at or before that point.
+    //  Drawing anything from there drops the commands after it.
+    public void seek (int index)
+    {
+        replayer.seek (index);
+        rect_reset ();
+        imageview.invalidate ();
     }
 
     //  Event handlers
@@ -332,56 +565,67 @@ public class Drawing
     private GestureDetector gesture_detector = new GestureDetector (
             new GestureDetector.SimpleOnGestureListener () {
                 public boolean onSingleTapUp (MotionEvent event) {
-                    Point point = get_point (event);
-                    commands.add (new command (command.FILL, point));
-                    fill_headless (point);
-                    imageview.invalidate ();
-                    vibrate ();
+                    int x = event_x (event);
+                    int y = event_y (event);
+                    int settings = CommandBuffer.fillSettings (fill_gap, fill_leak_limit);
+                    if (fill_headless (x, y, settings)) {
+                        replayer.cut ();
+                        commands.addFill (x, y, settings);
+                        rect_invalidate ();
+                        vibrate ();
+                        checkpoint (commands.size ());
+                    }
+                    else
+                        Log.i (TAG, "Fill leaked out of the shape, dropped it");
                     return true;
                 }
                 public void onLongPress (MotionEvent event) {
-                    new replay_commands ().execute ("nothing");
+                    new replay_commands (0).execute ("nothing");
                 }
             }
     );
 
     //  Headless methods do not create any command history
     //  Thus they can safely be called to replay commands
+    //  The line methods stretch the invalidation rectangle; callers
+    //  reset it first
     private void erase_headless ()
     {
         canvas.drawColor (paper);
     }
 
     //  Start a new line
-    private void down_headless (Point point)
+    private void down_headless (int x, int y)
     {
+        Point point = new Point (x, y);
         curve_start = point;
         curve_start_snap = snap (point, SNAP_TO_EDGE);
         curve_extent = 0;
 
         if (curve_start.equals (curve_start_snap))
-            curve_open (curve_start);
+            curve_open (curve_start.x, curve_start.y);
         else {
-            curve_open (curve_start_snap);
-            curve_move (curve_start);
+            curve_open (curve_start_snap.x, curve_start_snap.y);
+            curve_move (curve_start.x, curve_start.y);
         }
     }
 
     //  Continue the line
-    private void move_headless (Point point)
+    private void move_headless (int x, int y)
     {
-        curve_move (point);
+        curve_move (x, y);
 
         //  Track the extent of the curve to help us decide whether to
         //  close the shape automatically.
-        float extent = distance (point, curve_start);
+        float extent = distance (x, y, curve_start.x, curve_start.y);
         if (curve_extent < extent)
             curve_extent = extent;
     }
 
     //  End the line
-    private void up_headless (Point point)
+    private void up_headless (int x, int y)
     {
+        Point point = new Point (x, y);
         //  Snap the end of the curve back to the start if close enough
         //  but only if the start wasn't itself snapped to the edge.
         curve_end = point;
@@ -391,29 +635,129 @@ public class Drawing
             curve_end_snap = snap (point, SNAP_TO_EDGE);
 
         if (curve_end.equals (curve_end_snap))
-            curve_close (curve_end);
+            curve_close (curve_end.x, curve_end.y);
         else {
-            curve_move  (curve_end);
-            curve_close (curve_end_snap);
+            curve_move  (curve_end.x, curve_end.y);
+            curve_close (curve_end_snap.x, curve_end_snap.y);
+        }
+    }
+
+    //  Fill the selected area with the current ink color, closing gaps
+    //  as the packed settings say (see CommandBuffer.fillSettings).
+    //  Returns false if a gap-closing fill leaked and was dropped.
+    public boolean fill_headless (int x, int y, int settings)
+    {
+        if (fill_pixels == null || fill_pixels.length != width * height)
+            fill_pixels = new int [width * height];
+
+        int target = bitmap.getPixel (x, y);
+        if (CommandBuffer.fillGap (settings) > 0)
+            return fill_gap_closing (x, y, target, settings);
+        if (parallel_fill) {
+            fill_parallel (x, y, target);
+            return true;
+        }
+        if (filler == null) {
+            filler = new ScanlineFloodFiller (fill_pixels, width, height);
+            filler.setSource (fill_source);
+            filler.setTolerance (25);
         }
+        filler.usePixels (fill_pixels, width, height);
+        filler.setTargetColor (target);
+        filler.setFillColor (ink);
+        filler.floodFill (x, y);
+
+        //  Leave the filled box as the invalidation rectangle
+        minx = filler.getDirtyLeft ();
+        miny = filler.getDirtyTop ();
+        maxx = filler.getDirtyRight () + 1;
+        maxy = filler.getDirtyBottom () + 1;
+        return true;
     }
 
-    //  Fill the selected area with the current ink color
-    public void fill_headless (Point point)
+    //  Fill across all cores; bands need the whole bitmap up front
+    private void fill_parallel (int x, int y, int target)
     {
-        int targetColor = bitmap.getPixel (point.x, point.y);
-        QueueLinearFloodFiller filler = new QueueLinearFloodFiller (bitmap, targetColor, ink);
-        filler.setTolerance (25);
-        filler.floodFill (point.x, point.y);
+        if (parallel_filler == null) {
+            parallel_filler = new ParallelFloodFiller (
+                    Runtime.getRuntime ().availableProcessors ());
+            parallel_filler.setTolerance (25);
+        }
+        bitmap.getPixels (fill_pixels, 0, width, 0, 0, width, height);
+        parallel_filler.usePixels (fill_pixels, width, height);
+        parallel_filler.setTargetColor (target);
+        parallel_filler.setFillColor (ink);
+        parallel_filler.floodFill (x, y);
+
+        fill_commit (parallel_filler.getDirtyLeft (), parallel_filler.getDirtyTop (),
+                parallel_filler.getDirtyRight () + 1, parallel_filler.getDirtyBottom () + 1);
+    }
+
+    //  Fill that closes small gaps in outlines and gives up on leaks
+    private boolean fill_gap_closing (int x, int y, int target, int settings)
+    {
+        if (gap_filler == null) {
+            gap_filler = new GapClosingFloodFiller (fill_pixels, width, height);
+            gap_filler.setSource (fill_source);
+        }
+        gap_filler.usePixels (fill_pixels, width, height);
+        gap_filler.setTolerance (25);
+        gap_filler.setMaxGap (CommandBuffer.fillGap (settings));
+        gap_filler.setMaxFillFraction (CommandBuffer.fillLeakLimit (settings));
+        gap_filler.setTargetColor (target);
+        gap_filler.setFillColor (ink);
+        if (!gap_filler.floodFill (x, y)) {
+            rect_reset ();
+            return false;
+        }
+
+        //  Leave the filled box as the invalidation rectangle
+        minx = gap_filler.getDirtyLeft ();
+        miny = gap_filler.getDirtyTop ();
+        maxx = gap_filler.getDirtyRight () + 1;
+        maxy = gap_filler.getDirtyBottom () + 1;
+        return true;
+    }
+
+    //  Copy the filled box from the fill buffer back into the bitmap
+    //  and leave it as the invalidation rectangle
+    private void fill_commit (int left, int top, int right, int bottom)
+    {
+        bitmap.setPixels (fill_pixels, top * width + left, width,
+                left, top, right - left, bottom - top);
+
+        minx = left;
+        miny = top;
+        maxx = right;
+        maxy = bottom;
+    }
+
+    //  Takes the time and pen of an event's current sample
+    private void event_sample (MotionEvent event)
+    {
+        sample_time = event.getEventTime () * 1000000L;
+        sample_pen = PenState.pack (event.getPressure (), event.getSize (), event.getToolType (0));
     }
 
     //  Convert motion event coordinates into point in our drawing
-    private Point get_point (MotionEvent event)
+    private int event_x (MotionEvent event)
     {
-        Point point = new Point ();
-        point.x = (int) (event.getX () * width / imageview.getWidth ());
-        point.y = (int) (event.getY () * height / imageview.getHeight ());
-        return point;
+        return scale_x (event.getX ());
+    }
+
+    private int event_y (MotionEvent event)
+    {
+        return scale_y (event.getY ());
+    }
+
+    private int scale_x (float x)
+    {
+        return (int) (x * width / imageview.getWidth ());
+    }
+
+    private int scale_y (float y)
+    {
+        return (int) (y * height / imageview.getHeight ());
     }
 
     //  Return point with snap if requested
@@ -452,106 +796,244 @@ public class Drawing
 
     //  Calculate distance in pixels between two knots
     private float distance (Point p1, Point p2)
+    {
+        return distance (p1.x, p1.y, p2.x, p2.y);
+    }
+
+    private float distance (int x1, int y1, int x2, int y2)
     {
         float distance = (float) Math.sqrt (
-                (p2.x - p1.x) * (p2.x - p1.x)
-                        + (p2.y - p1.y) * (p2.y - p1.y));
+                (x2 - x1) * (x2 - x1)
+                        + (y2 - y1) * (y2 - y1));
         return distance;
     }
 
-    //  Plots a b-spline curve through the last four knots of the curve
-    //  Based on Section 4.2 of Ammeraal, L. (1998) Computer Graphics for
-    //  Java Programmers, Chichester: John Wiley.
+    //  Plots a b-spline curve through the last four knots of the curve;
+    //  the spline itself is in CurveEngine
     //
-    private void curve_open (Point knot)
+    private void curve_open (int x, int y)
     {
         //  Load up our knots with our start position.
         //  This solves two problems; one that we need at least 4
         //  knots to draw a curve and two, that we lose the first
         //  point unless we repeat it three times.
-        knots [1] = knot;
-        knots [2] = knot;
-        knots [3] = knot;
-        last_knot_time = System.currentTimeMillis ();
-        curve_width = 2.0f;
+        curve.open (x, y, sample_time, sample_pen);
+        curve_width = curve.getWidth ();
+        curve_capped = false;
     }
 
-    private void curve_move (Point knot)
+    private void curve_move (int x, int y)
     {
         //  Adds a knot and draws the curve. Since we've preloaded
         //  the knots in curve_open this will draw between two or
         //  more points (aka knot in b-spline jargon).
-        knots [0] = knots [1];
-        knots [1] = knots [2];
-        knots [2] = knots [3];
-        knots [3] = knot;
+        curve.add (x, y, sample_time, sample_pen);
 
         //  Sample rates range from 60-100 msecs depending on the device
         //  We estimate a rolling median using the simple technique of
         //  taking each new value; if it's larger than sample rate, add
-        //  1 to sample rate and if it's smaller, subtract 1.
-        long this_knot_time = System.currentTimeMillis ();
-        long time_diff = this_knot_time - last_knot_time;
+        //  1 to sample rate and if it's smaller, subtract 1. The tail
+        //  uses it to decide how far ahead to predict.
+        long time_diff = (curve.getKnotTime (3) - curve.getKnotTime (2)) / 1000000L;
         if (time_diff > 10)
             median_diff += median_diff > time_diff? -1: 1;
-        last_knot_time = this_knot_time;
 
         curve_plot ();
     }
 
-    private void curve_close (Point knot)
+    private void curve_close (int x, int y)
     {
         //  Close the curve, drawing the end three times to ensure
         //  the curve is fully connected; otherwise the actual end
         //  point won't be drawn (the curve will stop just short).
-        curve_move (knot);
-        curve_move (knot);
-        curve_move (knot);
+        curve_move (x, y);
+        curve_move (x, y);
+        curve_closing = true;
+        curve_move (x, y);
+        curve_closing = false;
     }
 
     //  We always draw the last 4 knots
     private void curve_plot ()
     {
-        //  We take DIFF_BASELINE msec as being our "normal" sample
-        //  rate. On slower screens the lines will otherwise be too fat.
-        float compensation = (float)
-                median_diff / DIFF_BASELINE / CURVE_STEPS * CURVE_DENSITY;
-
-        float x1 = -1;
-        float y1 = -1;
-        float a0 = (knots [0].x + 4 * knots [1].x + knots [2].x) / 6;
-        float b0 = (knots [0].y + 4 * knots [1].y + knots [2].y) / 6;
-        float a1 = (knots [2].x - knots [0].x) / 2;
-        float b1 = (knots [2].y - knots [0].y) / 2;
-        float a2 = (knots [0].x - 2 * knots [1].x + knots [2].x) / 2;
-        float b2 = (knots [0].y - 2 * knots [1].y + knots [2].y) / 2;
-        float a3 = (knots [3].x - knots [0].x + 3 * (knots [1].x - knots [2].x)) / 6;
-        float b3 = (knots [3].y - knots [0].y + 3 * (knots [1].y - knots [2].y)) / 6;
-
-        rect_reset ();
-        for (int step = 0; step <= CURVE_STEPS; step++) {
+        int steps = curve.steps (CURVE_TOLERANCE, CURVE_SEGMENT, CURVE_MAX_STEPS);
+        int points = curve.plot (steps);
+        float x1 = curve.getX (0);
+        float y1 = curve.getY (0);
+        span_x [0] = x1;
+        span_y [0] = y1;
+        span_width [0] = curve.getWidth (0);
+        for (int point = 1; point < points; point++) {
             float x0 = x1;
             float y0 = y1;
-            float t = (float) step / (float) CURVE_STEPS;
-            x1 = ((a3 * t + a2) * t + a1) * t + a0;
-            y1 = ((b3 * t + b2) * t + b1) * t + b0;
-            if (x0 != -1) {
-                float distance = (float) Math.sqrt ((x1 - x0) * (x1 - x0)
-                        + (y1 - y0) * (y1 - y0));
-                if (distance > 0) {
-                    float target_width = (float) distance / compensation + 1.0f;
-                    if (target_width > curve_width)
-                        curve_width += OUTLIER_TOLERANCE;
-                    else
-                        curve_width -= OUTLIER_TOLERANCE;
+            x1 = curve.getX (point);
+            y1 = curve.getY (point);
+            curve_width = curve.getWidth (point);
+            if (x1 != x0 || y1 != y0)
+                rect_stretch (x0, y0, x1, y1);
+            span_x [point] = x1;
+            span_y [point] = y1;
+            span_width [point] = curve_width;
+        }
+        plot_x = x1;
+        plot_y = y1;
 
-                    paint.setStrokeWidth (curve_width);
-                    paint.setColor (ink);
-                    canvas.drawLine (x0, y0, x1, y1, paint);
-                    rect_stretch (x0, y0, x1, y1);
-                }
+        //  The ends of the whole curve get square caps, as lines had
+        int vertices = tessellator.strip (span_x, span_y, span_width, points,
+                !curve_capped, curve_closing);
+        if (vertices > 0) {
+            //  Sized for the value count, which older platforms check
+            if (span_colors.length < vertices * 2)
+                span_colors = new int [vertices * 2];
+            Arrays.fill (span_colors, 0, vertices * 2, ink);
+            if (stroke_saved)
+                stroke_backup_save (tessellator.getVertices (), vertices);
+            canvas.drawVertices (Canvas.VertexMode.TRIANGLE_STRIP, vertices * 2,
+                    tessellator.getVertices (), 0, null, 0, span_colors, 0, null, 0, 0, paint);
+            curve_capped = true;
+        }
+    }
+
+    //  Draws the provisional tail, predicting from the last knots one or
+    //  two samples ahead, whichever is nearer TAIL_HORIZON at the median
+    //  sample rate
+    private void tail_draw ()
+    {
+        int steps = Math.max (1, Math.min (2, Math.round ((float) TAIL_HORIZON / median_diff)));
+        predictor.reset ();
+        predictor.add (curve.getKnotX (1), curve.getKnotY (1));
+        predictor.add (curve.getKnotX (2), curve.getKnotY (2));
+        predictor.add (curve.getKnotX (3), curve.getKnotY (3));
+        int points = predictor.predict (steps, tail_points);
+
+        //  Save what's under the tail, then draw it
+        float left = Math.min (plot_x, curve.getKnotX (3));
+        float top = Math.min (plot_y, curve.getKnotY (3));
+        float right = Math.max (plot_x, curve.getKnotX (3));
+        float bottom = Math.max (plot_y, curve.getKnotY (3));
+        for (int point = 0; point < points; point++) {
+            left = Math.min (left, tail_points [point * 2]);
+            top = Math.min (top, tail_points [point * 2 + 1]);
+            right = Math.max (right, tail_points [point * 2]);
+            bottom = Math.max (bottom, tail_points [point * 2 + 1]);
+        }
+        float margin = curve_width + 1;
+        tail_rect.set ((int) Math.floor (left - margin), (int) Math.floor (top - margin),
+                (int) Math.ceil (right + margin), (int) Math.ceil (bottom + margin));
+        if (!tail_rect.intersect (0, 0, width, height))
+            return;
+        int area = tail_rect.width () * tail_rect.height ();
+        if (tail_pixels.length < area)
+            tail_pixels = new int [area];
+        bitmap.getPixels (tail_pixels, 0, tail_rect.width (),
+                tail_rect.left, tail_rect.top, tail_rect.width (), tail_rect.height ());
+        tail_shown = true;
+
+        paint.setStrokeWidth (curve_width);
+        paint.setColor (ink);
+        float x0 = plot_x;
+        float y0 = plot_y;
+        float x1 = curve.getKnotX (3);
+        float y1 = curve.getKnotY (3);
+        for (int point = -1; point < points; point++) {
+            if (point >= 0) {
+                x1 = tail_points [point * 2];
+                y1 = tail_points [point * 2 + 1];
             }
+            canvas.drawLine (x0, y0, x1, y1, paint);
+            rect_stretch (x0, y0, x1, y1);
+            x0 = x1;
+            y0 = y1;
+        }
+    }
+
+    //  Puts back the pixels under the tail, if one is shown
+    private void tail_erase ()
+    {
+        if (!tail_shown)
+            return;
+        bitmap.setPixels (tail_pixels, 0, tail_rect.width (),
+                tail_rect.left, tail_rect.top, tail_rect.width (), tail_rect.height ());
+        rect_stretch (tail_rect.left, tail_rect.top, tail_rect.right, tail_rect.bottom);
+        tail_shown = false;
+    }
+
+    //  Starts keeping the pixels a stroke draws over, if it will be
+    //  compacted
+    private void stroke_save ()
+    {
+        stroke_backup.clear ();
+        stroke_saved = simplify_tolerance > 0;
+    }
+
+    //  Backs up the tiles under a strip about to be drawn, with a pixel
+    //  to spare for rounding
+    private void stroke_backup_save (float [] vertices, int count)
+    {
+        float left = vertices [0], right = left;
+        float top = vertices [1], bottom = top;
+        for (int index = 1; index < count; index++) {
+            left = Math.min (left, vertices [index * 2]);
+            right = Math.max (right, vertices [index * 2]);
+            top = Math.min (top, vertices [index * 2 + 1]);
+            bottom = Math.max (bottom, vertices [index * 2 + 1]);
+        }
+        stroke_backup.save ((int) left - 1, (int) top - 1,
+                (int) Math.ceil (right) + 2, (int) Math.ceil (bottom) + 2);
+    }
+
+    //  Rewrites the stroke just ended with only the samples that keep
+    //  its curve within simplify_tolerance, and redraws it from those
+    //  over the tiles it drew on. Skipped if anything but the stroke was
+    //  recorded since its DOWN.
+    private void compact_stroke ()
+    {
+        int count = commands.size () - stroke_start;
+        if (!stroke_saved || simplify_tolerance <= 0 || count < 3
+        ||  commands.getType (stroke_start) != CommandBuffer.DOWN)
+            return;
+        if (stroke_x.length < count) {
+            stroke_x = new float [count];
+            stroke_y = new float [count];
+            stroke_pen = new int [count];
+            stroke_time = new long [count];
+        }
+        for (int index = 0; index < count; index++) {
+            int type = commands.getType (stroke_start + index);
+            if (index > 0 && type != CommandBuffer.MOVE && type != CommandBuffer.UP)
+                return;
+            stroke_x [index] = commands.getX (stroke_start + index);
+            stroke_y [index] = commands.getY (stroke_start + index);
+            stroke_pen [index] = commands.getPen (stroke_start + index);
+            stroke_time [index] = commands.getTime (stroke_start + index);
+        }
+        int kept = simplifier.simplify (stroke_x, stroke_y, count, simplify_tolerance);
+        if (kept == count)
+            return;
+        commands.truncate (stroke_start);
+        int point = 0;
+        for (int index = 0; index < count; index++) {
+            if (!simplifier.isKept (index))
+                continue;
+            int type = point == 0? CommandBuffer.DOWN:
+                       point == kept - 1? CommandBuffer.UP: CommandBuffer.MOVE;
+            commands.addPoint (type, (int) stroke_x [point], (int) stroke_y [point],
+                    stroke_pen [index], stroke_time [index]);
+            point++;
         }
+
+        //  Tiles the compacted stroke reaches beyond the original are
+        //  backed up as it is drawn, so the backup covers both
+        stroke_backup.restore ();
+        CommandBuffer.Cursor cmd = commands.cursor ();
+        cmd.seek (stroke_start);
+        while (cmd.next ())
+            replay_command (cmd);
+        minx = stroke_backup.getLeft ();
+        miny = stroke_backup.getTop ();
+        maxx = stroke_backup.getRight ();
+        maxy = stroke_backup.getBottom ();
+        rect_invalidate ();
     }
 
     //  Reset invalidation rectangle
@@ -565,14 +1047,14 @@ public class Drawing
 
     private void rect_stretch (float x0, float y0, float x1, float y1)
     {
-        if (minx > x0 - curve_width)
-            minx = x0 - curve_width;
-        if (miny > y0 - curve_width)
-            miny = y0 - curve_width;
-        if (maxx < x1 + curve_width)
-            maxx = x1 + curve_width;
-        if (maxy < y1 + curve_width)
-            maxy = y1 + curve_width;
+        if (minx > Math.min (x0, x1) - curve_width)
+            minx = Math.min (x0, x1) - curve_width;
+        if (miny > Math.min (y0, y1) - curve_width)
+            miny = Math.min (y0, y1) - curve_width;
+        if (maxx < Math.max (x0, x1) + curve_width)
+            maxx = Math.max (x0, x1) + curve_width;
+        if (maxy < Math.max (y0, y1) + curve_width)
+            maxy = Math.max (y0, y1) + curve_width;
     }
 
     private void rect_invalidate ()
@@ -586,6 +1068,87 @@ public class Drawing
             imageview.invalidate ((int) minx, (int) miny, (int) maxx, (int) maxy);
     }
 
+    //  Take a checkpoint of the bitmap as the state after the first
+    //  index commands, if one is due. Only call between strokes.
+    private void checkpoint (int index)
+    {
+        if (!checkpoints.isDue (index))
+            return;
+        if (checkpoint_pixels == null || checkpoint_pixels.length != width * height)
+            checkpoint_pixels = new int [width * height];
+        bitmap.getPixels (checkpoint_pixels, 0, width, 0, 0, width, height);
+        checkpoints.save (index, checkpoint_pixels, width, height, paper, ink);
+    }
+
+    //  Load the bitmap from the nearest checkpoint at or before index
+    //  and return the index to replay from; without one, start afresh
+    private int restore_checkpoint (int index)
+    {
+        CheckpointStore.Checkpoint checkpoint = checkpoints.nearest (index);
+        if (checkpoint == null
+                || checkpoint.width != width || checkpoint.height != height) {
+            paper = Color.WHITE;
+            ink = Color.BLACK;
+            erase_headless ();
+            return 0;
+        }
+        if (checkpoint_pixels == null || checkpoint_pixels.length != width * height)
+            checkpoint_pixels = new int [width * height];
+        checkpoints.restore (checkpoint, checkpoint_pixels);
+        bitmap.setPixels (checkpoint_pixels, 0, width, 0, 0, width, height);
+        paper = checkpoint.paper;
+        ink = checkpoint.ink;
+        return checkpoint.index;
+    }
+
+    //  Replayed samples take the event time and pen they were recorded
+    //  with, so the curve comes out as drawn, at any replay speed.
+    //  Commands from logs that predate recorded times are taken to come
+    //  DIFF_BASELINE msecs apart.
+    private void replay_sample (CommandBuffer.Cursor cmd)
+    {
+        if (cmd.getTime () != 0)
+            sample_time = cmd.getTime ();
+        else
+            sample_time += DIFF_BASELINE * 1000000L;
+        sample_pen = cmd.getPen ();
+    }
+
+    //  Run one recorded command headless
+    private void replay_command (CommandBuffer.Cursor cmd)
+    {
+        rect_reset ();
+        switch (cmd.getType ()) {
+            case CommandBuffer.RESET:
+                erase_headless ();
+                break;
+            case CommandBuffer.PAPER:
+                paper = cmd.getColor ();
+                break;
+            case CommandBuffer.INK:
+                ink = cmd.getColor ();
+                break;
+            case CommandBuffer.ERASE:
+                erase_headless ();
+                break;
+            case CommandBuffer.DOWN:
+                replay_sample (cmd);
+                down_headless (cmd.getX (), cmd.getY ());
+                break;
+            case CommandBuffer.MOVE:
+                replay_sample (cmd);
+                move_headless (cmd.getX (), cmd.getY ());
+                break;
+            case CommandBuffer.UP:
+                replay_sample (cmd);
+                up_headless (cmd.getX (), cmd.getY ());
+                break;
+            case CommandBuffer.FILL:
+                fill_headless (cmd.getX (), cmd.getY (), cmd.getColor ());
+                break;
+        }
+    }
+
     private void vibrate ()
     {
         Vibrator mVibrator;
@@ -593,55 +1156,100 @@ public class Drawing
         mVibrator.vibrate (10);
     }
 
-    private class replay_commands extends AsyncTask <String, Bitmap, String> {
+    //  Replays the drawing from command index 'from' onwards, starting
+    //  at the nearest checkpoint. Draws into a fresh bitmap, which then
+    //  becomes the drawing bitmap, so fills land on it too.
+    private class replay_commands extends AsyncTask <String, Void, String> {
+        private int from;
+        public replay_commands (int from) {
+            this.from = from;
+        }
         protected void onPreExecute () {
             ui_locked = true;
+            bitmap = Bitmap.createBitmap (width, height, Bitmap.Config.ARGB_8888);
+            canvas.setBitmap (bitmap);
+
+            if (replay_front == null
+                    || replay_front.getWidth () != width || replay_front.getHeight () != height) {
+                replay_front = Bitmap.createBitmap (width, height, Bitmap.Config.ARGB_8888);
+                replay_back = Bitmap.createBitmap (width, height, Bitmap.Config.ARGB_8888);
+                replay_front_canvas.setBitmap (replay_front);
+                replay_back_canvas.setBitmap (replay_back);
+            }
+            replay_front.eraseColor (paper);
+            replay_dirty.setEmpty ();
+            replay_frame_pending = false;
+            imageview.setImageBitmap (replay_front);
         }
         protected String doInBackground (String... params) {
-            Bitmap offscreen = Bitmap.createBitmap (width, height, Bitmap.Config.ARGB_8888);
-            canvas.setBitmap (offscreen);
-
-            ListIterator iterator = commands.listIterator ();
-            while (iterator.hasNext ()) {
-                command cmd = (command) iterator.next ();
-                switch (cmd.type) {
-                    case command.RESET:
-                        erase_headless ();
-                        break;
-                    case command.PAPER:
-                        paper = cmd.color;
-                        break;
-                    case command.INK:
-                        ink = cmd.color;
-                        break;
-                    case command.ERASE:
-                        erase_headless ();
-                        break;
-                    case command.DOWN:
-                        down_headless (new Point (cmd.x, cmd.y));
-                        break;
-                    case command.MOVE:
-                        move_headless (new Point (cmd.x, cmd.y));
-                        break;
-                    case command.UP:
-                        up_headless (new Point (cmd.x, cmd.y));
-                        break;
-                    case command.FILL:
-                        fill_headless (new Point (cmd.x, cmd.y));
-                        break;
-                }
-                Bitmap onscreen = Bitmap.createBitmap (offscreen);
-                publishProgress (onscreen);
+            replayer.start (from);
+            replay_dirty.set (0, 0, width, height);
+            replay_pacer.start (System.nanoTime ());
+            while (replayer.next ()) {
+                boolean shown = !replayer.isCatchingUp ();
+                if (shown)
+                    pace (replayer.getTime ());
+                replayer.run ();
+                stretch_dirty (replayer.getType ());
+                if (shown)
+                    publish_frame ();
             }
             return null;
         }
-        protected void onProgressUpdate (Bitmap... onscreen) {
-            imageview.setImageBitmap (onscreen [0]);
-            imageview.invalidate ();
+        protected void onProgressUpdate (Void... frame) {
+            replay_front_canvas.drawBitmap (replay_back, replay_frame, replay_frame, null);
+            imageview.invalidate (
+                    replay_frame.left * imageview.getWidth () / width,
+                    replay_frame.top * imageview.getHeight () / height,
+                    (replay_frame.right * imageview.getWidth () + width - 1) / width,
+                    (replay_frame.bottom * imageview.getHeight () + height - 1) / height);
+            replay_frame_pending = false;
         }
         protected void onPostExecute (String result) {
+            imageview.setImageBitmap (bitmap);
+            imageview.invalidate ();
             ui_locked = false;
         }
+
+        //  Hold back to the replay speed, if one is set
+        private void pace (long recorded) {
+            long delay = replay_pacer.delayBefore (recorded, System.nanoTime ());
+            if (delay > 0) {
+                try {
+                    Thread.sleep (delay / 1000000, (int) (delay % 1000000));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            }
+        }
+
+        //  Add what the last command drew to the region for the next frame
+        private void stretch_dirty (int type) {
+            if (type == CommandBuffer.RESET || type == CommandBuffer.ERASE)
+                replay_dirty.union (0, 0, width, height);
+            else
+            if (type != CommandBuffer.PAPER && type != CommandBuffer.INK && maxx > minx && maxy > miny)
+                replay_dirty.union (
+                        Math.max (0, (int) minx), Math.max (0, (int) miny),
+                        Math.min (width, (int) Math.ceil (maxx)), Math.min (height, (int) Math.ceil (maxy)));
+        }
+
+        //  Hand the changed region to the UI thread, if a frame is due and
+        //  the UI has taken the last one; otherwise keep accumulating
+        private void publish_frame () {
+            if (replay_frame_pending || replay_dirty.isEmpty ())
+                return;
+            long now = System.nanoTime ();
+            if (!replay_pacer.isFrameDue (now))
+                return;
+            replay_frame.set (replay_dirty);
+            replay_dirty.setEmpty ();
+            replay_back_canvas.drawBitmap (bitmap, replay_frame, replay_frame, null);
+            replay_frame_pending = true;
+            replay_pacer.framePublished (now);
+            publishProgress ();
+        }
     }
 
     private void trace (String s, Point p)
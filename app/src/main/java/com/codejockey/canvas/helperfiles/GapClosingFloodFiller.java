@@ -0,0 +1,502 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+
+//Flood fill that won't leak through small gaps in hand-drawn outlines.
+//
+//Every pixel that doesn't match the target color, including the pale
+//anti-aliased fringe of a stroke when the tolerance is tight, is a wall.
+//The walls are dilated by half the gap width, which closes any gap up to
+//that width, and the fill runs over what is left. The filled region is
+//then grown back by the same amount, without crossing real walls, so it
+//still reaches right up to the strokes.
+//
+//If the fill covers more than a set fraction of the canvas, counted
+//after growing back, it is taken to have leaked anyway; the fill is
+//abandoned and the pixels are left untouched, so the caller doesn't need
+//an undo.
+//
+//Walls are worked out lazily, in full-width bands of rows, as the fill
+//reaches them, so a small fill costs the bands it touches rather than
+//the whole canvas. With a PixelSource attached, like ScanlineFloodFiller,
+//those rows are also the only ones read, and only the filled box is
+//written back.
+
+public class GapClosingFloodFiller
+{
+    //Mask bits, one byte per pixel
+    private static final byte WALL   = 1;   //doesn't match the target
+    private static final byte NEAR   = 2;   //within the gap radius of a wall, one axis
+    private static final byte CLOSED = 4;   //within the gap radius of a wall
+    private static final byte FILLED = 8;
+
+    //Walls are closed in bands of this many rows
+    private static final int BAND_SHIFT = 5;
+
+    private int[] pixels    = null;
+    private int   width     = 0;
+    private int   height    = 0;
+    private int   fillColor = 0;
+    private int   radius    = 0;
+    private float maxFillFraction = 1.0f;
+    private final ColorMatcher matcher = new ColorMatcher();
+
+    //Lazy loading state; rows are ready once read, with WALL and NEAR
+    //set, and bands once CLOSED is set over all their rows
+    private ScanlineFloodFiller.PixelSource source;
+    private boolean[] rowReady   = new boolean[0];
+    private boolean[] bandClosed = new boolean[0];
+
+    //Pooled work buffers, kept between fills
+    private byte[] mask     = new byte[0];
+    private int[]  lastSeen = new int[0];
+    private int[]  spans    = new int[64 * 3];
+    private int[]  frontier = new int[256];
+    private int[]  next     = new int[256];
+
+    //Bounding box of the last fill, inclusive
+    private int dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+    private int filledCount;
+
+    public GapClosingFloodFiller(int[] pixels, int width, int height)
+    {
+        usePixels(pixels, width, height);
+    }
+
+    //Fill directly into the provided pixel array, row stride equals width
+    public void usePixels(int[] pixels, int width, int height)
+    {
+        if (mask.length != width * height)
+        {
+            mask = new byte[width * height];
+        }
+        if (lastSeen.length != width)
+        {
+            lastSeen = new int[width];
+        }
+        if (rowReady.length != height)
+        {
+            rowReady   = new boolean[height];
+            bandClosed = new boolean[((height - 1) >> BAND_SHIFT) + 1];
+        }
+        this.pixels = pixels;
+        this.width  = width;
+        this.height = height;
+    }
+
+    //Read pixels lazily from the source and write the filled box back to it.
+    //With no source (null) the pixel array must already hold the image.
+    public void setSource(ScanlineFloodFiller.PixelSource source)
+    {
+        this.source = source;
+    }
+
+    public void setTargetColor(int targetColor)
+    {
+        matcher.setTarget(targetColor);
+    }
+
+    public ColorMatcher getMatcher()
+    {
+        return matcher;
+    }
+
+    public void setTolerance(int value)
+    {
+        matcher.setTolerance(value);
+    }
+
+    public void setFillColor(int value)
+    {
+        fillColor = value;
+    }
+
+    //Widest gap in an outline, in pixels, that the fill won't go through
+    public void setMaxGap(int pixels)
+    {
+        radius = (Math.max(0, pixels) + 1) / 2;
+    }
+
+    //Fraction of the canvas (0..1) past which a fill counts as a leak
+    public void setMaxFillFraction(float fraction)
+    {
+        maxFillFraction = fraction;
+    }
+
+    public int getFilledCount()
+    {
+        return filledCount;
+    }
+
+    public int getDirtyLeft()
+    {
+        return dirtyLeft;
+    }
+
+    public int getDirtyTop()
+    {
+        return dirtyTop;
+    }
+
+    public int getDirtyRight()
+    {
+        return dirtyRight;
+    }
+
+    public int getDirtyBottom()
+    {
+        return dirtyBottom;
+    }
+
+    // Fills the region around x, y. Returns false, leaving the pixels
+    // untouched, if the fill leaked past the allowed fraction of the canvas.
+    public boolean floodFill(int x, int y)
+    {
+        //Forget the rows of the last fill; the image may have changed
+        for (int row = 0; row < height; row++)
+        {
+            if (rowReady[row])
+            {
+                Arrays.fill(mask, width * row, width * (row + 1), (byte) 0);
+                rowReady[row] = false;
+            }
+        }
+        Arrays.fill(bandClosed, false);
+
+        //Tapped right next to a line: the closed mask would swallow the
+        //seed, so fill without closing gaps rather than doing nothing
+        closeBand(y);
+        byte blocked = CLOSED;
+        if ((mask[(width * y) + x] & CLOSED) != 0)
+        {
+            blocked = WALL;
+        }
+
+        long limit = (long) (maxFillFraction * width * height);
+        if (!fillRegion(x, y, blocked, limit))
+        {
+            return false;
+        }
+        if (blocked == CLOSED && radius > 0)
+        {
+            growBack();
+            if (filledCount > limit)
+            {
+                return false;
+            }
+        }
+
+        for (int row = dirtyTop; row <= dirtyBottom; row++)
+        {
+            int px = (width * row) + dirtyLeft;
+            for (int col = dirtyLeft; col <= dirtyRight; col++, px++)
+            {
+                if ((mask[px] & FILLED) != 0)
+                {
+                    pixels[px] = fillColor;
+                }
+            }
+        }
+        if (source != null)
+        {
+            source.writePixels(pixels, (width * dirtyTop) + dirtyLeft, width,
+                    dirtyLeft, dirtyTop, dirtyRight - dirtyLeft + 1, dirtyBottom - dirtyTop + 1);
+        }
+        return true;
+    }
+
+    //Marks everything within radius of a wall as closed in the band
+    //holding row y, if not done yet. Square dilation: a horizontal pass
+    //per row, then a vertical pass over the band and radius rows either
+    //side of it.
+    private void closeBand(int y)
+    {
+        int band = y >> BAND_SHIFT;
+        if (bandClosed[band])
+        {
+            return;
+        }
+        bandClosed[band] = true;
+        int top    = band << BAND_SHIFT;
+        int bottom = Math.min(height, top + (1 << BAND_SHIFT)) - 1;
+        int above  = Math.max(0, top - radius);
+        int below  = Math.min(height - 1, bottom + radius);
+        readyRows(above, below);
+
+        if (radius == 0)
+        {
+            for (int px = width * top, end = width * (bottom + 1); px < end; px++)
+            {
+                mask[px] |= mask[px] << 2;          //WALL -> CLOSED
+            }
+            return;
+        }
+
+        //Vertical pass walks rows too, keeping the last NEAR row per column
+        Arrays.fill(lastSeen, Integer.MIN_VALUE / 2);
+        for (int row = above, px = width * above; row <= bottom; row++)
+        {
+            for (int col = 0; col < width; col++, px++)
+            {
+                if ((mask[px] & NEAR) != 0)
+                {
+                    lastSeen[col] = row;
+                }
+                if (row >= top && row - lastSeen[col] <= radius)
+                {
+                    mask[px] |= CLOSED;
+                }
+            }
+        }
+        Arrays.fill(lastSeen, Integer.MAX_VALUE / 2);
+        for (int row = below, px = width * (below + 1) - 1; row >= top; row--)
+        {
+            for (int col = width - 1; col >= 0; col--, px--)
+            {
+                if ((mask[px] & NEAR) != 0)
+                {
+                    lastSeen[col] = row;
+                }
+                if (row <= bottom && lastSeen[col] - row <= radius)
+                {
+                    mask[px] |= CLOSED;
+                }
+            }
+        }
+    }
+
+    //Reads rows top to bottom from the source, if any, and marks their
+    //walls and what lies within radius of a wall along the row
+    private void readyRows(int top, int bottom)
+    {
+        for (int row = top; row <= bottom; row++)
+        {
+            if (rowReady[row])
+            {
+                continue;
+            }
+            int run = row;
+            while (run < bottom && !rowReady[run + 1])
+            {
+                run++;
+            }
+            if (source != null)
+            {
+                source.readPixels(pixels, width * row, width, 0, row, width, run - row + 1);
+            }
+            for (; row <= run; row++)
+            {
+                readyRow(row);
+            }
+            row--;
+        }
+    }
+
+    private void readyRow(int row)
+    {
+        rowReady[row] = true;
+        int rowStart = width * row;
+        for (int px = rowStart, end = rowStart + width; px < end; px++)
+        {
+            mask[px] = matcher.matches(pixels[px]) ? 0 : WALL;
+        }
+        if (radius == 0)
+        {
+            return;
+        }
+
+        int last = Integer.MIN_VALUE / 2;
+        for (int col = 0; col < width; col++)
+        {
+            if ((mask[rowStart + col] & WALL) != 0)
+            {
+                last = col;
+            }
+            if (col - last <= radius)
+            {
+                mask[rowStart + col] |= NEAR;
+            }
+        }
+        last = Integer.MAX_VALUE / 2;
+        for (int col = width - 1; col >= 0; col--)
+        {
+            if ((mask[rowStart + col] & WALL) != 0)
+            {
+                last = col;
+            }
+            if (last - col <= radius)
+            {
+                mask[rowStart + col] |= NEAR;
+            }
+        }
+    }
+
+    //Scanline fill over the open mask; false as soon as it passes the limit
+    private boolean fillRegion(int x, int y, byte blocked, long limit)
+    {
+        dirtyLeft   = width;
+        dirtyTop    = height;
+        dirtyRight  = -1;
+        dirtyBottom = -1;
+        filledCount = 0;
+
+        int stack = fillRow(x, y, blocked, 0);
+        while (stack > 0)
+        {
+            if (filledCount > limit)
+            {
+                return false;
+            }
+            stack -= 3;
+            int startX = spans[stack];
+            int endX   = spans[stack + 1];
+            int rangeY = spans[stack + 2];
+
+            for (int ny = rangeY - 1; ny <= rangeY + 1; ny += 2)
+            {
+                if (ny < 0 || ny >= height)
+                {
+                    continue;
+                }
+                closeBand(ny);
+                int px = (width * ny) + startX;
+                for (int i = startX; i <= endX; i++, px++)
+                {
+                    if ((mask[px] & (blocked | FILLED)) == 0)
+                    {
+                        stack = fillRow(i, ny, blocked, stack);
+                    }
+                }
+            }
+        }
+        return filledCount <= limit;
+    }
+
+    //Fills one horizontal run through x, y and pushes it; returns the new stack size
+    private int fillRow(int x, int y, byte blocked, int stack)
+    {
+        int rowStart = width * y;
+        int left  = x;
+        int right = x;
+
+        mask[rowStart + x] |= FILLED;
+        while (left > 0 && (mask[rowStart + left - 1] & (blocked | FILLED)) == 0)
+        {
+            mask[rowStart + --left] |= FILLED;
+        }
+        while (right < width - 1 && (mask[rowStart + right + 1] & (blocked | FILLED)) == 0)
+        {
+            mask[rowStart + ++right] |= FILLED;
+        }
+        filledCount += right - left + 1;
+
+        if (left < dirtyLeft)   dirtyLeft   = left;
+        if (right > dirtyRight) dirtyRight  = right;
+        if (y < dirtyTop)       dirtyTop    = y;
+        if (y > dirtyBottom)    dirtyBottom = y;
+
+        if (stack + 3 > spans.length)
+        {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[stack]     = left;
+        spans[stack + 1] = right;
+        spans[stack + 2] = y;
+        return stack + 3;
+    }
+
+    //Grows the filled region by radius steps into open (non-wall) pixels.
+    //Diagonal steps may not cut between two wall pixels, so thin diagonal
+    //strokes still hold.
+    private void growBack()
+    {
+        int count = 0;
+        for (int row = dirtyTop; row <= dirtyBottom; row++)
+        {
+            int px = (width * row) + dirtyLeft;
+            for (int col = dirtyLeft; col <= dirtyRight; col++, px++)
+            {
+                if ((mask[px] & FILLED) != 0 && onEdge(px, col, row))
+                {
+                    count = push(px, count);
+                }
+            }
+        }
+
+        for (int step = 0; step < radius && count > 0; step++)
+        {
+            int grown = 0;
+            for (int i = 0; i < count; i++)
+            {
+                int px  = frontier[i];
+                int col = px % width;
+                int row = px / width;
+
+                for (int dy = -1; dy <= 1; dy++)
+                {
+                    int ny = row + dy;
+                    if (ny < 0 || ny >= height)
+                    {
+                        continue;
+                    }
+                    for (int dx = -1; dx <= 1; dx++)
+                    {
+                        int nx = col + dx;
+                        if (nx < 0 || nx >= width || (dx == 0 && dy == 0))
+                        {
+                            continue;
+                        }
+                        int target = (width * ny) + nx;
+                        if ((mask[target] & (WALL | FILLED)) != 0)
+                        {
+                            continue;
+                        }
+                        if (dx != 0 && dy != 0
+                                && (mask[(width * row) + nx] & WALL) != 0
+                                && (mask[(width * ny) + col] & WALL) != 0)
+                        {
+                            continue;
+                        }
+                        mask[target] |= FILLED;
+                        filledCount++;
+
+                        if (grown == next.length)
+                        {
+                            next = Arrays.copyOf(next, next.length * 2);
+                        }
+                        next[grown++] = target;
+
+                        if (nx < dirtyLeft)   dirtyLeft   = nx;
+                        if (nx > dirtyRight)  dirtyRight  = nx;
+                        if (ny < dirtyTop)    dirtyTop    = ny;
+                        if (ny > dirtyBottom) dirtyBottom = ny;
+                    }
+                }
+            }
+            int[] swap = frontier;
+            frontier = next;
+            next     = swap;
+            count    = grown;
+        }
+    }
+
+    //Filled pixel with an unfilled orthogonal neighbour; diagonal-only
+    //neighbours are always reached through one of these
+    private boolean onEdge(int px, int col, int row)
+    {
+        return (col > 0          && (mask[px - 1] & FILLED) == 0)
+            || (col < width - 1  && (mask[px + 1] & FILLED) == 0)
+            || (row > 0          && (mask[px - width] & FILLED) == 0)
+            || (row < height - 1 && (mask[px + width] & FILLED) == 0);
+    }
+
+    private int push(int px, int count)
+    {
+        if (count == frontier.length)
+        {
+            frontier = Arrays.copyOf(frontier, frontier.length * 2);
+        }
+        frontier[count] = px;
+        return count + 1;
+    }
+}
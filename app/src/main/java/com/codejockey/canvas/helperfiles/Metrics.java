@@ -0,0 +1,277 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Counters, timers and trace points for the drawing code.
+//
+//Everything is gated twice: ENABLED is a compile-time switch, and the
+//level can be changed at run time. Every recording method checks both
+//first, so with ENABLED false javac drops the recording code and each
+//call returns at once; the calls themselves stay, so a call site that
+//does work just to feed a metric should wrap it in if (Metrics.ENABLED)
+//to have that compiled out too. At LEVEL_COUNTERS counters and timers
+//are kept; at LEVEL_TRACE trace events are also kept, in a ring of the
+//last few hundred. Trace events take a constant name and a number, so no
+//strings are built at a trace point; text is only produced by dump().
+//
+//Recording allocates nothing. Meant to be used from the UI thread; a
+//dump from another thread may see counters mid-update.
+
+public final class Metrics
+{
+    //Set false to compile all instrumentation out
+    public static final boolean ENABLED = true;
+
+    public static final int LEVEL_OFF      = 0;
+    public static final int LEVEL_COUNTERS = 1;
+    public static final int LEVEL_TRACE    = 2;
+
+    private static final int TRACE_EVENTS = 256;
+
+    private static volatile int level = LEVEL_COUNTERS;
+
+    private static final List<Counter> counters = new ArrayList<Counter>();
+    private static final List<Timer>   timers   = new ArrayList<Timer>();
+
+    //Trace ring
+    private static final String[] traceNames  = new String[TRACE_EVENTS];
+    private static final double[] traceValues = new double[TRACE_EVENTS];
+    private static final long[]   traceTimes  = new long[TRACE_EVENTS];
+    private static int traceNext;
+    private static int traceCount;
+
+    //Standard metrics for the drawing view
+    public static final Timer   FRAME             = new Timer("frame");
+    public static final Timer   FRAME_SOFTWARE    = new Timer("frame software");
+    public static final Timer   FRAME_LAYERED     = new Timer("frame layered");
+    public static final Counter PATHS             = new Counter("paths");
+    public static final Counter PAINT_ALLOCATIONS = new Counter("paint allocations");
+    public static final Counter CACHE_REBUILDS    = new Counter("cache rebuilds");
+
+    //Touch input, per batch of samples delivered in one event: time to
+    //handle it, age of its oldest sample, and samples handled
+    public static final Timer   INPUT_BATCH       = new Timer("input batch");
+    public static final Timer   INPUT_LATENCY     = new Timer("input latency");
+    public static final Counter INPUT_SAMPLES     = new Counter("input samples");
+
+    private Metrics()
+    {
+    }
+
+    public static void setLevel(int value)
+    {
+        level = value;
+    }
+
+    public static int getLevel()
+    {
+        return level;
+    }
+
+    public static boolean isCounting()
+    {
+        return ENABLED && level >= LEVEL_COUNTERS;
+    }
+
+    public static boolean isTracing()
+    {
+        return ENABLED && level >= LEVEL_TRACE;
+    }
+
+    //Records a named event; name should be a constant
+    public static void trace(String name, double value)
+    {
+        if (!isTracing())
+        {
+            return;
+        }
+        traceNames[traceNext]  = name;
+        traceValues[traceNext] = value;
+        traceTimes[traceNext]  = System.nanoTime();
+        traceNext = (traceNext + 1) % TRACE_EVENTS;
+        if (traceCount < TRACE_EVENTS)
+        {
+            traceCount++;
+        }
+    }
+
+    //Clears every counter, timer and the trace ring
+    public static void reset()
+    {
+        for (Counter counter : counters)
+        {
+            counter.value = 0;
+        }
+        for (Timer timer : timers)
+        {
+            timer.clear();
+        }
+        traceNext  = 0;
+        traceCount = 0;
+    }
+
+    //Counters, timer percentiles and recent trace events, one per line
+    public static String dump()
+    {
+        StringBuilder text = new StringBuilder();
+        for (Counter counter : counters)
+        {
+            text.append(counter.name).append(": ").append(counter.value).append('\n');
+        }
+        for (Timer timer : timers)
+        {
+            text.append(timer.name).append(": ").append(timer.getCount()).append(" samples");
+            if (timer.getCount() > 0)
+            {
+                text.append(String.format(", p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                        timer.getPercentile(50) / 1e6, timer.getPercentile(90) / 1e6,
+                        timer.getPercentile(99) / 1e6, timer.getPercentile(100) / 1e6));
+            }
+            text.append('\n');
+        }
+        int first = (traceNext - traceCount + TRACE_EVENTS) % TRACE_EVENTS;
+        for (int i = 0; i < traceCount; i++)
+        {
+            int event = (first + i) % TRACE_EVENTS;
+            text.append(traceTimes[event]).append(' ').append(traceNames[event])
+                .append(' ').append(traceValues[event]).append('\n');
+        }
+        return text.toString();
+    }
+
+    //A named count or gauge
+    public static final class Counter
+    {
+        private final String name;
+        private long value;
+
+        public Counter(String name)
+        {
+            this.name = name;
+            counters.add(this);
+        }
+
+        public void increment()
+        {
+            if (isCounting())
+            {
+                value++;
+            }
+        }
+
+        public void add(long delta)
+        {
+            if (isCounting())
+            {
+                value += delta;
+            }
+        }
+
+        //For gauges, such as the number of paths
+        public void set(long value)
+        {
+            if (isCounting())
+            {
+                this.value = value;
+            }
+        }
+
+        public long get()
+        {
+            return value;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    //Durations of a repeated operation, keeping the last few hundred
+    //samples for percentiles
+    public static final class Timer
+    {
+        private static final int SAMPLES = 512;
+
+        private final String name;
+        private final long[] samples = new long[SAMPLES];
+        private final long[] sorted  = new long[SAMPLES];
+        private int  next;
+        private int  count;
+        private long total;
+
+        public Timer(String name)
+        {
+            this.name = name;
+            timers.add(this);
+        }
+
+        //Start time to hand back to stop(), or zero when not counting
+        public long start()
+        {
+            return isCounting() ? System.nanoTime() : 0;
+        }
+
+        public void stop(long start)
+        {
+            if (start != 0)
+            {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        public void record(long nanos)
+        {
+            if (!isCounting())
+            {
+                return;
+            }
+            samples[next] = nanos;
+            next = (next + 1) % SAMPLES;
+            if (count < SAMPLES)
+            {
+                count++;
+            }
+            total++;
+        }
+
+        //Number of samples held, at most SAMPLES
+        public int getCount()
+        {
+            return count;
+        }
+
+        //Number of samples ever recorded
+        public long getTotal()
+        {
+            return total;
+        }
+
+        //Nearest-rank percentile of the held samples, in nanoseconds
+        public long getPercentile(double percent)
+        {
+            if (count == 0)
+            {
+                return 0;
+            }
+            System.arraycopy(samples, 0, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+            int rank = (int) Math.ceil(percent / 100 * count);
+            return sorted[Math.max(0, Math.min(count, rank) - 1)];
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        void clear()
+        {
+            next  = 0;
+            count = 0;
+            total = 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.codejockey.canvas.helperfiles;
+
+//Short-horizon prediction of where a stroke goes next.
+//
+//Takes the last three touch samples, assumed evenly spaced in time, and
+//extrapolates a sample interval or two ahead from their velocity and
+//half their change in velocity. Predicted steps may not grow much longer
+//than the last real step, which keeps a sudden turn from flinging the
+//prediction off the stroke.
+//
+//The predicted points are only drawn as a provisional tail that is
+//replaced once the real samples arrive, so being a little wrong at a
+//corner costs nothing but a flicker.
+
+public class MotionPredictor
+{
+    //Part of the change in velocity carried into each predicted step
+    private static final float ACCELERATION_WEIGHT = 0.5f;
+    //Predicted steps are at most this many times the last real step
+    private static final float MAX_STEP_GROWTH = 1.5f;
+
+    //Last samples, newest last
+    private final float[] xs = new float[3];
+    private final float[] ys = new float[3];
+    private int count;
+
+    public void reset()
+    {
+        count = 0;
+    }
+
+    public void add(float x, float y)
+    {
+        xs[0] = xs[1];
+        xs[1] = xs[2];
+        xs[2] = x;
+        ys[0] = ys[1];
+        ys[1] = ys[2];
+        ys[2] = y;
+        if (count < 3)
+        {
+            count++;
+        }
+    }
+
+    //Stores up to steps predicted points in out as x, y pairs, each a
+    //sample interval further ahead. Returns the number of points, which
+    //is zero until two samples are in or while the stroke is standing
+    //still.
+    public int predict(int steps, float[] out)
+    {
+        if (count < 2)
+        {
+            return 0;
+        }
+        float vx = xs[2] - xs[1];
+        float vy = ys[2] - ys[1];
+        float limit = (vx * vx + vy * vy) * MAX_STEP_GROWTH * MAX_STEP_GROWTH;
+        if (limit == 0)
+        {
+            return 0;
+        }
+        float ax = 0, ay = 0;
+        if (count == 3)
+        {
+            ax = (xs[2] - 2 * xs[1] + xs[0]) * ACCELERATION_WEIGHT;
+            ay = (ys[2] - 2 * ys[1] + ys[0]) * ACCELERATION_WEIGHT;
+        }
+
+        float x = xs[2];
+        float y = ys[2];
+        for (int step = 0; step < steps; step++)
+        {
+            vx += ax;
+            vy += ay;
+            float length = vx * vx + vy * vy;
+            if (length > limit)
+            {
+                float scale = (float) Math.sqrt(limit / length);
+                vx *= scale;
+                vy *= scale;
+            }
+            x += vx;
+            y += vy;
+            out[step * 2]     = x;
+            out[step * 2 + 1] = y;
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,89 @@
+package com.codejockey.canvas.helperfiles;
+
+import android.graphics.Paint;
+import android.graphics.Xfermode;
+
+import java.util.Arrays;
+
+//Registry of shared stroke paints, interned by color, width, cap, join
+//and xfermode.
+//
+//A stroke keeps just the index of its style, so thousands of strokes
+//share a handful of Paint instances, and strokes with the same index can
+//be drawn together. The paints handed out are shared: never change one.
+//
+//Xfermodes are compared by reference, so callers should reuse a single
+//instance per mode. Lookup is a linear scan, starting with the last hit;
+//a drawing rarely has more than a few dozen styles.
+
+public class PaintStyles
+{
+    private int[]        colors    = new int[16];
+    private float[]      widths    = new float[16];
+    private Paint.Cap[]  caps      = new Paint.Cap[16];
+    private Paint.Join[] joins     = new Paint.Join[16];
+    private Xfermode[]   xfermodes = new Xfermode[16];
+    private Paint[]      paints    = new Paint[16];
+    private int          size;
+    private int          lastHit;
+
+    //Index of the style matching paint, adding a copy of it if new
+    public int intern(Paint paint)
+    {
+        int color       = paint.getColor();
+        float width     = paint.getStrokeWidth();
+        Paint.Cap cap   = paint.getStrokeCap();
+        Paint.Join join = paint.getStrokeJoin();
+        Xfermode mode   = paint.getXfermode();
+
+        if (lastHit < size && matches(lastHit, color, width, cap, join, mode))
+        {
+            return lastHit;
+        }
+        for (int i = 0; i < size; i++)
+        {
+            if (matches(i, color, width, cap, join, mode))
+            {
+                lastHit = i;
+                return i;
+            }
+        }
+
+        if (size == colors.length)
+        {
+            int capacity = size * 2;
+            colors    = Arrays.copyOf(colors, capacity);
+            widths    = Arrays.copyOf(widths, capacity);
+            caps      = Arrays.copyOf(caps, capacity);
+            joins     = Arrays.copyOf(joins, capacity);
+            xfermodes = Arrays.copyOf(xfermodes, capacity);
+            paints    = Arrays.copyOf(paints, capacity);
+        }
+        colors[size]    = color;
+        widths[size]    = width;
+        caps[size]      = cap;
+        joins[size]     = join;
+        xfermodes[size] = mode;
+        paints[size]    = new Paint(paint);
+        Metrics.PAINT_ALLOCATIONS.increment();
+        lastHit = size;
+        return size++;
+    }
+
+    //Shared paint for a style index; do not modify it
+    public Paint get(int index)
+    {
+        return paints[index];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private boolean matches(int i, int color, float width, Paint.Cap cap, Paint.Join join, Xfermode mode)
+    {
+        return colors[i] == color && widths[i] == width
+            && caps[i] == cap && joins[i] == join && xfermodes[i] == mode;
+    }
+}
@@ -0,0 +1,460 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Multi-threaded flood fill for large canvases, working on a raw ARGB
+//pixel array like ScanlineFloodFiller.
+//
+//The image is cut into horizontal bands, one per worker. Each band runs
+//the usual scanline fill over its own rows only; a range that reaches the
+//band's top or bottom row is handed to the neighbouring band as a seed
+//span instead of being followed across the edge. Work proceeds in rounds:
+//every band with pending work runs in parallel, then the exported spans
+//are routed to their neighbours, until no band has anything left to do.
+//
+//Bands never touch each other's rows, so no locking is needed, and the
+//result of a flood fill is simply the connected region around the seed,
+//so the output is identical to the sequential fillers whatever order the
+//bands run in.
+//
+//Fork/join would be the natural fit but needs API 21; a fixed thread
+//pool with one invokeAll per round does the same job on API 16. A pool
+//the filler creates itself runs on daemon threads that exit after
+//IDLE_SECONDS without a fill, so a filler its owner forgets to shut down
+//holds no threads for long.
+
+public class ParallelFloodFiller
+{
+    private static final long IDLE_SECONDS = 30;
+
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory()
+    {
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "ParallelFloodFiller");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ExecutorService pool;
+    private final boolean         ownPool;
+    private final int             threads;
+
+    private int[] pixels     = null;
+    private int   width      = 0;
+    private int   height     = 0;
+    private int   fillColor  = 0;
+    private final ColorMatcher matcher = new ColorMatcher();
+
+    private Band[]           bands  = new Band[0];
+    private final List<Band> active = new ArrayList<Band>();
+
+    //Bounding box of the last fill, inclusive
+    private int dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+
+    //Creates and owns a pool with the given number of threads
+    public ParallelFloodFiller(int threads)
+    {
+        this(idlePool(Math.max(1, threads)), threads, true);
+    }
+
+    //Runs on a caller supplied pool, which shutdown() leaves alone
+    public ParallelFloodFiller(ExecutorService pool, int threads)
+    {
+        this(pool, threads, false);
+    }
+
+    private ParallelFloodFiller(ExecutorService pool, int threads, boolean ownPool)
+    {
+        this.pool    = pool;
+        this.threads = Math.max(1, threads);
+        this.ownPool = ownPool;
+    }
+
+    //Fixed size pool whose threads exit when idle
+    private static ExecutorService idlePool(int threads)
+    {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), DAEMON_THREADS);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public void shutdown()
+    {
+        if (ownPool)
+        {
+            pool.shutdown();
+        }
+    }
+
+    //Fill directly into the provided pixel array, row stride equals width
+    public void usePixels(int[] pixels, int width, int height)
+    {
+        if (this.width != width || this.height != height)
+        {
+            int count    = Math.min(threads, height);
+            int bandRows = (height + count - 1) / count;
+
+            bands = new Band[(height + bandRows - 1) / bandRows];
+            for (int i = 0; i < bands.length; i++)
+            {
+                int top = i * bandRows;
+                bands[i] = new Band(top, Math.min(height, top + bandRows) - 1, width);
+            }
+        }
+        this.pixels = pixels;
+        this.width  = width;
+        this.height = height;
+    }
+
+    public void setTargetColor(int targetColor)
+    {
+        matcher.setTarget(targetColor);
+    }
+
+    public ColorMatcher getMatcher()
+    {
+        return matcher;
+    }
+
+    public int getFillColor()
+    {
+        return fillColor;
+    }
+
+    public void setFillColor(int value)
+    {
+        fillColor = value;
+    }
+
+    public void setTolerance(int value)
+    {
+        matcher.setTolerance(value);
+    }
+
+    public int getDirtyLeft()
+    {
+        return dirtyLeft;
+    }
+
+    public int getDirtyTop()
+    {
+        return dirtyTop;
+    }
+
+    public int getDirtyRight()
+    {
+        return dirtyRight;
+    }
+
+    public int getDirtyBottom()
+    {
+        return dirtyBottom;
+    }
+
+    // Fills the specified point with the currently selected fill color.
+    public void floodFill(int x, int y)
+    {
+        for (Band band : bands)
+        {
+            band.prepare();
+        }
+
+        if ((matcher.getTarget() & 0xff0000) == 0)
+        {
+            //Same start color rule as QueueLinearFloodFiller
+            matcher.setTarget(pixels[(width * y) + x]);
+        }
+
+        //The seed pixel is filled unconditionally, as in the sequential fill
+        bands[bandIndex(y)].LinearFill(x, y);
+
+        while (true)
+        {
+            active.clear();
+            for (Band band : bands)
+            {
+                if (band.hasWork())
+                {
+                    active.add(band);
+                }
+            }
+            if (active.isEmpty())
+            {
+                break;
+            }
+            runRound();
+
+            //Route exported spans to the neighbouring bands
+            for (int i = 0; i < bands.length; i++)
+            {
+                if (i > 0)
+                {
+                    bands[i - 1].seeds.addAll(bands[i].exportUp);
+                }
+                if (i < bands.length - 1)
+                {
+                    bands[i + 1].seeds.addAll(bands[i].exportDown);
+                }
+                bands[i].exportUp.clear();
+                bands[i].exportDown.clear();
+            }
+        }
+
+        dirtyLeft   = width;
+        dirtyTop    = height;
+        dirtyRight  = -1;
+        dirtyBottom = -1;
+        for (Band band : bands)
+        {
+            if (band.dirtyRight >= 0)
+            {
+                dirtyLeft   = Math.min(dirtyLeft, band.dirtyLeft);
+                dirtyRight  = Math.max(dirtyRight, band.dirtyRight);
+                dirtyTop    = Math.min(dirtyTop, band.dirtyTop);
+                dirtyBottom = Math.max(dirtyBottom, band.dirtyBottom);
+            }
+        }
+    }
+
+    private void runRound()
+    {
+        if (active.size() == 1)
+        {
+            //Nothing to overlap with, skip the hand-off to the pool
+            active.get(0).call();
+            return;
+        }
+        try
+        {
+            for (Future<Void> result : pool.invokeAll(active))
+            {
+                result.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Flood fill interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Flood fill band failed", e.getCause());
+        }
+    }
+
+    private int bandIndex(int y)
+    {
+        return y / (bands[0].bottom + 1);
+    }
+
+    //Sees if a pixel is within the color tolerance range.
+    protected boolean CheckPixel(int px)
+    {
+        return matcher.matches(pixels[px]);
+    }
+
+    // Growable list of (startX, endX, y) triples, used as a stack
+    private static class SpanList
+    {
+        private int[] spans = new int[64 * 3];
+        private int   size;             //in ints, three per span
+
+        void add(int startX, int endX, int y)
+        {
+            if (size == spans.length)
+            {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+            }
+            spans[size]     = startX;
+            spans[size + 1] = endX;
+            spans[size + 2] = y;
+            size += 3;
+        }
+
+        void addAll(SpanList other)
+        {
+            if (size + other.size > spans.length)
+            {
+                spans = Arrays.copyOf(spans, Math.max(spans.length * 2, size + other.size));
+            }
+            System.arraycopy(other.spans, 0, spans, size, other.size);
+            size += other.size;
+        }
+
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+    }
+
+    // One horizontal band of rows, filled by one worker per round
+    private class Band implements Callable<Void>
+    {
+        final int top;
+        final int bottom;
+        final int rowOffset;            //pixel index of (0, top)
+
+        //Visited bits for this band's rows only
+        final long[] pixelsChecked;
+
+        final SpanList pending    = new SpanList();
+        final SpanList seeds      = new SpanList();
+        final SpanList exportUp   = new SpanList();
+        final SpanList exportDown = new SpanList();
+
+        int dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+
+        Band(int top, int bottom, int width)
+        {
+            this.top       = top;
+            this.bottom    = bottom;
+            this.rowOffset = top * width;
+            pixelsChecked  = new long[((bottom - top + 1) * width + 63) >>> 6];
+        }
+
+        void prepare()
+        {
+            Arrays.fill(pixelsChecked, 0L);
+            pending.clear();
+            seeds.clear();
+            exportUp.clear();
+            exportDown.clear();
+            dirtyLeft   = width;
+            dirtyTop    = height;
+            dirtyRight  = -1;
+            dirtyBottom = -1;
+        }
+
+        boolean hasWork()
+        {
+            return !seeds.isEmpty() || !pending.isEmpty();
+        }
+
+        public Void call()
+        {
+            //Seed spans lie on our edge row, next to pixels filled by a neighbour
+            int[] spans = seeds.spans;
+            for (int s = 0; s < seeds.size; s += 3)
+            {
+                scanRow(spans[s], spans[s + 1], spans[s + 2]);
+            }
+            seeds.clear();
+
+            while (!pending.isEmpty())
+            {
+                pending.size -= 3;
+                int startX = pending.spans[pending.size];
+                int endX   = pending.spans[pending.size + 1];
+                int rangeY = pending.spans[pending.size + 2];
+
+                if (rangeY > top)
+                {
+                    scanRow(startX, endX, rangeY - 1);
+                }
+                else
+                if (rangeY > 0)
+                {
+                    exportUp.add(startX, endX, rangeY - 1);
+                }
+
+                if (rangeY < bottom)
+                {
+                    scanRow(startX, endX, rangeY + 1);
+                }
+                else
+                if (rangeY < height - 1)
+                {
+                    exportDown.add(startX, endX, rangeY + 1);
+                }
+            }
+            return null;
+        }
+
+        //Starts a linear fill at every unvisited matching pixel of the span
+        private void scanRow(int startX, int endX, int y)
+        {
+            int pxIdx = (width * y) + startX;
+            for (int i = startX; i <= endX; i++, pxIdx++)
+            {
+                if (!isChecked(pxIdx) && CheckPixel(pxIdx))
+                {
+                    LinearFill(i, y);
+                }
+            }
+        }
+
+        void LinearFill(int x, int y)
+        {
+            int rowStart = width * y;
+
+            int lFillLoc = x;
+            int pxIdx    = rowStart + x;
+
+            while (true)
+            {
+                pixels[pxIdx] = fillColor;
+                setChecked(pxIdx);
+
+                lFillLoc--;
+                pxIdx--;
+
+                if (lFillLoc < 0 || isChecked(pxIdx) || !CheckPixel(pxIdx))
+                {
+                    break;
+                }
+            }
+            lFillLoc++;
+
+            int rFillLoc = x + 1;
+
+            pxIdx = rowStart + rFillLoc;
+
+            while (rFillLoc < width && !isChecked(pxIdx) && CheckPixel(pxIdx))
+            {
+                pixels[pxIdx] = fillColor;
+                setChecked(pxIdx);
+
+                rFillLoc++;
+                pxIdx++;
+            }
+            rFillLoc--;
+
+            if (lFillLoc < dirtyLeft)   dirtyLeft   = lFillLoc;
+            if (rFillLoc > dirtyRight)  dirtyRight  = rFillLoc;
+            if (y < dirtyTop)           dirtyTop    = y;
+            if (y > dirtyBottom)        dirtyBottom = y;
+
+            pending.add(lFillLoc, rFillLoc, y);
+        }
+
+        private boolean isChecked(int px)
+        {
+            px -= rowOffset;
+            return (pixelsChecked[px >>> 6] & (1L << px)) != 0;
+        }
+
+        private void setChecked(int px)
+        {
+            px -= rowOffset;
+            pixelsChecked[px >>> 6] |= 1L << px;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.codejockey.canvas.helperfiles;
+
+//Pressure, contact size and tool type of a touch sample, packed in an int.
+//
+//Pressure and size are kept to 1/1023 from 0 to 1, which is finer than
+//digitizers report them, and the tool type is MotionEvent's. Samples are
+//recorded packed, so a width model sees the same quantized values when a
+//stroke is drawn and when it is replayed from the command log.
+//
+//Zero is NONE: nothing known about the pen, as for samples recorded
+//before pens were, so width models fall back on velocity alone.
+
+public final class PenState
+{
+    public static final int NONE = 0;
+
+    //Tool types, as MotionEvent.TOOL_TYPE_*
+    public static final int TOOL_UNKNOWN = 0;
+    public static final int TOOL_FINGER  = 1;
+    public static final int TOOL_STYLUS  = 2;
+    public static final int TOOL_MOUSE   = 3;
+    public static final int TOOL_ERASER  = 4;
+
+    private static final int SCALE = 1023;
+    private static final int KNOWN = 1 << 24;
+
+    private PenState()
+    {
+    }
+
+    public static int pack(float pressure, float size, int tool)
+    {
+        return KNOWN | (tool & 0xf) << 20 | quantize(size) << 10 | quantize(pressure);
+    }
+
+    public static boolean isKnown(int pen)
+    {
+        return (pen & KNOWN) != 0;
+    }
+
+    public static float getPressure(int pen)
+    {
+        return (float) (pen & 0x3ff) / SCALE;
+    }
+
+    public static float getSize(int pen)
+    {
+        return (float) (pen >> 10 & 0x3ff) / SCALE;
+    }
+
+    public static int getTool(int pen)
+    {
+        return pen >> 20 & 0xf;
+    }
+
+    private static int quantize(float value)
+    {
+        return Math.round(Math.max(0, Math.min(1, value)) * SCALE);
+    }
+}
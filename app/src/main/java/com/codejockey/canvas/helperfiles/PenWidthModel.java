@@ -0,0 +1,61 @@
+package com.codejockey.canvas.helperfiles;
+
+//Width from what the digitizer reports about the pen.
+//
+//A stylus or its eraser end reports real pressure, so its width runs from
+//minWidth at a light touch to maxWidth pressed hard. A finger's pressure
+//is mostly how flat it is pressed, so fingers keep the speed-based width
+//of another model, scaled by the contact size against a typical finger
+//within half to double. Samples with nothing known about the pen, like
+//those of older logs, get the other model's width as is.
+//
+//The other model sees every sample, so it is up to date whenever the
+//tool changes mid-stroke.
+
+public class PenWidthModel implements WidthModel
+{
+    private static final float MIN_SIZE_SCALE = 0.5f;
+    private static final float MAX_SIZE_SCALE = 2.0f;
+
+    private final WidthModel fallback;
+    private final float minWidth, maxWidth;
+    private final float typicalSize;
+
+    public PenWidthModel(WidthModel fallback, float minWidth, float maxWidth, float typicalSize)
+    {
+        this.fallback    = fallback;
+        this.minWidth    = minWidth;
+        this.maxWidth    = maxWidth;
+        this.typicalSize = typicalSize;
+    }
+
+    public float start(float x, float y, long time, int pen)
+    {
+        return width(fallback.start(x, y, time, pen), pen);
+    }
+
+    public float sample(float x, float y, long time, int pen)
+    {
+        return width(fallback.sample(x, y, time, pen), pen);
+    }
+
+    private float width(float speedWidth, int pen)
+    {
+        if (!PenState.isKnown(pen))
+        {
+            return speedWidth;
+        }
+        int tool = PenState.getTool(pen);
+        if (tool == PenState.TOOL_STYLUS || tool == PenState.TOOL_ERASER)
+        {
+            return minWidth + (maxWidth - minWidth) * PenState.getPressure(pen);
+        }
+        float size = PenState.getSize(pen);
+        if (tool == PenState.TOOL_FINGER && size > 0)
+        {
+            float scale = Math.max(MIN_SIZE_SCALE, Math.min(MAX_SIZE_SCALE, size / typicalSize));
+            return speedWidth * scale;
+        }
+        return speedWidth;
+    }
+}
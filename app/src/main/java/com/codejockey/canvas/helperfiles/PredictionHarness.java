@@ -0,0 +1,142 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+//Offline check of MotionPredictor against recorded strokes.
+//
+//Replays the DOWN, MOVE and UP commands of a log stroke by stroke. After
+//each sample it predicts 'steps' samples ahead from the samples so far
+//and measures how far the farthest prediction lands from the sample that
+//actually came. The baseline is what is drawn without prediction: the
+//last real sample, left that same distance behind.
+//
+//Latency saved is the prediction horizon scaled by the share of the
+//baseline gap the prediction closes, so a useless predictor saves
+//nothing and a perfect one saves the whole horizon.
+
+public class PredictionHarness
+{
+    private final int steps;
+    private final MotionPredictor predictor = new MotionPredictor();
+    private final float[] predicted;
+
+    //Samples of the stroke being read
+    private int[] strokeX = new int[256];
+    private int[] strokeY = new int[256];
+    private int   strokeSize;
+
+    private int    predictions;
+    private double errorSum;
+    private double baselineSum;
+    private double maxError;
+
+    public PredictionHarness(int steps)
+    {
+        this.steps = steps;
+        predicted = new float[steps * 2];
+    }
+
+    //Runs over every command in a log
+    public void run(CommandLog.Reader reader) throws IOException
+    {
+        while (reader.next())
+        {
+            command(reader.getType(), reader.getX(), reader.getY());
+        }
+    }
+
+    public void run(CommandBuffer commands)
+    {
+        for (int i = 0; i < commands.size(); i++)
+        {
+            command(commands.getType(i), commands.getX(i), commands.getY(i));
+        }
+    }
+
+    public int getPredictions()
+    {
+        return predictions;
+    }
+
+    //Mean distance from the farthest predicted point to the real one
+    public double getMeanError()
+    {
+        return predictions == 0 ? 0 : errorSum / predictions;
+    }
+
+    public double getMaxError()
+    {
+        return maxError;
+    }
+
+    //Mean distance the real stroke runs ahead of the last sample
+    public double getMeanBaselineError()
+    {
+        return predictions == 0 ? 0 : baselineSum / predictions;
+    }
+
+    //Latency the prediction takes off, given the sample interval
+    public long getLatencySaved(long sampleNanos)
+    {
+        if (baselineSum == 0)
+        {
+            return 0;
+        }
+        double closed = Math.max(0, 1 - errorSum / baselineSum);
+        return (long) (steps * sampleNanos * closed);
+    }
+
+    private void command(int type, int x, int y)
+    {
+        switch (type)
+        {
+            case CommandBuffer.DOWN:
+                strokeSize = 0;
+                sample(x, y);
+                break;
+            case CommandBuffer.MOVE:
+                sample(x, y);
+                break;
+            case CommandBuffer.UP:
+                sample(x, y);
+                stroke();
+                strokeSize = 0;
+                break;
+        }
+    }
+
+    private void sample(int x, int y)
+    {
+        if (strokeSize == strokeX.length)
+        {
+            strokeX = Arrays.copyOf(strokeX, strokeSize * 2);
+            strokeY = Arrays.copyOf(strokeY, strokeSize * 2);
+        }
+        strokeX[strokeSize] = x;
+        strokeY[strokeSize] = y;
+        strokeSize++;
+    }
+
+    //Predicts from every sample that has a real sample 'steps' later
+    private void stroke()
+    {
+        predictor.reset();
+        for (int i = 0; i + steps < strokeSize; i++)
+        {
+            predictor.add(strokeX[i], strokeY[i]);
+            int target = i + steps;
+            double baseline = Math.hypot(strokeX[target] - strokeX[i], strokeY[target] - strokeY[i]);
+            double error = baseline;
+            if (predictor.predict(steps, predicted) == steps)
+            {
+                error = Math.hypot(strokeX[target] - predicted[steps * 2 - 2],
+                        strokeY[target] - predicted[steps * 2 - 1]);
+            }
+            predictions++;
+            errorSum    += error;
+            baselineSum += baseline;
+            maxError = Math.max(maxError, error);
+        }
+    }
+}
@@ -12,17 +12,15 @@ package com.codejockey.canvas.helperfiles;
         import java.util.LinkedList;
 
         import android.graphics.Bitmap;
-        import android.graphics.Color;
 
 public class QueueLinearFloodFiller
 {
     private Bitmap 				  image      = null;
-    private int[]  				  tolerance  = new int[] {0,0,0};
     private int    				  width      = 0;
     private int    				  height     = 0;
     private int[]  				  pixels     = null;
     private int 				  fillColor  = 0;
-    private int[] 				  startColor = new int[] {0,0,0};
+    private ColorMatcher 		  matcher    = new ColorMatcher();
     private boolean[] 			  pixelsChecked;
     private Queue<FloodFillRange> ranges;
 
@@ -41,11 +39,26 @@ public class QueueLinearFloodFiller
         setTargetColor(targetColor);
     }
 
+    //Construct over a raw ARGB pixel array, flood fill writes directly into it
+    //(no Bitmap involved, so this also runs in plain JVM unit tests)
+    public QueueLinearFloodFiller(int[] pixels, int width, int height, int targetColor, int newColor)
+    {
+        this.pixels = pixels;
+        this.width  = width;
+        this.height = height;
+
+        setFillColor(newColor);
+        setTargetColor(targetColor);
+    }
+
     public void setTargetColor(int targetColor)
     {
-        startColor[0] = Color.red(targetColor);
-        startColor[1] = Color.green(targetColor);
-        startColor[2] = Color.blue(targetColor);
+        matcher.setTarget(targetColor);
+    }
+
+    public ColorMatcher getMatcher()
+    {
+        return matcher;
     }
 
     public int getFillColor()
@@ -60,17 +73,17 @@ public class QueueLinearFloodFiller
 
     public int[] getTolerance()
     {
-        return tolerance;
+        return matcher.getTolerance();
     }
 
     public void setTolerance(int[] value)
     {
-        tolerance = value;
+        matcher.setTolerance(value[0], value[1], value[2]);
     }
 
     public void setTolerance(int value)
     {
-        tolerance = new int[] {value, value, value};
+        matcher.setTolerance(value);
     }
 
     public Bitmap getImage()
@@ -120,13 +133,10 @@ public class QueueLinearFloodFiller
         //Setup
         prepare();
 
-        if(startColor[0] == 0)
+        if((matcher.getTarget() & 0xff0000) == 0)
         {
             //***Get starting color.
-            int startPixel = pixels[(width * y) + x];
-            startColor[0]  = (startPixel >> 16) & 0xff;
-            startColor[1]  = (startPixel >> 8) & 0xff;
-            startColor[2]  = startPixel & 0xff;
+            matcher.setTarget(pixels[(width * y) + x]);
         }
 
         //***Do first call to floodfill.
@@ -167,7 +177,10 @@ public class QueueLinearFloodFiller
             }
         }
 
-        image.setPixels(pixels, 0, width, 0, 0, width, height);
+        if (image != null)
+        {
+            image.setPixels(pixels, 0, width, 0, 0, width, height);
+        }
     }
 
     // Finds the furthermost left and right boundaries of the fill area
@@ -238,13 +251,7 @@ public class QueueLinearFloodFiller
     //Sees if a pixel is within the color tolerance range.
     protected boolean CheckPixel(int px)
     {
-        int red   = (pixels[px] >>> 16) & 0xff;
-        int green = (pixels[px] >>> 8) & 0xff;
-        int blue  = pixels[px] & 0xff;
-
-        return (red   >= (startColor[0] - tolerance[0]) && red   <= (startColor[0] + tolerance[0]) &&
-                green >= (startColor[1] - tolerance[1]) && green <= (startColor[1] + tolerance[1]) &&
-                blue  >= (startColor[2] - tolerance[2]) && blue  <= (startColor[2] + tolerance[2]));
+        return matcher.matches(pixels[px]);
     }
 
     // Represents a linear range to be filled and branched from.
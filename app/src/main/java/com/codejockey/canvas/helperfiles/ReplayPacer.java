@@ -0,0 +1,100 @@
+package com.codejockey.canvas.helperfiles;
+
+//Decides when a replay should publish a frame and how fast it should
+//run through commands.
+//
+//Frames are capped at a maximum rate; commands replayed in between are
+//merged into the next frame. With a speed multiplier set, commands are
+//also paced to the gaps between their recorded event times (divided by
+//the multiplier), so a replay at 1x runs at drawing speed. Pauses
+//between strokes count for at most MAX_PAUSE. Logs that predate event
+//times space their commands a fixed sample interval apart; in newer logs
+//only strokes carry times, and other commands go with the stroke after
+//them. A multiplier of zero replays as fast as the device can draw.
+//
+//Times are plain nanosecond counts passed in by the caller, which keeps
+//the pacer free of clocks and easy to test.
+
+public class ReplayPacer
+{
+    private static final long MAX_PAUSE = 1000000000L;
+
+    private long frameInterval;     //nanos between frames
+    private float speed;            //0 for unpaced
+    private final long sampleInterval;
+
+    private long startTime;
+    private long replayed;          //recorded nanos replayed so far
+    private long lastRecorded;      //time of the last timed command, or 0
+    private boolean begun;
+    private long lastFrame;
+    private boolean framed;
+
+    //sampleNanos is taken as the interval between commands recorded
+    //without times
+    public ReplayPacer(int fps, float speed, long sampleNanos)
+    {
+        sampleInterval = sampleNanos;
+        setFrameRate(fps);
+        setSpeed(speed);
+    }
+
+    public void setFrameRate(int fps)
+    {
+        frameInterval = 1000000000L / Math.max(1, fps);
+    }
+
+    //Multiplier of drawing speed, or zero for as fast as possible
+    public void setSpeed(float speed)
+    {
+        this.speed = Math.max(0, speed);
+    }
+
+    public void start(long now)
+    {
+        startTime    = now;
+        replayed     = 0;
+        lastRecorded = 0;
+        begun        = false;
+        framed       = false;
+    }
+
+    //How long to wait before replaying the next command, recorded at
+    //'recorded' nanos or 0 without a time, to hold the set speed; zero
+    //to go right away
+    public long delayBefore(long recorded, long now)
+    {
+        if (recorded != 0)
+        {
+            if (lastRecorded != 0)
+            {
+                replayed += Math.max(0, Math.min(MAX_PAUSE, recorded - lastRecorded));
+            }
+            lastRecorded = recorded;
+        }
+        else if (lastRecorded == 0 && begun)
+        {
+            replayed += sampleInterval;
+        }
+        begun = true;
+
+        if (speed == 0)
+        {
+            return 0;
+        }
+        long due = startTime + (long) (replayed / speed);
+        return Math.max(0, due - now);
+    }
+
+    //Whether enough time has passed since the last frame for another
+    public boolean isFrameDue(long now)
+    {
+        return !framed || now - lastFrame >= frameInterval;
+    }
+
+    public void framePublished(long now)
+    {
+        lastFrame = now;
+        framed    = true;
+    }
+}
@@ -0,0 +1,381 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+
+//Scanline flood fill working on a raw ARGB pixel array.
+//
+//Same algorithm and tolerance rules as QueueLinearFloodFiller, but the
+//pending ranges are kept in a growable int[] ring buffer of
+//(startX, endX, y) triples instead of a LinkedList of FloodFillRange
+//objects, so a fill does no per-range allocation.
+//
+//A filler is meant to be kept and reused: the visited pixels live in a
+//long[] bitset that is only cleared over the bounding box dirtied by the
+//previous fill, so repeated fills on the same canvas allocate nothing.
+//
+//With a PixelSource attached the pixel array is only a cache: rows are
+//read from the source in bands as the fill reaches them, and only the
+//bounding box of the filled spans is written back.
+
+public class ScanlineFloodFiller
+{
+    //Initial ring buffer capacity, in ranges; grows by doubling
+    private static final int INITIAL_RANGES = 256;
+
+    //Rows are read from the source in full-width bands of this many rows.
+    //Full-width bands mean one loaded check per range instead of per pixel.
+    private static final int BAND_SHIFT = 5;
+
+    //Backing store for the pixel array, e.g. a Bitmap. The signatures
+    //match Bitmap.getPixels and Bitmap.setPixels.
+    public interface PixelSource
+    {
+        void readPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+        void writePixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+    }
+
+    private int[]     pixels     = null;
+    private int       width      = 0;
+    private int       height     = 0;
+    private int       fillColor  = 0;
+    private final ColorMatcher matcher = new ColorMatcher();
+
+    //One bit per pixel, row-major; only bits inside the dirty box are set
+    private long[]    pixelsChecked = new long[0];
+
+    //Bounding box of pixels touched by the last fill, inclusive
+    private int       dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+    private boolean   dirty;
+
+    //Lazy loading state, unused without a source
+    private PixelSource source;
+    private boolean[]   bandLoaded = new boolean[0];
+
+    //Ring buffer of pending ranges, three ints per range
+    private int[] ranges = new int[INITIAL_RANGES * 3];
+    private int   rangeHead;    //index of the first queued int
+    private int   rangeCount;   //number of queued ranges
+
+    public ScanlineFloodFiller(int[] pixels, int width, int height)
+    {
+        usePixels(pixels, width, height);
+    }
+
+    public ScanlineFloodFiller(int[] pixels, int width, int height, int targetColor, int newColor)
+    {
+        usePixels(pixels, width, height);
+
+        setFillColor(newColor);
+        setTargetColor(targetColor);
+    }
+
+    //Fill directly into the provided pixel array, row stride equals width.
+    //The visited bitset is kept when the dimensions don't change.
+    public void usePixels(int[] pixels, int width, int height)
+    {
+        int words = (width * height + 63) >>> 6;
+
+        if (pixelsChecked.length != words)
+        {
+            pixelsChecked = new long[words];
+            dirty         = false;
+        }
+        else
+        if (this.width != width)
+        {
+            //Same bit count but different row layout, the box is meaningless
+            Arrays.fill(pixelsChecked, 0L);
+            dirty = false;
+        }
+
+        this.pixels = pixels;
+        this.width  = width;
+        this.height = height;
+    }
+
+    public int[] getPixels()
+    {
+        return pixels;
+    }
+
+    //Read pixels lazily from the source and write the filled box back to it.
+    //With no source (null) the pixel array must already hold the image.
+    public void setSource(PixelSource source)
+    {
+        this.source = source;
+    }
+
+    //Bounding box of the last fill, inclusive; right < left when nothing was filled
+    public int getDirtyLeft()
+    {
+        return dirtyLeft;
+    }
+
+    public int getDirtyTop()
+    {
+        return dirtyTop;
+    }
+
+    public int getDirtyRight()
+    {
+        return dirtyRight;
+    }
+
+    public int getDirtyBottom()
+    {
+        return dirtyBottom;
+    }
+
+    public void setTargetColor(int targetColor)
+    {
+        matcher.setTarget(targetColor);
+    }
+
+    //Decides which pixels get filled; set its mode for non-default matching
+    public ColorMatcher getMatcher()
+    {
+        return matcher;
+    }
+
+    public int getFillColor()
+    {
+        return fillColor;
+    }
+
+    public void setFillColor(int value)
+    {
+        fillColor = value;
+    }
+
+    public int[] getTolerance()
+    {
+        return matcher.getTolerance();
+    }
+
+    public void setTolerance(int[] value)
+    {
+        matcher.setTolerance(value[0], value[1], value[2]);
+    }
+
+    public void setTolerance(int value)
+    {
+        matcher.setTolerance(value);
+    }
+
+    protected void prepare()
+    {
+        //Called before starting flood-fill; wipe only what the last fill marked
+        if (dirty)
+        {
+            for (int y = dirtyTop; y <= dirtyBottom; y++)
+            {
+                int rowStart = width * y;
+                Arrays.fill(pixelsChecked,
+                        (rowStart + dirtyLeft) >>> 6, ((rowStart + dirtyRight) >>> 6) + 1, 0L);
+            }
+        }
+        dirty       = false;
+        dirtyLeft   = width;
+        dirtyTop    = height;
+        dirtyRight  = -1;
+        dirtyBottom = -1;
+
+        rangeHead  = 0;
+        rangeCount = 0;
+
+        if (source != null)
+        {
+            //The source may have changed since the last fill, reload everything
+            int bands = ((height - 1) >> BAND_SHIFT) + 1;
+            if (bandLoaded.length != bands)
+            {
+                bandLoaded = new boolean[bands];
+            }
+            else
+            {
+                Arrays.fill(bandLoaded, false);
+            }
+        }
+    }
+
+    // Fills the specified point with the currently selected fill color.
+    // int x, int y: The starting coords for the fill
+    public void floodFill(int x, int y)
+    {
+        prepare();
+        loadRow(y);
+
+        if ((matcher.getTarget() & 0xff0000) == 0)
+        {
+            //Same rule as QueueLinearFloodFiller: no red in the target means
+            //we take the start color from the pixel under the seed
+            matcher.setTarget(pixels[(width * y) + x]);
+        }
+
+        LinearFill(x, y);
+
+        while (rangeCount > 0)
+        {
+            //Pop the oldest range off the ring buffer
+            int startX = ranges[rangeHead];
+            int endX   = ranges[rangeHead + 1];
+            int rangeY = ranges[rangeHead + 2];
+
+            rangeHead += 3;
+            if (rangeHead == ranges.length)
+            {
+                rangeHead = 0;
+            }
+            rangeCount--;
+
+            //Check above and below each pixel in the range
+            int downPxIdx = (width * (rangeY + 1)) + startX;
+            int upPxIdx   = (width * (rangeY - 1)) + startX;
+            boolean canUp   = rangeY > 0;
+            boolean canDown = rangeY < (height - 1);
+
+            if (canUp)
+            {
+                loadRow(rangeY - 1);
+            }
+            if (canDown)
+            {
+                loadRow(rangeY + 1);
+            }
+
+            for (int i = startX; i <= endX; i++)
+            {
+                if (canUp && !isChecked(upPxIdx) && CheckPixel(upPxIdx))
+                {
+                    LinearFill(i, rangeY - 1);
+                }
+                if (canDown && !isChecked(downPxIdx) && CheckPixel(downPxIdx))
+                {
+                    LinearFill(i, rangeY + 1);
+                }
+                downPxIdx++;
+                upPxIdx++;
+            }
+        }
+
+        if (source != null)
+        {
+            //A fill is connected, so every row of the box was loaded
+            source.writePixels(pixels, (width * dirtyTop) + dirtyLeft, width,
+                    dirtyLeft, dirtyTop, dirtyRight - dirtyLeft + 1, dirtyBottom - dirtyTop + 1);
+        }
+    }
+
+    //Makes sure the band holding row y has been read from the source
+    private void loadRow(int y)
+    {
+        if (source == null)
+        {
+            return;
+        }
+        int band = y >> BAND_SHIFT;
+        if (!bandLoaded[band])
+        {
+            int top  = band << BAND_SHIFT;
+            int rows = Math.min(1 << BAND_SHIFT, height - top);
+
+            source.readPixels(pixels, width * top, width, 0, top, width, rows);
+            bandLoaded[band] = true;
+        }
+    }
+
+    // Finds the furthermost left and right boundaries of the fill area
+    // on a given y coordinate, starting from a given x coordinate, filling
+    // as it goes, and queues the resulting horizontal range.
+    protected void LinearFill(int x, int y)
+    {
+        int rowStart = width * y;
+
+        //Find left edge of color area
+        int lFillLoc = x;
+        int pxIdx    = rowStart + x;
+
+        while (true)
+        {
+            pixels[pxIdx] = fillColor;
+            setChecked(pxIdx);
+
+            lFillLoc--;
+            pxIdx--;
+
+            if (lFillLoc < 0 || isChecked(pxIdx) || !CheckPixel(pxIdx))
+            {
+                break;
+            }
+        }
+        lFillLoc++;
+
+        //Find right edge of color area; the seed pixel is already done
+        int rFillLoc = x + 1;
+
+        pxIdx = rowStart + rFillLoc;
+
+        while (rFillLoc < width && !isChecked(pxIdx) && CheckPixel(pxIdx))
+        {
+            pixels[pxIdx] = fillColor;
+            setChecked(pxIdx);
+
+            rFillLoc++;
+            pxIdx++;
+        }
+        rFillLoc--;
+
+        //Grow the dirty box to cover this range
+        if (lFillLoc < dirtyLeft)   dirtyLeft   = lFillLoc;
+        if (rFillLoc > dirtyRight)  dirtyRight  = rFillLoc;
+        if (y < dirtyTop)           dirtyTop    = y;
+        if (y > dirtyBottom)        dirtyBottom = y;
+        dirty = true;
+
+        pushRange(lFillLoc, rFillLoc, y);
+    }
+
+    private boolean isChecked(int px)
+    {
+        return (pixelsChecked[px >>> 6] & (1L << px)) != 0;
+    }
+
+    private void setChecked(int px)
+    {
+        pixelsChecked[px >>> 6] |= 1L << px;
+    }
+
+    //Appends a range at the tail of the ring buffer, growing it when full
+    private void pushRange(int startX, int endX, int y)
+    {
+        if (rangeCount * 3 == ranges.length)
+        {
+            //Unwrap into a buffer twice the size so head is back at zero
+            int[] grown = new int[ranges.length * 2];
+            int   first = ranges.length - rangeHead;
+
+            System.arraycopy(ranges, rangeHead, grown, 0, first);
+            System.arraycopy(ranges, 0, grown, first, rangeHead);
+
+            ranges    = grown;
+            rangeHead = 0;
+        }
+
+        int tail = rangeHead + rangeCount * 3;
+        if (tail >= ranges.length)
+        {
+            tail -= ranges.length;
+        }
+
+        ranges[tail]     = startX;
+        ranges[tail + 1] = endX;
+        ranges[tail + 2] = y;
+        rangeCount++;
+    }
+
+    //Sees if a pixel is within the color tolerance range.
+    protected boolean CheckPixel(int px)
+    {
+        return matcher.matches(pixels[px]);
+    }
+}
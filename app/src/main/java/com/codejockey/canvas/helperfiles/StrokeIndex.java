@@ -0,0 +1,234 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+
+//Uniform grid index of stroke bounding boxes.
+//
+//Strokes are small, non-negative int ids with a bounding box; each is
+//listed in every grid cell its box touches. A query walks only the cells
+//under the area asked about, so finding the strokes under a finger or a
+//dirty tile costs about the strokes near it, not the whole drawing.
+//Boxes reaching past the canvas are listed in the edge cells.
+//
+//Query results come back in ascending id order. Callers that hand out
+//ids in drawing order can therefore draw the results as they come.
+//Removed strokes keep their box, so an undo can put them back.
+
+public class StrokeIndex
+{
+    private final int cellSize;
+
+    private int across = 1, down = 1;
+    private int[][] cells      = new int[1][4];
+    private int[]   cellCounts = new int[1];
+
+    //By id
+    private float[]   lefts   = new float[64];
+    private float[]   tops    = new float[64];
+    private float[]   rights  = new float[64];
+    private float[]   bottoms = new float[64];
+    private boolean[] present = new boolean[64];
+    private int[]     stamps  = new int[64];
+    private int       capacity = 64;
+    private int       size;
+
+    private int   stamp;
+    private int[] results = new int[64];
+
+    public StrokeIndex(int cellSize)
+    {
+        this.cellSize = cellSize;
+    }
+
+    //Sets the canvas the grid covers, re-listing every stroke
+    public void resize(int width, int height)
+    {
+        across = Math.max(1, (width + cellSize - 1) / cellSize);
+        down   = Math.max(1, (height + cellSize - 1) / cellSize);
+        cells      = new int[across * down][];
+        cellCounts = new int[across * down];
+        for (int id = 0; id < capacity; id++)
+        {
+            if (present[id])
+            {
+                list(id);
+            }
+        }
+    }
+
+    public void clear()
+    {
+        Arrays.fill(cellCounts, 0);
+        Arrays.fill(present, false);
+        size = 0;
+    }
+
+    public void insert(int id, float left, float top, float right, float bottom)
+    {
+        if (id >= capacity)
+        {
+            grow(Math.max(id + 1, capacity * 2));
+        }
+        if (present[id])
+        {
+            remove(id);
+        }
+        lefts[id]   = left;
+        tops[id]    = top;
+        rights[id]  = right;
+        bottoms[id] = bottom;
+        present[id] = true;
+        size++;
+        list(id);
+    }
+
+    //Takes a stroke out of the index, keeping its box
+    public boolean remove(int id)
+    {
+        if (id >= capacity || !present[id])
+        {
+            return false;
+        }
+        int x0 = cellX(lefts[id]), x1 = cellX(rights[id]);
+        int y0 = cellY(tops[id]), y1 = cellY(bottoms[id]);
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                int cell = y * across + x;
+                int[] ids = cells[cell];
+                for (int i = 0; i < cellCounts[cell]; i++)
+                {
+                    if (ids[i] == id)
+                    {
+                        ids[i] = ids[--cellCounts[cell]];
+                        break;
+                    }
+                }
+            }
+        }
+        present[id] = false;
+        size--;
+        return true;
+    }
+
+    public boolean contains(int id)
+    {
+        return id < capacity && present[id];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public float getLeft(int id)
+    {
+        return lefts[id];
+    }
+
+    public float getTop(int id)
+    {
+        return tops[id];
+    }
+
+    public float getRight(int id)
+    {
+        return rights[id];
+    }
+
+    public float getBottom(int id)
+    {
+        return bottoms[id];
+    }
+
+    //Finds the strokes whose boxes overlap an area; returns how many,
+    //readable with getResult until the next query
+    public int query(float left, float top, float right, float bottom)
+    {
+        if (++stamp == 0)
+        {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        int count = 0;
+        int x0 = cellX(left), x1 = cellX(right);
+        int y0 = cellY(top), y1 = cellY(bottom);
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                int cell = y * across + x;
+                int[] ids = cells[cell];
+                for (int i = 0; i < cellCounts[cell]; i++)
+                {
+                    int id = ids[i];
+                    if (stamps[id] == stamp)
+                    {
+                        continue;
+                    }
+                    stamps[id] = stamp;
+                    if (lefts[id] < right && left < rights[id] && tops[id] < bottom && top < bottoms[id])
+                    {
+                        if (count == results.length)
+                        {
+                            results = Arrays.copyOf(results, count * 2);
+                        }
+                        results[count++] = id;
+                    }
+                }
+            }
+        }
+        Arrays.sort(results, 0, count);
+        return count;
+    }
+
+    public int getResult(int index)
+    {
+        return results[index];
+    }
+
+    private void list(int id)
+    {
+        int x0 = cellX(lefts[id]), x1 = cellX(rights[id]);
+        int y0 = cellY(tops[id]), y1 = cellY(bottoms[id]);
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                int cell = y * across + x;
+                if (cells[cell] == null)
+                {
+                    cells[cell] = new int[4];
+                }
+                else
+                if (cellCounts[cell] == cells[cell].length)
+                {
+                    cells[cell] = Arrays.copyOf(cells[cell], cellCounts[cell] * 2);
+                }
+                cells[cell][cellCounts[cell]++] = id;
+            }
+        }
+    }
+
+    private int cellX(float x)
+    {
+        return Math.max(0, Math.min(across - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    private int cellY(float y)
+    {
+        return Math.max(0, Math.min(down - 1, (int) Math.floor(y / cellSize)));
+    }
+
+    private void grow(int newCapacity)
+    {
+        lefts    = Arrays.copyOf(lefts, newCapacity);
+        tops     = Arrays.copyOf(tops, newCapacity);
+        rights   = Arrays.copyOf(rights, newCapacity);
+        bottoms  = Arrays.copyOf(bottoms, newCapacity);
+        present  = Arrays.copyOf(present, newCapacity);
+        stamps   = Arrays.copyOf(stamps, newCapacity);
+        capacity = newCapacity;
+    }
+}
@@ -0,0 +1,120 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+
+//Ramer-Douglas-Peucker simplification of a stroke's points.
+//
+//Keeps the first and last points, then recursively keeps the point
+//furthest from the chord between two kept points while it is more than
+//half the tolerance away. Every dropped point then lies within half the
+//tolerance of the simplified polyline. A smoothed curve drawn through
+//the points, like CustomView's quads, was measured to move up to about
+//twice as far as its control points, so it stays within the tolerance.
+//
+//Works in place on primitive arrays with an explicit stack, so long
+//strokes don't recurse deeply; the workspace is kept for the next
+//stroke.
+
+public class StrokeSimplifier
+{
+    private int[]     stack = new int[64];
+    private boolean[] keep  = new boolean[64];
+
+    //Compacts count points in xs and ys to those kept, in order, and
+    //returns how many remain; tolerance is in pixels of the drawn curve
+    public int simplify(float[] xs, float[] ys, int count, float tolerance)
+    {
+        if (count < 3 || tolerance <= 0)
+        {
+            return count;
+        }
+        if (keep.length < count)
+        {
+            keep = new boolean[count];
+        }
+        Arrays.fill(keep, 0, count, false);
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        float limit = tolerance * tolerance / 4;
+        int top = 0;
+        push(top++, 0);
+        push(top++, count - 1);
+        while (top > 0)
+        {
+            int last  = stack[--top];
+            int first = stack[--top];
+
+            //Furthest point from the chord segment, by squared distance;
+            //points past its ends count from the nearer end, so strokes
+            //that double back keep their turns
+            float ax = xs[first], ay = ys[first];
+            float dx = xs[last] - ax, dy = ys[last] - ay;
+            float length = dx * dx + dy * dy;
+            int furthest = -1;
+            float worst = limit;
+            for (int i = first + 1; i < last; i++)
+            {
+                float px = xs[i] - ax, py = ys[i] - ay;
+                float along = length == 0 ? 0 : (px * dx + py * dy) / length;
+                float distance;
+                if (along <= 0)
+                {
+                    distance = px * px + py * py;
+                }
+                else if (along >= 1)
+                {
+                    float qx = xs[i] - xs[last], qy = ys[i] - ys[last];
+                    distance = qx * qx + qy * qy;
+                }
+                else
+                {
+                    float cross = px * dy - py * dx;
+                    distance = cross * cross / length;
+                }
+                if (distance > worst)
+                {
+                    worst = distance;
+                    furthest = i;
+                }
+            }
+
+            if (furthest >= 0)
+            {
+                keep[furthest] = true;
+                push(top++, first);
+                push(top++, furthest);
+                push(top++, furthest);
+                push(top++, last);
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (keep[i])
+            {
+                xs[kept] = xs[i];
+                ys[kept] = ys[i];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    //Whether the point at index, before compacting, was kept by the last
+    //simplify that had points to drop, e.g. to carry other per-point data
+    public boolean isKept(int index)
+    {
+        return keep[index];
+    }
+
+    private void push(int index, int value)
+    {
+        if (index == stack.length)
+        {
+            stack = Arrays.copyOf(stack, index * 2);
+        }
+        stack[index] = value;
+    }
+}
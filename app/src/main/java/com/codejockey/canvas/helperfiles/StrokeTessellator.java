@@ -0,0 +1,120 @@
+package com.codejockey.canvas.helperfiles;
+
+//Turns a run of curve points with a width at each into one triangle strip.
+//
+//Each point becomes a pair of vertices, half its width either side of the
+//curve, across the direction from the point before it to the point after
+//it. Pairs alternate left, right, so the strip can be drawn in a single
+//drawVertices call instead of a line per step, and neighbouring steps
+//share an edge rather than overlapping caps.
+//
+//Strips of consecutive spans meet edge to edge, since the spline's
+//direction carries on across the knot. A cap stretches the first or last
+//pair half the width along the curve, the way a square line cap does, for
+//the two ends of a whole stroke.
+//
+//Repeated points are skipped. The vertex buffer is reused for every
+//strip.
+
+public class StrokeTessellator
+{
+    private float[] vertices = new float[128];
+    private int     count;
+
+    //Points kept after skipping repeats
+    private float[] xs = new float[64];
+    private float[] ys = new float[64];
+    private float[] ws = new float[64];
+
+    //Builds the strip for count points, returning the number of vertices;
+    //zero if the points don't go anywhere
+    public int strip(float[] pointX, float[] pointY, float[] widths, int points,
+                     boolean startCap, boolean endCap)
+    {
+        if (xs.length < points)
+        {
+            xs = new float[points];
+            ys = new float[points];
+            ws = new float[points];
+        }
+        int kept = 0;
+        for (int i = 0; i < points; i++)
+        {
+            if (kept == 0 || pointX[i] != xs[kept - 1] || pointY[i] != ys[kept - 1])
+            {
+                xs[kept] = pointX[i];
+                ys[kept] = pointY[i];
+                ws[kept] = widths[i];
+                kept++;
+            }
+            else
+            {
+                ws[kept - 1] = widths[i];
+            }
+        }
+        count = 0;
+        if (kept < 2)
+        {
+            return 0;
+        }
+        if (vertices.length < kept * 4)
+        {
+            vertices = new float[kept * 4];
+        }
+
+        for (int i = 0; i < kept; i++)
+        {
+            int before = Math.max(0, i - 1);
+            int after  = Math.min(kept - 1, i + 1);
+            float dx = xs[after] - xs[before];
+            float dy = ys[after] - ys[before];
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            if (length == 0)
+            {
+                //Doubled back on itself; go across the step before
+                dx = xs[i] - xs[before];
+                dy = ys[i] - ys[before];
+                length = (float) Math.sqrt(dx * dx + dy * dy);
+                if (length == 0)
+                {
+                    dx = xs[after] - xs[i];
+                    dy = ys[after] - ys[i];
+                    length = (float) Math.sqrt(dx * dx + dy * dy);
+                }
+            }
+            float half = ws[i] / 2;
+            dx = dx / length * half;
+            dy = dy / length * half;
+
+            float x = xs[i];
+            float y = ys[i];
+            if (i == 0 && startCap)
+            {
+                x -= dx;
+                y -= dy;
+            }
+            else
+            if (i == kept - 1 && endCap)
+            {
+                x += dx;
+                y += dy;
+            }
+            vertices[count++] = x + dy;
+            vertices[count++] = y - dx;
+            vertices[count++] = x - dy;
+            vertices[count++] = y + dx;
+        }
+        return count / 2;
+    }
+
+    //Vertices of the last strip as x, y pairs
+    public float[] getVertices()
+    {
+        return vertices;
+    }
+
+    public int getVertexCount()
+    {
+        return count / 2;
+    }
+}
@@ -0,0 +1,153 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Keeps the pixels from under an operation while it draws, one tile at a
+//time, so they can be put back when it ends.
+//
+//The caller saves each area just before drawing in it; only tiles not
+//already saved are read, so an operation costs the tiles it reaches
+//rather than the whole canvas, and it needn't know its extent up front.
+//Restoring writes the saved tiles back. Tile buffers are pooled between
+//operations.
+//
+//Pixels are read and written through a ScanlineFloodFiller.PixelSource,
+//so the canvas can be a Bitmap or a plain int[].
+
+public class TileBackup
+{
+    private static final int POOL_LIMIT = 64;
+
+    private final int tileSize;
+
+    private ScanlineFloodFiller.PixelSource source;
+    private int width, height;
+    private int tilesAcross;
+    private boolean[] saved = new boolean[0];
+
+    private int[]   tiles  = new int[16];
+    private int[][] pixels = new int[16][];
+    private int     count;
+    private final List<int[]> pool = new ArrayList<int[]>();
+
+    //Box of the saved tiles, right/bottom exclusive
+    private int left, top, right, bottom;
+
+    public TileBackup(int tileSize)
+    {
+        this.tileSize = tileSize;
+    }
+
+    //Attaches a canvas, forgetting any saved tiles
+    public void setSource(ScanlineFloodFiller.PixelSource source, int width, int height)
+    {
+        clear();
+        this.source = source;
+        this.width  = width;
+        this.height = height;
+        tilesAcross = (width + tileSize - 1) / tileSize;
+        saved = new boolean[tilesAcross * ((height + tileSize - 1) / tileSize)];
+        clear();
+    }
+
+    //Forgets the saved tiles, to start a new operation
+    public void clear()
+    {
+        for (int i = 0; i < count; i++)
+        {
+            saved[tiles[i]] = false;
+            if (pool.size() < POOL_LIMIT)
+            {
+                pool.add(pixels[i]);
+            }
+            pixels[i] = null;
+        }
+        count  = 0;
+        left   = width;
+        top    = height;
+        right  = 0;
+        bottom = 0;
+    }
+
+    //Saves the tiles of an area about to be drawn in that aren't saved
+    //yet; right and bottom are exclusive and may lie outside the canvas
+    public void save(int left, int top, int right, int bottom)
+    {
+        left   = Math.max(0, left);
+        top    = Math.max(0, top);
+        right  = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        for (int ty = top / tileSize * tileSize; ty < bottom; ty += tileSize)
+        {
+            for (int tx = left / tileSize * tileSize; tx < right; tx += tileSize)
+            {
+                int tile = (ty / tileSize) * tilesAcross + tx / tileSize;
+                if (saved[tile])
+                {
+                    continue;
+                }
+                int[] buffer = pool.isEmpty() ? new int[tileSize * tileSize] : pool.remove(pool.size() - 1);
+                int w = Math.min(tileSize, width - tx);
+                int h = Math.min(tileSize, height - ty);
+                source.readPixels(buffer, 0, tileSize, tx, ty, w, h);
+                add(tile, buffer);
+                this.left   = Math.min(this.left, tx);
+                this.top    = Math.min(this.top, ty);
+                this.right  = Math.max(this.right, tx + w);
+                this.bottom = Math.max(this.bottom, ty + h);
+            }
+        }
+    }
+
+    //Writes every saved tile back to the canvas; they stay saved
+    public void restore()
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int x = (tiles[i] % tilesAcross) * tileSize;
+            int y = (tiles[i] / tilesAcross) * tileSize;
+            source.writePixels(pixels[i], 0, tileSize, x, y,
+                    Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+        }
+    }
+
+    public int getTileCount()
+    {
+        return count;
+    }
+
+    public int getLeft()
+    {
+        return left;
+    }
+
+    public int getTop()
+    {
+        return top;
+    }
+
+    public int getRight()
+    {
+        return right;
+    }
+
+    public int getBottom()
+    {
+        return bottom;
+    }
+
+    private void add(int tile, int[] buffer)
+    {
+        if (count == tiles.length)
+        {
+            tiles  = Arrays.copyOf(tiles, count * 2);
+            pixels = Arrays.copyOf(pixels, count * 2);
+        }
+        saved[tile]   = true;
+        tiles[count]  = tile;
+        pixels[count] = buffer;
+        count++;
+    }
+}
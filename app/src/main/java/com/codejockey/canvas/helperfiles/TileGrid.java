@@ -0,0 +1,152 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+
+//Grid of square tiles over a canvas, recording which tiles are dirty.
+//
+//Areas are marked in pixels and rounded out to whole tiles. takeRect()
+//then hands the dirty tiles back as a few rectangles, greedily grown
+//right and then down, so redrawing them costs about the area that was
+//marked rather than the whole canvas, and a fully dirty grid comes back
+//as one rectangle.
+
+public class TileGrid
+{
+    private final int tileSize;
+
+    private int       width, height;
+    private int       across, down;
+    private boolean[] dirty = new boolean[0];
+    private int       count;
+
+    public TileGrid(int tileSize)
+    {
+        this.tileSize = tileSize;
+    }
+
+    //Sets the canvas size; all tiles start clean
+    public void resize(int width, int height)
+    {
+        this.width  = width;
+        this.height = height;
+        across = (width + tileSize - 1) / tileSize;
+        down   = (height + tileSize - 1) / tileSize;
+        if (dirty.length < across * down)
+        {
+            dirty = new boolean[across * down];
+        }
+        clear();
+    }
+
+    public void clear()
+    {
+        Arrays.fill(dirty, false);
+        count = 0;
+    }
+
+    //Marks the tiles under an area; right and bottom are exclusive and
+    //the area may lie partly outside the canvas
+    public void mark(int left, int top, int right, int bottom)
+    {
+        left   = Math.max(0, left);
+        top    = Math.max(0, top);
+        right  = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        if (right <= left || bottom <= top)
+        {
+            return;
+        }
+        int tx1 = (right - 1) / tileSize;
+        int ty1 = (bottom - 1) / tileSize;
+        for (int ty = top / tileSize; ty <= ty1; ty++)
+        {
+            for (int tx = left / tileSize; tx <= tx1; tx++)
+            {
+                int tile = ty * across + tx;
+                if (!dirty[tile])
+                {
+                    dirty[tile] = true;
+                    count++;
+                }
+            }
+        }
+    }
+
+    public void markAll()
+    {
+        mark(0, 0, width, height);
+    }
+
+    public boolean isDirty(int tileX, int tileY)
+    {
+        return dirty[tileY * across + tileX];
+    }
+
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    public int getDirtyCount()
+    {
+        return count;
+    }
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    //Removes a rectangle of dirty tiles from the grid, storing its left,
+    //top, right and bottom (exclusive, clipped to the canvas) in bounds.
+    //Returns false once the grid is clean.
+    public boolean takeRect(int[] bounds)
+    {
+        if (count == 0)
+        {
+            return false;
+        }
+        int first = 0;
+        while (!dirty[first])
+        {
+            first++;
+        }
+        int tx0 = first % across;
+        int ty0 = first / across;
+
+        int tx1 = tx0 + 1;
+        while (tx1 < across && dirty[ty0 * across + tx1])
+        {
+            tx1++;
+        }
+        int ty1 = ty0 + 1;
+        while (ty1 < down && rowDirty(ty1, tx0, tx1))
+        {
+            ty1++;
+        }
+
+        for (int ty = ty0; ty < ty1; ty++)
+        {
+            Arrays.fill(dirty, ty * across + tx0, ty * across + tx1, false);
+        }
+        count -= (tx1 - tx0) * (ty1 - ty0);
+
+        bounds[0] = tx0 * tileSize;
+        bounds[1] = ty0 * tileSize;
+        bounds[2] = Math.min(width, tx1 * tileSize);
+        bounds[3] = Math.min(height, ty1 * tileSize);
+        return true;
+    }
+
+    private boolean rowDirty(int ty, int tx0, int tx1)
+    {
+        for (int tx = tx0; tx < tx1; tx++)
+        {
+            if (!dirty[ty * across + tx])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,328 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Undo and redo for a raster canvas, kept as tile-level pixel deltas.
+//
+//Before an operation draws, begin() copies the tiles covering the area
+//it may touch; commit() compares them with the result one tile at a
+//time, keeps only the tiles that actually changed and hands the rest
+//back to a small pool, so no buffer bigger than a tile outlives the
+//operation, however large its area. Undoing swaps those tiles with the
+//canvas, which leaves the entry holding the undone pixels, ready for
+//redo to swap back. Each step costs the tiles one operation touched,
+//however long the history, and works the same for strokes, erasing and
+//fills since it never replays anything.
+//
+//Pixels are read and written through a ScanlineFloodFiller.PixelSource,
+//so the canvas can be a Bitmap or a plain int[]. The stack is bounded by
+//a memory budget and a maximum depth; the oldest entries are dropped
+//first, after which those operations can no longer be undone.
+
+public class TileUndoStack
+{
+    private static final int POOL_LIMIT = 64;
+
+    private final int  tileSize;
+    private final long budget;
+    private final int  maxDepth;
+
+    private ScanlineFloodFiller.PixelSource source;
+    private int width, height;
+    private int tilesAcross;
+
+    private final ArrayDeque<Entry> undoStack = new ArrayDeque<Entry>();
+    private final ArrayDeque<Entry> redoStack = new ArrayDeque<Entry>();
+    private final List<int[]> pool = new ArrayList<int[]>();
+    private long memory;
+
+    //Tiles snapshotted by begin(), waiting for commit()
+    private int[]   pendingTiles  = new int[16];
+    private int[][] pendingPixels = new int[16][];
+    private int     pendingCount;
+    private int[]   swap;
+
+    //Area changed by the last undo or redo, right/bottom exclusive
+    private int dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+
+    //One undoable operation: the tiles it changed, with the pixels from
+    //the other side of the change
+    private static class Entry
+    {
+        int[]   tiles  = new int[4];
+        int[][] pixels = new int[4][];
+        int     count;
+    }
+
+    public TileUndoStack(int tileSize, long budget, int maxDepth)
+    {
+        this.tileSize = tileSize;
+        this.budget   = budget;
+        this.maxDepth = maxDepth;
+        swap = new int[tileSize * tileSize];
+    }
+
+    //Attaches a canvas, dropping all history
+    public void setSource(ScanlineFloodFiller.PixelSource source, int width, int height)
+    {
+        this.source = source;
+        this.width  = width;
+        this.height = height;
+        tilesAcross = (width + tileSize - 1) / tileSize;
+        clear();
+    }
+
+    public void clear()
+    {
+        undoStack.clear();
+        redoStack.clear();
+        discardPending();
+        memory = 0;
+    }
+
+    //Snapshots the area an operation is about to draw in; right and
+    //bottom are exclusive and may lie outside the canvas
+    public void begin(int left, int top, int right, int bottom)
+    {
+        discardPending();
+        left   = Math.max(0, left);
+        top    = Math.max(0, top);
+        right  = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        if (right <= left || bottom <= top)
+        {
+            return;
+        }
+        for (int ty = top / tileSize * tileSize; ty < bottom; ty += tileSize)
+        {
+            for (int tx = left / tileSize * tileSize; tx < right; tx += tileSize)
+            {
+                int[] tile = obtain();
+                source.readPixels(tile, 0, tileSize, tx, ty,
+                        Math.min(tileSize, width - tx), Math.min(tileSize, height - ty));
+                addPending((ty / tileSize) * tilesAcross + tx / tileSize, tile);
+            }
+        }
+    }
+
+    //Records the operation since begin() as one undo step, even if it
+    //changed nothing, so steps stay in line with the caller's history
+    public void commit()
+    {
+        Entry entry = new Entry();
+        for (int i = 0; i < pendingCount; i++)
+        {
+            int x = (pendingTiles[i] % tilesAcross) * tileSize;
+            int y = (pendingTiles[i] / tilesAcross) * tileSize;
+            int w = Math.min(tileSize, width - x);
+            int h = Math.min(tileSize, height - y);
+            source.readPixels(swap, 0, tileSize, x, y, w, h);
+            if (changed(pendingPixels[i], w, h))
+            {
+                add(entry, pendingTiles[i], pendingPixels[i]);
+            }
+            else
+            {
+                recycle(pendingPixels[i]);
+            }
+            pendingPixels[i] = null;
+        }
+        pendingCount = 0;
+
+        for (Entry redo : redoStack)
+        {
+            release(redo);
+        }
+        redoStack.clear();
+        undoStack.push(entry);
+        trim();
+    }
+
+    public boolean canUndo()
+    {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo()
+    {
+        return !redoStack.isEmpty();
+    }
+
+    //Puts back the pixels from before the last operation
+    public boolean undo()
+    {
+        if (undoStack.isEmpty())
+        {
+            return false;
+        }
+        Entry entry = undoStack.pop();
+        swapTiles(entry);
+        redoStack.push(entry);
+        return true;
+    }
+
+    //Puts back the pixels of the last undone operation
+    public boolean redo()
+    {
+        if (redoStack.isEmpty())
+        {
+            return false;
+        }
+        Entry entry = redoStack.pop();
+        swapTiles(entry);
+        undoStack.push(entry);
+        return true;
+    }
+
+    public int getUndoDepth()
+    {
+        return undoStack.size();
+    }
+
+    public int getRedoDepth()
+    {
+        return redoStack.size();
+    }
+
+    //Bytes held in tile pixels
+    public long getMemory()
+    {
+        return memory;
+    }
+
+    public int getDirtyLeft()
+    {
+        return dirtyLeft;
+    }
+
+    public int getDirtyTop()
+    {
+        return dirtyTop;
+    }
+
+    public int getDirtyRight()
+    {
+        return dirtyRight;
+    }
+
+    public int getDirtyBottom()
+    {
+        return dirtyBottom;
+    }
+
+    //Whether a snapshot differs from the canvas tile just read into swap
+    private boolean changed(int[] tile, int w, int h)
+    {
+        for (int row = 0; row < h; row++)
+        {
+            int px = row * tileSize;
+            for (int end = px + w; px < end; px++)
+            {
+                if (tile[px] != swap[px])
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addPending(int tile, int[] pixels)
+    {
+        if (pendingCount == pendingTiles.length)
+        {
+            pendingTiles  = Arrays.copyOf(pendingTiles, pendingCount * 2);
+            pendingPixels = Arrays.copyOf(pendingPixels, pendingCount * 2);
+        }
+        pendingTiles[pendingCount]  = tile;
+        pendingPixels[pendingCount] = pixels;
+        pendingCount++;
+    }
+
+    //Drops the snapshot of a begin() that was never committed
+    private void discardPending()
+    {
+        for (int i = 0; i < pendingCount; i++)
+        {
+            recycle(pendingPixels[i]);
+            pendingPixels[i] = null;
+        }
+        pendingCount = 0;
+    }
+
+    //Exchanges each stored tile with the canvas pixels under it
+    private void swapTiles(Entry entry)
+    {
+        dirtyLeft   = width;
+        dirtyTop    = height;
+        dirtyRight  = 0;
+        dirtyBottom = 0;
+        for (int i = 0; i < entry.count; i++)
+        {
+            int x = (entry.tiles[i] % tilesAcross) * tileSize;
+            int y = (entry.tiles[i] / tilesAcross) * tileSize;
+            int w = Math.min(tileSize, width - x);
+            int h = Math.min(tileSize, height - y);
+
+            int[] tile = entry.pixels[i];
+            source.readPixels(swap, 0, tileSize, x, y, w, h);
+            source.writePixels(tile, 0, tileSize, x, y, w, h);
+            entry.pixels[i] = swap;
+            swap = tile;
+
+            dirtyLeft   = Math.min(dirtyLeft, x);
+            dirtyTop    = Math.min(dirtyTop, y);
+            dirtyRight  = Math.max(dirtyRight, x + w);
+            dirtyBottom = Math.max(dirtyBottom, y + h);
+        }
+    }
+
+    private void add(Entry entry, int tile, int[] pixels)
+    {
+        if (entry.count == entry.tiles.length)
+        {
+            entry.tiles  = Arrays.copyOf(entry.tiles, entry.count * 2);
+            entry.pixels = Arrays.copyOf(entry.pixels, entry.count * 2);
+        }
+        entry.tiles[entry.count]  = tile;
+        entry.pixels[entry.count] = pixels;
+        entry.count++;
+        memory += tileSize * tileSize * 4L;
+    }
+
+    //Drops the oldest steps until within depth and budget
+    private void trim()
+    {
+        while (!undoStack.isEmpty() && (undoStack.size() > maxDepth || memory > budget))
+        {
+            release(undoStack.removeLast());
+        }
+    }
+
+    private int[] obtain()
+    {
+        return pool.isEmpty() ? new int[tileSize * tileSize] : pool.remove(pool.size() - 1);
+    }
+
+    private void recycle(int[] tile)
+    {
+        if (pool.size() < POOL_LIMIT)
+        {
+            pool.add(tile);
+        }
+    }
+
+    private void release(Entry entry)
+    {
+        for (int i = 0; i < entry.count; i++)
+        {
+            recycle(entry.pixels[i]);
+            entry.pixels[i] = null;
+        }
+        memory -= entry.count * tileSize * tileSize * 4L;
+        entry.count = 0;
+    }
+}
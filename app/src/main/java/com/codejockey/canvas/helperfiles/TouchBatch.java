@@ -0,0 +1,105 @@
+package com.codejockey.canvas.helperfiles;
+
+import android.view.MotionEvent;
+
+import java.util.Arrays;
+
+//Touch samples from one MotionEvent, kept in primitive arrays.
+//
+//The system delivers input about once a frame; a MOVE event carries
+//every sample since the last one as history, oldest first, followed by
+//the current sample. drain() copies them all into reusable arrays so the
+//drawing code can run over the whole batch and invalidate once, without
+//dropping samples from fast digitizers or allocating per event.
+
+public class TouchBatch
+{
+    private float[] xs    = new float[16];
+    private float[] ys    = new float[16];
+    private long[]  times = new long[16];    //event times, uptime millis
+    private int[]   pens  = new int[16];     //PenState of each sample
+    private int     size;
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public void add(float x, float y, long time)
+    {
+        add(x, y, time, PenState.NONE);
+    }
+
+    public void add(float x, float y, long time, int pen)
+    {
+        if (size == xs.length)
+        {
+            xs    = Arrays.copyOf(xs, size * 2);
+            ys    = Arrays.copyOf(ys, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            pens  = Arrays.copyOf(pens, size * 2);
+        }
+        xs[size]    = x;
+        ys[size]    = y;
+        times[size] = time;
+        pens[size]  = pen;
+        size++;
+    }
+
+    //Replaces the batch with the historical and current samples of the
+    //event's first pointer
+    public void drain(MotionEvent event)
+    {
+        clear();
+        int tool = event.getToolType(0);
+        int history = event.getHistorySize();
+        for (int i = 0; i < history; i++)
+        {
+            add(event.getHistoricalX(i), event.getHistoricalY(i), event.getHistoricalEventTime(i),
+                    PenState.pack(event.getHistoricalPressure(i), event.getHistoricalSize(i), tool));
+        }
+        add(event.getX(), event.getY(), event.getEventTime(),
+                PenState.pack(event.getPressure(), event.getSize(), tool));
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public float getX(int i)
+    {
+        return xs[i];
+    }
+
+    public float getY(int i)
+    {
+        return ys[i];
+    }
+
+    public long getTime(int i)
+    {
+        return times[i];
+    }
+
+    public int getPen(int i)
+    {
+        return pens[i];
+    }
+
+    //Age of the oldest sample at 'now', both in uptime millis
+    public long getLatency(long now)
+    {
+        return size == 0 ? 0 : now - times[0];
+    }
+
+    //Records the batch once handled: the handling time since start, a
+    //value from Metrics.INPUT_BATCH.start(), the number of samples, and
+    //the age of the oldest sample at 'now'
+    public void recordMetrics(long start, long now)
+    {
+        Metrics.INPUT_BATCH.stop(start);
+        Metrics.INPUT_SAMPLES.add(size);
+        Metrics.INPUT_LATENCY.record(getLatency(now) * 1000000L);
+    }
+}
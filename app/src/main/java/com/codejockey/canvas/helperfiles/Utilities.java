@@ -259,18 +259,13 @@ public class Utilities
         return mutableBitmap;
     }
 
+    //  Same test as the flood fillers; alpha is ignored. Callers testing many
+    //  pixels against one color should keep a ColorMatcher instead.
     public static boolean pixelInColor (int px, int tClr, int rTol, int gTol, int bTol)
     {
-        int red    = (px >>> 16)   & 0xff;
-        int green  = (px >>> 8)    & 0xff;
-        int blue   =  px           & 0xff;
-        int tRed   = (tClr >>> 16) & 0xff;
-        int tGreen = (tClr >>> 8)  & 0xff;
-        int tBlue  =  tClr         & 0xff;
-
-        return (red   >= (tRed   - rTol) && red   <= (tRed   + rTol) &&
-                green >= (tGreen - gTol) && green <= (tGreen + gTol) &&
-                blue  >= (tBlue  - bTol) && blue  <= (tBlue  + bTol));
+        return ColorMatcher.inRange (px,
+                ColorMatcher.lowerBound (tClr, 255, rTol, gTol, bTol),
+                ColorMatcher.upperBound (tClr, 255, rTol, gTol, bTol));
     }
 
     /**
@@ -0,0 +1,68 @@
+package com.codejockey.canvas.helperfiles;
+
+//Width from drawing speed: slow strokes are thin, fast ones fat.
+//
+//Speed is the distance between samples over their event times, smoothed
+//exponentially with a time constant, so the weight of a sample depends on
+//how long it covers rather than on how often the device samples. That
+//also damps the peaky sample times of some devices, which the old rolling
+//median of sample intervals was for. Samples with no time between them,
+//like the repeated end of a closing curve, leave the speed as it was.
+//
+//StrictMath keeps the smoothing bit-for-bit the same between runs, so a
+//replay draws the widths the live stroke had.
+
+public class VelocityWidthModel implements WidthModel
+{
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final float minWidth;           //width standing still
+    private final float widthPerSpeed;      //added width per pixel/ms
+    private final float startWidth;
+    private final double timeConstant;      //smoothing, in ms
+
+    private float  lastX, lastY;
+    private long   lastTime;
+    private double speed;                   //smoothed, pixels/ms
+
+    public VelocityWidthModel(float minWidth, float widthPerSpeed, float startWidth, float timeConstant)
+    {
+        this.minWidth      = minWidth;
+        this.widthPerSpeed = widthPerSpeed;
+        this.startWidth    = startWidth;
+        this.timeConstant  = timeConstant;
+    }
+
+    public float start(float x, float y, long time, int pen)
+    {
+        lastX    = x;
+        lastY    = y;
+        lastTime = time;
+        speed    = (startWidth - minWidth) / widthPerSpeed;
+        return startWidth;
+    }
+
+    public float sample(float x, float y, long time, int pen)
+    {
+        long elapsed = time - lastTime;
+        if (elapsed > 0)
+        {
+            double millis = elapsed / NANOS_PER_MILLI;
+            double dx = x - lastX;
+            double dy = y - lastY;
+            double instant = Math.sqrt(dx * dx + dy * dy) / millis;
+            double weight = 1 - StrictMath.exp(-millis / timeConstant);
+            speed += (instant - speed) * weight;
+            lastX    = x;
+            lastY    = y;
+            lastTime = time;
+        }
+        return (float) (minWidth + speed * widthPerSpeed);
+    }
+
+    //Smoothed speed so far, in pixels per millisecond
+    public double getSpeed()
+    {
+        return speed;
+    }
+}
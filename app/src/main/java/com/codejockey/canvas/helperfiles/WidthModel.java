@@ -0,0 +1,18 @@
+package com.codejockey.canvas.helperfiles;
+
+//Decides how wide a stroke is drawn at each touch sample.
+//
+//A model sees each sample of a stroke in turn: its position, event time in
+//nanoseconds and PenState. It keeps whatever it needs between samples in
+//primitive fields, so a sample costs no allocation, and it must not read
+//clocks or other outside state, so replaying the recorded samples gives
+//the same widths.
+
+public interface WidthModel
+{
+    //Starts a stroke; returns the width at its first sample
+    float start(float x, float y, long time, int pen);
+
+    //Takes the next sample; returns the width the stroke should reach there
+    float sample(float x, float y, long time, int pen);
+}
@@ -8,7 +8,11 @@ import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Xfermode;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
@@ -17,8 +21,17 @@ import android.view.MotionEvent;
 import android.view.View;
 
 import com.codejockey.canvas.R;
-
-import java.util.ArrayList;
+import com.codejockey.canvas.helperfiles.Metrics;
+import com.codejockey.canvas.helperfiles.MotionPredictor;
+import com.codejockey.canvas.helperfiles.PaintStyles;
+import com.codejockey.canvas.helperfiles.ScanlineFloodFiller;
+import com.codejockey.canvas.helperfiles.StrokeIndex;
+import com.codejockey.canvas.helperfiles.StrokeSimplifier;
+import com.codejockey.canvas.helperfiles.TileGrid;
+import com.codejockey.canvas.helperfiles.TileUndoStack;
+import com.codejockey.canvas.helperfiles.TouchBatch;
+
+import java.util.Arrays;
 
 /**
  * Created by Valentine on 10/27/2015.
@@ -52,21 +65,126 @@ public class CustomView extends View
     //and transfers them to the view
     private Canvas drawCanvas;
 
-    //canvas bitmap
+    //canvas bitmap, a cache of every committed stroke
     private Bitmap canvasBitmap;
 
+    //cache tiles that no longer match the strokes, e.g. after a resize; they
+    //are redrawn on the next onDraw
+    private static final int TILE_SIZE = 64;
+    private TileGrid cacheTiles = new TileGrid(TILE_SIZE);
+    private int[] tileRect = new int[4];
+
     //brush size
     private float currentBrushSize;
     private float lastBrushSize;
     private int lastColor = 0xFF000000;
 
-    private ArrayList<Path> paths = new ArrayList<Path>();
-    private ArrayList<Paint> paints = new ArrayList<Paint>();
+    //one xfermode instance, so erase strokes share a paint style
+    private static final Xfermode ERASE_MODE = new PorterDuffXfermode(PorterDuff.Mode.CLEAR);
+
+    //committed strokes by id, each with the index of its shared paint
+    //style and its simplified control points as x, y pairs. Ids are handed
+    //out in drawing order, so drawing ascending ids keeps the stacking.
+    private PaintStyles styles = new PaintStyles();
+    private Path[] strokes = new Path[64];
+    private int[] strokeStyles = new int[64];
+    private float[][] strokePoints = new float[64][];
+    private int nextStroke;
+
+    //bounds of the strokes on the canvas, so a tile redraw or the stroke
+    //eraser only looks at the strokes near it
+    private static final int INDEX_CELL_SIZE = 128;
+    private StrokeIndex strokeIndex = new StrokeIndex(INDEX_CELL_SIZE);
+    private int[] strokeHits = new int[16];
+
+    //undo and redo steps, each the id of a stroke that was drawn or ~id
+    //of one the stroke eraser took away
+    private int[] undoSteps = new int[64];
+    private int undoCount;
+    private int[] redoSteps = new int[64];
+    private int redoCount;
+
+    //flag to set stroke eraser mode, which removes whole strokes
+    private boolean strokeEraser = false;
+
+    //reused to draw runs of strokes sharing a style in one call
+    private Path batchPath = new Path();
+
+    //undo history of the cache as tile deltas, one per undo step, so
+    //undo and redo patch the tiles a stroke changed instead of
+    //redrawing every stroke
+    private static final long UNDO_BUDGET = 16L * 1024 * 1024;
+    private static final int  UNDO_DEPTH  = 100;
+    private TileUndoStack undoStack = new TileUndoStack(TILE_SIZE, UNDO_BUDGET, UNDO_DEPTH);
+    private RectF strokeBounds = new RectF();
+
+    private ScanlineFloodFiller.PixelSource cacheSource = new ScanlineFloodFiller.PixelSource()
+    {
+        public void readPixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+        {
+            canvasBitmap.getPixels(pixels, offset, stride, x, y, w, h);
+        }
 
-    private ArrayList<Path> undonePaths = new ArrayList<Path>();
-    private ArrayList<Paint> undonePaints = new ArrayList<Paint>();
+        public void writePixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+        {
+            canvasBitmap.setPixels(pixels, offset, stride, x, y, w, h);
+        }
+    };
 
     private float mX, mY;
+
+    //end of the live stroke so far, where its next segment starts
+    private float segX, segY;
+
+    //control points of the live stroke; at touch_up the stroke is
+    //rebuilt from those the simplifier keeps, within simplifyTolerance
+    //pixels of the drawn curve, so stored paths and redraws stay small
+    private float simplifyTolerance = 0.5f;
+    private StrokeSimplifier simplifier = new StrokeSimplifier();
+    private float[] strokeX = new float[256];
+    private float[] strokeY = new float[256];
+    private int strokeSize;
+
+    //samples of the current MOVE event, including its history, and the
+    //area they drew; input comes about once a frame, and each event
+    //invalidates once
+    private TouchBatch touchBatch = new TouchBatch();
+    private Rect touchDirty = new Rect();
+
+    //provisional tail from the end of the live stroke to where the finger
+    //is predicted to be a sample or two ahead, shown until the next event
+    private static final int TAIL_HORIZON = 30;     //ms to predict
+    private MotionPredictor predictor = new MotionPredictor();
+    private float[] tailPoints = new float[4];
+    private Path tailPath = new Path();
+    private Rect tailDirty = new Rect();
+
+    /** Draws the whole live stroke path on the view every frame */
+    public static final int RENDER_SOFTWARE = 0;
+    /** Draws the live stroke into an off-screen layer a few segments at a time */
+    public static final int RENDER_LAYERED  = 1;
+
+    private int renderMode = RENDER_SOFTWARE;
+    //mode asked for during a stroke, applied when the next one starts
+    private int nextRenderMode = RENDER_SOFTWARE;
+
+    //layered mode: while a stroke is drawn, liveBitmap holds the cache
+    //plus the stroke so far, and is shown instead of the cache. Segments
+    //added since the last frame wait in pendingPath, so a frame
+    //tessellates a few short quads rather than the whole stroke, and
+    //erase segments clear real pixels in the layer instead of punching
+    //through the window. Segments are drawn separately, so a translucent
+    //color darkens slightly where they join until the stroke is committed.
+    private Bitmap liveBitmap;
+    private Canvas liveCanvas = new Canvas();
+    private Path pendingPath = new Path();
+    private boolean pendingSegments;
+    private boolean stroking;
+
+    //rolling median of the ms between touch samples, nudged by one per
+    //sample like Drawing.median_diff
+    private long sampleInterval = 16;
+    private long lastSampleTime;
     private static final float TOUCH_TOLERANCE = 4;
 
     private void init()
@@ -103,22 +221,48 @@ public class CustomView extends View
     @Override
     protected void onDraw(Canvas canvas)
     {
-        int paintIndex = 0;
+        long frameStart = Metrics.FRAME.start();
 
-        for (Path p : paths)
+        //Committed strokes come from the cache, so a frame costs the same
+        //however many strokes there are; only the live stroke is drawn
+        if (!cacheTiles.isEmpty())
         {
-            Paint paint = paints.get(paintIndex);
-
-            canvas.drawPath(p, paint);
-
-            Log.d(TAG, "In onDraw. Brush size: " + paint.getStrokeWidth() + " Paint color: " + paint.getColor());
+            rebuildCache();
+        }
 
-            paintIndex++;
+        boolean layered = renderMode == RENDER_LAYERED;
+        if (layered && stroking)
+        {
+            if (pendingSegments)
+            {
+                liveCanvas.drawPath(pendingPath, drawPaint);
+                pendingPath.rewind();
+                pendingSegments = false;
+            }
+            canvas.drawBitmap(liveBitmap, 0, 0, null);
+        }
+        else
+        {
+            canvas.drawBitmap(canvasBitmap, 0, 0, null);
+            canvas.drawPath(drawPath, drawPaint);
         }
 
-        canvas.drawPath(drawPath, drawPaint);
+        //An erasing tail would punch through the window, not the layer
+        if (!(layered && eraseMode))
+        {
+            canvas.drawPath(tailPath, drawPaint);
+        }
 
-        Log.d(TAG, "Leaving onDraw. Brush size was set to: " + drawPaint.getStrokeWidth() + "Paths size=" + paths.size() + " Paints size=" + paints.size());
+        Metrics.FRAME.stop(frameStart);
+        if (layered)
+        {
+            Metrics.FRAME_LAYERED.stop(frameStart);
+        }
+        else
+        {
+            Metrics.FRAME_SOFTWARE.stop(frameStart);
+        }
+        Metrics.PATHS.set(strokeIndex.size());
     }
 
     @Override
@@ -132,6 +276,66 @@ public class CustomView extends View
 
         //apply bitmap to graphic to start drawing.
         drawCanvas = new Canvas(canvasBitmap);
+        cacheTiles.resize(w, h);
+        cacheTiles.markAll();
+        strokeIndex.resize(w, h);
+
+        //Tile deltas don't carry over to a new size, so neither do the
+        //undo and redo steps that name them
+        undoStack.setSource(cacheSource, w, h);
+        dropUndo(undoCount);
+        clearRedo();
+    }
+
+    //Redraws the committed strokes into the dirty tiles of the cache,
+    //clipped to a few rectangles covering them
+    private void rebuildCache()
+    {
+        while (cacheTiles.takeRect(tileRect))
+        {
+            drawCanvas.save();
+            drawCanvas.clipRect(tileRect[0], tileRect[1], tileRect[2], tileRect[3]);
+            drawCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            drawStrokes(tileRect[0], tileRect[1], tileRect[2], tileRect[3]);
+            drawCanvas.restore();
+        }
+        Metrics.CACHE_REBUILDS.increment();
+    }
+
+    //Draws the committed strokes that reach into an area, in order. A run
+    //of strokes with the same opaque or erasing style is drawn as one
+    //path, which looks the same since overlaps don't build up.
+    private void drawStrokes(float left, float top, float right, float bottom)
+    {
+        int count = strokeIndex.query(left, top, right, bottom);
+        int i = 0;
+        while (i < count)
+        {
+            int style = strokeStyles[strokeIndex.getResult(i)];
+            Paint paint = styles.get(style);
+            int end = i + 1;
+            while (end < count && strokeStyles[strokeIndex.getResult(end)] == style)
+            {
+                end++;
+            }
+
+            if (end - i > 1 && (Color.alpha(paint.getColor()) == 255 || paint.getXfermode() == ERASE_MODE))
+            {
+                batchPath.rewind();
+                for (; i < end; i++)
+                {
+                    batchPath.addPath(strokes[strokeIndex.getResult(i)]);
+                }
+                drawCanvas.drawPath(batchPath, paint);
+            }
+            else
+            {
+                for (; i < end; i++)
+                {
+                    drawCanvas.drawPath(strokes[strokeIndex.getResult(i)], paint);
+                }
+            }
+        }
     }
 
 
@@ -152,34 +356,84 @@ public class CustomView extends View
 
         gestureDetector.onTouchEvent(event);
 
+        if (strokeEraser)
+        {
+            return eraseStrokes(event);
+        }
 
+        touchDirty.setEmpty();
         switch (event.getAction())
         {
             case MotionEvent.ACTION_DOWN:
                 touch_start(touchX, touchY);
-                invalidate();
 
   //              Log.i(TAG, "Starting potential long press handler");
   //              handler.postDelayed(mLongPressed, 1000);
                 break;
             case MotionEvent.ACTION_MOVE:
-                touch_move(touchX, touchY);
-                invalidate();
+                long batchStart = Metrics.INPUT_BATCH.start();
+                touchBatch.drain(event);
+                for (int i = 0; i < touchBatch.size(); i++)
+                {
+                    long interval = touchBatch.getTime(i) - lastSampleTime;
+                    if (interval > 0)
+                    {
+                        sampleInterval += sampleInterval > interval ? -1 : 1;
+                    }
+                    lastSampleTime = touchBatch.getTime(i);
+                    touch_move(touchBatch.getX(i), touchBatch.getY(i));
+                }
+                updateTail();
+                touchBatch.recordMetrics(batchStart, SystemClock.uptimeMillis());
 //                handler.removeCallbacks(mLongPressed);
 //                Log.i(TAG, "Moved: Stopping potential long press handler");
                 break;
             case MotionEvent.ACTION_UP:
                 touch_up();
-                invalidate();
 //                handler.removeCallbacks(mLongPressed);
 //                Log.i(TAG, "Up: Stopping potential long press handler");
                 break;
             default:
                 return false;
         }
+
+        if (!touchDirty.isEmpty())
+        {
+            invalidate(touchDirty);
+        }
         return true;
     }
 
+    /** Set RENDER_SOFTWARE or RENDER_LAYERED; takes effect from the next stroke */
+    public void setRenderMode(int mode)
+    {
+        nextRenderMode = mode;
+        if (!stroking)
+        {
+            applyRenderMode();
+        }
+    }
+
+    private void applyRenderMode()
+    {
+        renderMode = nextRenderMode;
+        if (renderMode != RENDER_LAYERED)
+        {
+            liveBitmap = null;
+        }
+    }
+
+    public int getRenderMode()
+    {
+        return renderMode;
+    }
+
+    /** Pixels a stroke's curve may move when compacted; zero keeps every point */
+    public void setSimplifyTolerance(float pixels)
+    {
+        simplifyTolerance = pixels;
+    }
+
     /** Set erase true or false */
     public void setErase(boolean isErase)
     {
@@ -187,7 +441,7 @@ public class CustomView extends View
 
         if(eraseMode)
         {
-            drawPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+            drawPaint.setXfermode(ERASE_MODE);
         }
         else
         {
@@ -195,85 +449,466 @@ public class CustomView extends View
         }
     }
 
+    /** Set stroke eraser true or false; while on, touching a stroke removes it whole */
+    public void setStrokeEraser(boolean isStrokeEraser)
+    {
+        if (!stroking)
+        {
+            strokeEraser = isStrokeEraser;
+        }
+    }
+
     /** Start new Drawing */
     public void eraseAll()
     {
        drawPath = new Path();
-       drawPaint = new Paint();
-       paths.clear();
-       paints.clear();
-       drawCanvas.drawColor(Color.WHITE);
+       resetPaint(drawPaint);
+       Arrays.fill(strokes, null);
+       Arrays.fill(strokePoints, null);
+       nextStroke = 0;
+       strokeIndex.clear();
+       undoCount = 0;
+       redoCount = 0;
+       undoStack.clear();
+       cacheTiles.markAll();
        invalidate();
     }
 
 
     private void touch_start(float x, float y)
     {
-        undonePaths.clear();
-        undonePaints.clear();
+        clearRedo();
 
         drawPath.reset();
         drawPath.moveTo(x, y);
 
         mX = x;
         mY = y;
+        segX = x;
+        segY = y;
+        markSegment(x, y, x, y, x, y);
 
-        Log.d(TAG, "Leaving touch_start. Brush size was set to: " + drawPaint.getStrokeWidth());
+        strokeSize = 0;
+        addStrokePoint(x, y);
+
+        clearTail();
+        predictor.reset();
+        predictor.add(x, y);
+        lastSampleTime = SystemClock.uptimeMillis();
+
+        applyRenderMode();
+        stroking = true;
+        if (renderMode == RENDER_LAYERED)
+        {
+            startLayer();
+        }
+
+        Metrics.trace("touch_start brush size", drawPaint.getStrokeWidth());
     }
 
     private void touch_up()
     {
         drawPath.lineTo(mX, mY);
+        clearTail();
+        stroking = false;
+        pendingPath.rewind();
+        pendingSegments = false;
 
+        if (!cacheTiles.isEmpty())
+        {
+            rebuildCache();
+        }
+
+        //Snapshot what the stroke can cover: its bounds plus half the
+        //width for the round caps, and a pixel for antialiasing; the
+        //simplified stroke may stray the tolerance further
+        drawPath.computeBounds(strokeBounds, false);
+        float pad = drawPaint.getStrokeWidth() / 2 + 1 + simplifyTolerance;
+        int left   = (int) Math.floor(strokeBounds.left - pad);
+        int top    = (int) Math.floor(strokeBounds.top - pad);
+        int right  = (int) Math.ceil(strokeBounds.right + pad);
+        int bottom = (int) Math.ceil(strokeBounds.bottom + pad);
+        undoStack.begin(left, top, right, bottom);
+
+        simplifyStroke();
         drawCanvas.drawPath(drawPath, drawPaint);
+        undoStack.commit();
+
+        //The live stroke is replaced by the cached one, which differs for
+        //erasing, so repaint all of it
+        touchDirty.union(left, top, right, bottom);
 
-        paths.add(drawPath);
-        paints.add(drawPaint);
+        int id = addPath(drawPath, styles.intern(drawPaint));
+        float[] points = new float[strokeSize * 2];
+        for (int i = 0; i < strokeSize; i++)
+        {
+            points[i * 2]     = strokeX[i];
+            points[i * 2 + 1] = strokeY[i];
+        }
+        strokePoints[id] = points;
+        pushUndo(id);
 
-        Log.d(TAG, "In touch_up. Brush size was set to: " + drawPaint.getStrokeWidth());
+        Metrics.trace("touch_up brush size", drawPaint.getStrokeWidth());
 
+        //the live paint is reused; the stroke keeps its interned copy
         drawPath = new Path();
-        drawPaint = getNewPaint();
+        resetPaint(drawPaint);
     }
 
     private void touch_move(float x, float y)
     {
+        predictor.add(x, y);
+
         float dx = Math.abs(x - mX);
         float dy = Math.abs(y - mY);
         if (dx >= TOUCH_TOLERANCE || dy >= TOUCH_TOLERANCE)
         {
-            drawPath.quadTo(mX, mY, (x + mX)/2, (y + mY)/2);
+            float endX = (x + mX)/2;
+            float endY = (y + mY)/2;
+            drawPath.quadTo(mX, mY, endX, endY);
+            addStrokePoint(x, y);
+            if (renderMode == RENDER_LAYERED)
+            {
+                pendingPath.moveTo(segX, segY);
+                pendingPath.quadTo(mX, mY, endX, endY);
+                pendingSegments = true;
+            }
+            markSegment(segX, segY, mX, mY, endX, endY);
+            segX = endX;
+            segY = endY;
             mX = x;
             mY = y;
         }
     }
 
+    private void addStrokePoint(float x, float y)
+    {
+        if (strokeSize == strokeX.length)
+        {
+            strokeX = Arrays.copyOf(strokeX, strokeSize * 2);
+            strokeY = Arrays.copyOf(strokeY, strokeSize * 2);
+        }
+        strokeX[strokeSize] = x;
+        strokeY[strokeSize] = y;
+        strokeSize++;
+    }
 
-    public void onClickUndo ()
+    //Rebuilds drawPath from the simplified control points, the same way
+    //touch_move built it: a quad to each midpoint, then a line to the end
+    private void simplifyStroke()
+    {
+        int kept = simplifier.simplify(strokeX, strokeY, strokeSize, simplifyTolerance);
+        if (kept == strokeSize)
+        {
+            return;
+        }
+        Metrics.trace("simplified stroke points", strokeSize - kept);
+        strokeSize = kept;
+        drawPath.rewind();
+        drawPath.moveTo(strokeX[0], strokeY[0]);
+        for (int i = 1; i < kept; i++)
+        {
+            drawPath.quadTo(strokeX[i-1], strokeY[i-1], (strokeX[i] + strokeX[i-1])/2, (strokeY[i] + strokeY[i-1])/2);
+        }
+        drawPath.lineTo(strokeX[kept-1], strokeY[kept-1]);
+    }
+
+    //Stroke eraser input: every sample removes the strokes under it
+    private boolean eraseStrokes(MotionEvent event)
+    {
+        touchDirty.setEmpty();
+        switch (event.getAction())
+        {
+            case MotionEvent.ACTION_DOWN:
+                eraseStrokesAt(event.getX(), event.getY());
+                break;
+            case MotionEvent.ACTION_MOVE:
+                touchBatch.drain(event);
+                for (int i = 0; i < touchBatch.size(); i++)
+                {
+                    eraseStrokesAt(touchBatch.getX(i), touchBatch.getY(i));
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                break;
+            default:
+                return false;
+        }
+
+        if (!touchDirty.isEmpty())
+        {
+            invalidate(touchDirty);
+        }
+        return true;
+    }
+
+    //Removes the strokes that pass within half the brush size of a point.
+    //Erase strokes are left alone, since taking one away would bring back
+    //what it erased.
+    private void eraseStrokesAt(float x, float y)
     {
-       if (paths.size()>0)
+        float radius = currentBrushSize / 2;
+        int count = strokeIndex.query(x - radius, y - radius, x + radius, y + radius);
+        if (count > strokeHits.length)
         {
-            undonePaths.add(paths.remove(paths.size()-1));
-            undonePaints.add(paints.remove(paints.size()-1));
+            strokeHits = new int[count];
+        }
 
-            paintColor = paints.get(paints.size() -1).getColor();
-            drawPaint.setColor(paintColor);
+        //Collect first; erasing queries the index again to redraw
+        int hits = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int id = strokeIndex.getResult(i);
+            Paint paint = styles.get(strokeStyles[id]);
+            if (paint.getXfermode() != ERASE_MODE
+                    && touches(strokePoints[id], x, y, radius + paint.getStrokeWidth() / 2))
+            {
+                strokeHits[hits++] = id;
+            }
+        }
+        for (int i = 0; i < hits; i++)
+        {
+            eraseStroke(strokeHits[i]);
+        }
+    }
 
-            invalidate();
+    //Takes one stroke off the canvas, redrawing the tiles under it from
+    //the strokes left there; the old tiles become its undo step
+    private void eraseStroke(int id)
+    {
+        if (!cacheTiles.isEmpty())
+        {
+            rebuildCache();
         }
 
-        Log.d(TAG, "Leaving onClickUndo. Paths size=" + paths.size() + " Paints size=" + paints.size());
+        int left   = (int) Math.floor(strokeIndex.getLeft(id));
+        int top    = (int) Math.floor(strokeIndex.getTop(id));
+        int right  = (int) Math.ceil(strokeIndex.getRight(id));
+        int bottom = (int) Math.ceil(strokeIndex.getBottom(id));
+        undoStack.begin(left, top, right, bottom);
+        strokeIndex.remove(id);
+        cacheTiles.mark(left, top, right, bottom);
+        rebuildCache();
+        undoStack.commit();
+
+        clearRedo();
+        pushUndo(~id);
+        touchDirty.union(left, top, right, bottom);
+        Metrics.trace("erased stroke", id);
+    }
+
+    //Whether a line through x, y pairs passes within distance of a point.
+    //The control points stand in for the curve, which runs just inside them.
+    private static boolean touches(float[] points, float x, float y, float distance)
+    {
+        if (points == null)
+        {
+            return false;
+        }
+        float limit = distance * distance;
+        for (int i = 0; i < points.length; i += 2)
+        {
+            float dx = x - points[i];
+            float dy = y - points[i + 1];
+            if (i + 2 < points.length)
+            {
+                float sx = points[i + 2] - points[i];
+                float sy = points[i + 3] - points[i + 1];
+                float length = sx * sx + sy * sy;
+                if (length > 0)
+                {
+                    float t = Math.max(0, Math.min(1, (dx * sx + dy * sy) / length));
+                    dx -= t * sx;
+                    dy -= t * sy;
+                }
+            }
+            if (dx * dx + dy * dy <= limit)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Seeds the live layer with the committed strokes for a new stroke
+    private void startLayer()
+    {
+        if (!cacheTiles.isEmpty())
+        {
+            rebuildCache();
+        }
+        if (liveBitmap == null || liveBitmap.getWidth() != canvasBitmap.getWidth()
+                || liveBitmap.getHeight() != canvasBitmap.getHeight())
+        {
+            liveBitmap = Bitmap.createBitmap(canvasBitmap.getWidth(), canvasBitmap.getHeight(),
+                    Bitmap.Config.ARGB_8888);
+            liveCanvas.setBitmap(liveBitmap);
+        }
+        liveBitmap.eraseColor(Color.TRANSPARENT);
+        liveCanvas.drawBitmap(canvasBitmap, 0, 0, null);
+        pendingPath.rewind();
+        pendingSegments = false;
+    }
+
+    //Redraws the tail: from the end of the live stroke through the last
+    //sample, which the quads stop short of, then on through one or two
+    //predicted points, whichever is nearer TAIL_HORIZON ahead
+    private void updateTail()
+    {
+        clearTail();
+        int steps = (int) Math.max(1, Math.min(2, (TAIL_HORIZON + sampleInterval / 2) / Math.max(1, sampleInterval)));
+        int points = predictor.predict(steps, tailPoints);
+
+        tailPath.moveTo(segX, segY);
+        tailPath.lineTo(mX, mY);
+        float left = Math.min(segX, mX), top = Math.min(segY, mY);
+        float right = Math.max(segX, mX), bottom = Math.max(segY, mY);
+        for (int i = 0; i < points; i++)
+        {
+            float x = tailPoints[i * 2];
+            float y = tailPoints[i * 2 + 1];
+            tailPath.lineTo(x, y);
+            left   = Math.min(left, x);
+            top    = Math.min(top, y);
+            right  = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+        }
+
+        float pad = drawPaint.getStrokeWidth() / 2 + 1;
+        tailDirty.set((int) Math.floor(left - pad), (int) Math.floor(top - pad),
+                (int) Math.ceil(right + pad), (int) Math.ceil(bottom + pad));
+        touchDirty.union(tailDirty);
+    }
+
+    //Drops the tail, repainting where it was
+    private void clearTail()
+    {
+        touchDirty.union(tailDirty);
+        tailDirty.setEmpty();
+        tailPath.rewind();
+    }
+
+    //Adds a new piece of the live stroke to the area to repaint. A quad
+    //segment lies inside the triangle of its start, control and end
+    //points; grow that by half the stroke width for the round caps and a
+    //pixel for antialiasing.
+    private void markSegment(float x0, float y0, float x1, float y1, float x2, float y2)
+    {
+        float pad = drawPaint.getStrokeWidth() / 2 + 1;
+        touchDirty.union((int) Math.floor(Math.min(x0, Math.min(x1, x2)) - pad),
+                (int) Math.floor(Math.min(y0, Math.min(y1, y2)) - pad),
+                (int) Math.ceil(Math.max(x0, Math.max(x1, x2)) + pad),
+                (int) Math.ceil(Math.max(y0, Math.max(y1, y2)) + pad));
+    }
+
+
+    public void onClickUndo ()
+    {
+       if (undoCount>0 && undoStack.undo())
+        {
+            int step = undoSteps[--undoCount];
+            redoSteps = put(redoSteps, redoCount++, step);
+
+            if (step >= 0)
+            {
+                strokeIndex.remove(step);
+
+                //carry on in the color of the stroke now on top
+                for (int id = step-1; id >= 0; id--)
+                {
+                    if (strokeIndex.contains(id))
+                    {
+                        paintColor = styles.get(strokeStyles[id]).getColor();
+                        drawPaint.setColor(paintColor);
+                        break;
+                    }
+                }
+            }
+            else
+            {
+                restoreStroke(~step);
+            }
+
+            invalidate(undoStack.getDirtyLeft(), undoStack.getDirtyTop(),
+                    undoStack.getDirtyRight(), undoStack.getDirtyBottom());
+        }
+
+        Metrics.trace("undo paths", strokeIndex.size());
     }
 
     public void onClickRedo ()
     {
-       if (undonePaths.size()>0)
+       if (redoCount>0 && undoStack.redo())
+        {
+            int step = redoSteps[--redoCount];
+            undoSteps = put(undoSteps, undoCount++, step);
+
+            if (step >= 0)
+            {
+                restoreStroke(step);
+            }
+            else
+            {
+                strokeIndex.remove(~step);
+            }
+
+            invalidate(undoStack.getDirtyLeft(), undoStack.getDirtyTop(),
+                    undoStack.getDirtyRight(), undoStack.getDirtyBottom());
+        }
+
+    }
+
+    //puts a stroke back in the index where it was
+    private void restoreStroke(int id)
+    {
+        strokeIndex.insert(id, strokeIndex.getLeft(id), strokeIndex.getTop(id),
+                strokeIndex.getRight(id), strokeIndex.getBottom(id));
+    }
+
+    //records the step for the tile delta just committed, dropping the
+    //oldest steps once the undo stack has let their deltas go
+    private void pushUndo(int step)
+    {
+        undoSteps = put(undoSteps, undoCount++, step);
+        int drop = undoCount - undoStack.getUndoDepth();
+        if (drop > 0)
+        {
+            dropUndo(drop);
+        }
+    }
+
+    //drops the oldest undo steps
+    private void dropUndo(int drop)
+    {
+        for (int i = 0; i < drop; i++)
+        {
+            //an erased stroke can no longer come back
+            if (undoSteps[i] < 0)
+            {
+                forgetStroke(~undoSteps[i]);
+            }
+        }
+        System.arraycopy(undoSteps, drop, undoSteps, 0, undoCount - drop);
+        undoCount -= drop;
+    }
+
+    //drops the redo steps, and the undone strokes only they could bring back
+    private void clearRedo()
+    {
+        for (int i = 0; i < redoCount; i++)
         {
-            paths.add(undonePaths.remove(undonePaths.size()-1));
-            paints.add(undonePaints.remove(undonePaints.size()-1));
-            invalidate();
+            if (redoSteps[i] >= 0)
+            {
+                forgetStroke(redoSteps[i]);
+            }
         }
+        redoCount = 0;
+    }
 
+    private void forgetStroke(int id)
+    {
+        strokes[id] = null;
+        strokePoints[id] = null;
     }
 
     //method to set brush size
@@ -289,14 +924,13 @@ public class CustomView extends View
         currentBrushSize = pixelAmount;
 
         drawPath = new Path();
-        drawPaint = getNewPaint();
+        resetPaint(drawPaint);
 
-        paths.add(drawPath);
-        paints.add(drawPaint);
+        addPath(drawPath, styles.intern(drawPaint));
 
         drawPaint.setStrokeWidth(currentBrushSize);
 
-        Log.d(TAG, "Leaving setBrushSize. Brush size set to: " + currentBrushSize);
+        Metrics.trace("setBrushSize", currentBrushSize);
 
     }
 
@@ -305,25 +939,65 @@ public class CustomView extends View
         paintColor = color;
         drawPaint.setColor(paintColor);
 
-        Log.d(TAG, "Setting paint color to: " + drawPaint.getColor());
+        Metrics.trace("setColor", drawPaint.getColor());
     }
 
     private Paint getNewPaint()
     {
         Paint newPaint = new Paint();
-        newPaint.setColor(paintColor);
-        newPaint.setAntiAlias(true);
-        newPaint.setStyle(Paint.Style.STROKE);
-        newPaint.setStrokeJoin(Paint.Join.ROUND);
-        newPaint.setStrokeCap(Paint.Cap.ROUND);
-
-        newPaint.setStrokeWidth(currentBrushSize);
+        resetPaint(newPaint);
 
-        Log.d(TAG, "Leaving getNewPaint. Brush size set to: " + currentBrushSize);
+        Metrics.PAINT_ALLOCATIONS.increment();
 
         return newPaint;
     }
 
+    //sets a paint up for the next stroke in the current color and size
+    private void resetPaint(Paint paint)
+    {
+        paint.setXfermode(null);
+        paint.setColor(paintColor);
+        paint.setAntiAlias(true);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+
+        paint.setStrokeWidth(currentBrushSize);
+
+        Metrics.trace("resetPaint brush size", currentBrushSize);
+    }
+
+    //stores a committed stroke under the next id and indexes its bounds,
+    //grown by half the width for the round caps and a pixel for antialiasing
+    private int addPath(Path path, int style)
+    {
+        int id = nextStroke++;
+        if (id == strokes.length)
+        {
+            strokes = Arrays.copyOf(strokes, id * 2);
+            strokePoints = Arrays.copyOf(strokePoints, id * 2);
+        }
+        strokes[id] = path;
+        strokeStyles = put(strokeStyles, id, style);
+
+        path.computeBounds(strokeBounds, false);
+        float pad = styles.get(style).getStrokeWidth() / 2 + 1;
+        strokeIndex.insert(id, strokeBounds.left - pad, strokeBounds.top - pad,
+                strokeBounds.right + pad, strokeBounds.bottom + pad);
+        return id;
+    }
+
+    //stores an int, growing the array if needed
+    private static int[] put(int[] values, int index, int value)
+    {
+        if (index == values.length)
+        {
+            values = Arrays.copyOf(values, index * 2);
+        }
+        values[index] = value;
+        return values;
+    }
+
     public void setLastBrushSize(float lastSize)
     {
         lastBrushSize=lastSize;
@@ -333,7 +1007,7 @@ public class CustomView extends View
         drawPaint.setStrokeWidth(lastBrushSize);
 
 
-        Log.d(TAG, "Leaving setLastBrushSize. Last brush size set to: " + lastBrushSize);
+        Metrics.trace("setLastBrushSize", lastBrushSize);
 
     }
 
@@ -342,6 +1016,12 @@ public class CustomView extends View
         this.lastColor = lastColor;
     }
 
+    //Writes frame times, counters and recent trace events to the log
+    public void dumpMetrics()
+    {
+        Log.i(TAG, Metrics.dump());
+    }
+
     public float getLastBrushSize()
     {
         return lastBrushSize;
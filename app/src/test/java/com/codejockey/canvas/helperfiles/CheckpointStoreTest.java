@@ -0,0 +1,138 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks snapshot round trips, nearest-checkpoint lookup and the memory
+ * budget of the checkpoint store.
+ */
+public class CheckpointStoreTest
+{
+    private static final int WIDTH  = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void flatImage_isEncodedAndRestored() throws Exception
+    {
+        int[] image = drawing(1);
+        CheckpointStore store = new CheckpointStore(10, Long.MAX_VALUE);
+        store.save(0, image, WIDTH, HEIGHT, 0xFFFFFFFF, 0xFF000000);
+
+        CheckpointStore.Checkpoint checkpoint = store.nearest(0);
+        int[] restored = new int[WIDTH * HEIGHT];
+        store.restore(checkpoint, restored);
+
+        assertArrayEquals(image, restored);
+        assertEquals(0xFFFFFFFF, checkpoint.paper);
+        assertEquals(0xFF000000, checkpoint.ink);
+        assertTrue(checkpoint.getMemory() < image.length);
+    }
+
+    @Test
+    public void noisyImage_isStoredPlain() throws Exception
+    {
+        int[] image = new int[WIDTH * HEIGHT];
+        Random random = new Random(2);
+        for (int i = 0; i < image.length; i++)
+        {
+            image[i] = random.nextInt();
+        }
+        CheckpointStore store = new CheckpointStore(10, Long.MAX_VALUE);
+        store.save(5, image, WIDTH, HEIGHT, 0, 0);
+
+        int[] restored = new int[WIDTH * HEIGHT];
+        store.restore(store.nearest(5), restored);
+        assertArrayEquals(image, restored);
+        assertTrue(store.getMemory() <= image.length * 4L + 64);
+    }
+
+    @Test
+    public void seekIntoLongHistory_startsWithinOneInterval() throws Exception
+    {
+        //Checkpoint every 250 commands of a 10,000 command history, taken
+        //wherever the caller says it is between strokes
+        CheckpointStore store = new CheckpointStore(250, Long.MAX_VALUE);
+        Random random = new Random(4);
+        int[] image = drawing(3);
+        for (int index = 0; index <= 10000; index++)
+        {
+            if ((index == 0 || random.nextInt(20) == 0) && store.isDue(index))
+            {
+                store.save(index, image, WIDTH, HEIGHT, index, 0);
+            }
+        }
+
+        int longest = 0;
+        for (int index = 0; index <= 10000; index++)
+        {
+            CheckpointStore.Checkpoint checkpoint = store.nearest(index);
+            assertNotNull(checkpoint);
+            assertTrue(checkpoint.index <= index);
+            assertEquals(checkpoint.index, checkpoint.paper);
+            longest = Math.max(longest, index - checkpoint.index);
+        }
+        //An interval, plus the wait for the next stroke boundary
+        assertTrue("replay of " + longest, longest < 400);
+    }
+
+    @Test
+    public void budget_evictsLeastRecentlyUsedButKeepsFirst() throws Exception
+    {
+        int[] image = drawing(5);
+        CheckpointStore probe = new CheckpointStore(1, Long.MAX_VALUE);
+        probe.save(0, image, WIDTH, HEIGHT, 0, 0);
+        long each = probe.getMemory();
+
+        CheckpointStore store = new CheckpointStore(1, each * 3);
+        store.save(0, image, WIDTH, HEIGHT, 0, 0);
+        store.save(10, image, WIDTH, HEIGHT, 0, 0);
+        store.save(20, image, WIDTH, HEIGHT, 0, 0);
+        store.nearest(10);
+        store.save(30, image, WIDTH, HEIGHT, 0, 0);
+
+        assertEquals(3, store.size());
+        assertTrue(store.getMemory() <= each * 3);
+        assertEquals(0, store.nearest(5).index);
+        assertEquals(10, store.nearest(25).index);
+        assertEquals(30, store.nearest(35).index);
+    }
+
+    @Test
+    public void discardAfter_dropsLaterCheckpoints() throws Exception
+    {
+        int[] image = drawing(6);
+        CheckpointStore store = new CheckpointStore(10, Long.MAX_VALUE);
+        store.save(0, image, WIDTH, HEIGHT, 0, 0);
+        store.save(10, image, WIDTH, HEIGHT, 0, 0);
+        store.save(20, image, WIDTH, HEIGHT, 0, 0);
+
+        store.discardAfter(15);
+        assertEquals(2, store.size());
+        assertEquals(10, store.nearest(100).index);
+        assertFalse(store.isDue(15));
+        assertTrue(store.isDue(20));
+    }
+
+    //White paper with a few flat colored boxes
+    private static int[] drawing(long seed)
+    {
+        int[] image = new int[WIDTH * HEIGHT];
+        Arrays.fill(image, 0xFFFFFFFF);
+        Random random = new Random(seed);
+        for (int box = 0; box < 5; box++)
+        {
+            int color = random.nextInt() | 0xFF000000;
+            int left = random.nextInt(WIDTH / 2), top = random.nextInt(HEIGHT / 2);
+            for (int y = top; y < top + HEIGHT / 3; y++)
+            {
+                Arrays.fill(image, y * WIDTH + left, y * WIDTH + left + WIDTH / 3, color);
+            }
+        }
+        return image;
+    }
+}
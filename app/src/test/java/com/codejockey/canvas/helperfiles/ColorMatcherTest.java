@@ -0,0 +1,97 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the packed bounds test against the plain per-channel comparison
+ * the fillers used before.
+ */
+public class ColorMatcherTest
+{
+    @Test
+    public void toleranceMode_matchesChannelComparison() throws Exception
+    {
+        Random random = new Random(3);
+        ColorMatcher matcher = new ColorMatcher();
+
+        for (int round = 0; round < 200; round++)
+        {
+            int target = random.nextInt();
+            int rTol = random.nextInt(80) - 5, gTol = random.nextInt(80) - 5, bTol = random.nextInt(80) - 5;
+            matcher.setTarget(target);
+            matcher.setTolerance(rTol, gTol, bTol);
+
+            for (int i = 0; i < 2000; i++)
+            {
+                //Half the pixels near the target so both outcomes are common
+                int pixel = i % 2 == 0 ? random.nextInt() : target ^ (random.nextInt() & 0x3f3f3f3f);
+                boolean expected = naiveMatch(pixel, target, rTol, gTol, bTol);
+
+                assertEquals(expected, matcher.matches(pixel));
+                assertEquals(expected, Utilities.pixelInColor(pixel, target, rTol, gTol, bTol));
+            }
+        }
+    }
+
+    @Test
+    public void exactMode_needsIdenticalArgb() throws Exception
+    {
+        ColorMatcher matcher = new ColorMatcher();
+        matcher.setMode(ColorMatcher.MODE_EXACT);
+        matcher.setTolerance(40);
+        matcher.setTarget(0xFF808080);
+
+        assertTrue(matcher.matches(0xFF808080));
+        assertFalse(matcher.matches(0xFF808081));
+        assertFalse(matcher.matches(0x7F808080));
+    }
+
+    @Test
+    public void alphaMode_checksAlphaToo() throws Exception
+    {
+        ColorMatcher matcher = new ColorMatcher();
+        matcher.setTolerance(10);
+        matcher.setTarget(0xFF808080);
+
+        //Tolerance mode ignores alpha, alpha mode does not
+        assertTrue(matcher.matches(0x00808080));
+        matcher.setMode(ColorMatcher.MODE_ALPHA);
+        assertFalse(matcher.matches(0x00808080));
+        assertTrue(matcher.matches(0xF5808A80));
+        assertFalse(matcher.matches(0xF4808080));
+    }
+
+    @Test
+    public void perceptualMode_weighsGreenHeavier() throws Exception
+    {
+        ColorMatcher matcher = new ColorMatcher();
+        matcher.setMode(ColorMatcher.MODE_PERCEPTUAL);
+        matcher.setTolerance(20);
+        matcher.setTarget(0xFF808080);
+
+        assertTrue(matcher.matches(0xFF808080));
+        assertTrue(matcher.matches(0xFF909090));
+        //Same step on blue alone passes, on green alone it costs twice as much
+        assertTrue(matcher.matches(0xFF8080A0));
+        assertFalse(matcher.matches(0xFF80A080));
+        assertFalse(matcher.matches(0xFFFFFFFF));
+    }
+
+    private static boolean naiveMatch(int px, int tClr, int rTol, int gTol, int bTol)
+    {
+        int red    = (px >>> 16)   & 0xff;
+        int green  = (px >>> 8)    & 0xff;
+        int blue   =  px           & 0xff;
+        int tRed   = (tClr >>> 16) & 0xff;
+        int tGreen = (tClr >>> 8)  & 0xff;
+        int tBlue  =  tClr         & 0xff;
+
+        return (red   >= (tRed   - rTol) && red   <= (tRed   + rTol) &&
+                green >= (tGreen - gTol) && green <= (tGreen + gTol) &&
+                blue  >= (tBlue  - bTol) && blue  <= (tBlue  + bTol));
+    }
+}
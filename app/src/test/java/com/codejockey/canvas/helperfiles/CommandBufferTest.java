@@ -0,0 +1,146 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks growth, cursor walking and log round trips of the command buffer.
+ */
+public class CommandBufferTest
+{
+    @Test
+    public void grows_keepingEveryCommand() throws Exception
+    {
+        CommandBuffer buffer = new CommandBuffer(0);
+        for (int i = 0; i < 10000; i++)
+        {
+            buffer.add(CommandBuffer.MOVE, i, -i, i * 7);
+        }
+        assertEquals(10000, buffer.size());
+        for (int i = 0; i < 10000; i++)
+        {
+            assertEquals(CommandBuffer.MOVE, buffer.getType(i));
+            assertEquals(i, buffer.getX(i));
+            assertEquals(-i, buffer.getY(i));
+            assertEquals(i * 7, buffer.getColor(i));
+        }
+    }
+
+    @Test
+    public void cursor_walksRewindsAndSeeks() throws Exception
+    {
+        CommandBuffer buffer = new CommandBuffer(4);
+        buffer.addPoint(CommandBuffer.RESET, 1200, 1600);
+        buffer.addColor(CommandBuffer.INK, 0xFF112233);
+        buffer.addPoint(CommandBuffer.DOWN, 10, 20);
+        buffer.addPoint(CommandBuffer.UP, 30, 40);
+
+        CommandBuffer.Cursor cursor = buffer.cursor();
+        int count = 0;
+        while (cursor.next())
+        {
+            assertEquals(count++, cursor.getIndex());
+        }
+        assertEquals(4, count);
+
+        cursor.rewind();
+        assertTrue(cursor.next());
+        assertEquals(CommandBuffer.RESET, cursor.getType());
+        assertEquals(1600, cursor.getY());
+
+        cursor.seek(1);
+        assertTrue(cursor.next());
+        assertEquals(0xFF112233, cursor.getColor());
+        assertEquals(0, cursor.getX());
+
+        //Commands added mid-walk, past a growth, are still reached
+        cursor.seek(4);
+        assertFalse(cursor.next());
+        for (int i = 0; i < 20; i++)
+        {
+            buffer.addPoint(CommandBuffer.MOVE, i, i);
+        }
+        assertTrue(cursor.next());
+        assertEquals(CommandBuffer.MOVE, cursor.getType());
+    }
+
+    @Test
+    public void truncate_dropsTailForRewrite() throws Exception
+    {
+        CommandBuffer buffer = new CommandBuffer(4);
+        buffer.addPoint(CommandBuffer.DOWN, 1, 2);
+        buffer.addPoint(CommandBuffer.MOVE, 3, 4);
+        buffer.addPoint(CommandBuffer.UP, 5, 6);
+
+        buffer.truncate(1);
+        assertEquals(1, buffer.size());
+        buffer.addPoint(CommandBuffer.UP, 7, 8);
+        assertEquals(CommandBuffer.UP, buffer.getType(1));
+        assertEquals(7, buffer.getX(1));
+
+        //Never grows or goes negative
+        buffer.truncate(10);
+        assertEquals(2, buffer.size());
+        buffer.truncate(-1);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void commandLog_roundTrip() throws Exception
+    {
+        CommandBuffer buffer = new CommandBuffer(16);
+        buffer.addPoint(CommandBuffer.RESET, 800, 600);
+        buffer.addColor(CommandBuffer.PAPER, 0xFFFFFFFF);
+        buffer.addColor(CommandBuffer.INK, 0xFF0000FF);
+        buffer.addPoint(CommandBuffer.DOWN, 100, 100);
+        for (int i = 0; i < 50; i++)
+        {
+            buffer.addPoint(CommandBuffer.MOVE, 100 + i * 3, 100 - i);
+        }
+        buffer.addPoint(CommandBuffer.UP, 250, 50);
+        buffer.addPoint(CommandBuffer.FILL, 5, 5);
+        buffer.addFill(40, 30, CommandBuffer.fillSettings(3, 0.5f));
+        buffer.addPoint(CommandBuffer.DOWN, 10, 10);
+        buffer.addColor(CommandBuffer.ERASE, 0xFFFFFFFF);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CommandLog.Writer writer = new CommandLog.Writer(Channels.newChannel(bytes));
+        buffer.writeTo(writer);
+        writer.flush();
+
+        CommandBuffer loaded = new CommandBuffer(0);
+        loaded.readFrom(new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()))));
+
+        assertEquals(buffer.size(), loaded.size());
+        for (int i = 0; i < buffer.size(); i++)
+        {
+            assertEquals(buffer.getType(i), loaded.getType(i));
+            assertEquals(buffer.getX(i), loaded.getX(i));
+            assertEquals(buffer.getY(i), loaded.getY(i));
+            assertEquals(buffer.getColor(i), loaded.getColor(i));
+        }
+    }
+
+    @Test
+    public void fillSettings_packGapAndLeakLimit() throws Exception
+    {
+        int settings = CommandBuffer.fillSettings(3, 0.5f);
+        assertEquals(3, CommandBuffer.fillGap(settings));
+        assertEquals(0.5f, CommandBuffer.fillLeakLimit(settings), 0);
+
+        //Fills recorded without settings read as plain fills
+        assertEquals(0, CommandBuffer.fillGap(0));
+        assertEquals(1.0f, CommandBuffer.fillLeakLimit(0), 0);
+        assertEquals(0, CommandBuffer.fillSettings(0, 1.0f));
+
+        //Out of range values are clamped, not wrapped
+        settings = CommandBuffer.fillSettings(300, 0.0001f);
+        assertEquals(255, CommandBuffer.fillGap(settings));
+        assertEquals(0.001f, CommandBuffer.fillLeakLimit(settings), 0);
+    }
+}
@@ -0,0 +1,320 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trips recorded sessions through the binary command log and
+ * compares its size with plain Java serialization.
+ */
+public class CommandLogTest
+{
+    @Test
+    public void roundTrip_restoresEveryCommand() throws Exception
+    {
+        int[][] session = session(5000, 11);
+        byte[] log = write(session);
+
+        CommandLog.Reader reader = new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log)));
+        assertRead(session, reader);
+    }
+
+    @Test
+    public void roundTrip_survivesShortReads() throws Exception
+    {
+        //Channel handing out at most three bytes per read, so records
+        //straddle every possible buffer refill
+        int[][] session = session(3000, 5);
+        final ByteBuffer source = ByteBuffer.wrap(write(session));
+        ReadableByteChannel trickle = new ReadableByteChannel()
+        {
+            public int read(ByteBuffer dst)
+            {
+                if (!source.hasRemaining())
+                {
+                    return -1;
+                }
+                int count = Math.min(3, Math.min(dst.remaining(), source.remaining()));
+                for (int i = 0; i < count; i++)
+                {
+                    dst.put(source.get());
+                }
+                return count;
+            }
+
+            public boolean isOpen()
+            {
+                return true;
+            }
+
+            public void close()
+            {
+            }
+        };
+        assertRead(session, new CommandLog.Reader(trickle));
+    }
+
+    @Test
+    public void extremeValues_roundTrip() throws Exception
+    {
+        int[][] session = {
+                {CommandLog.RESET, 4096, 3072, 0},
+                {CommandLog.DOWN, 0, 0, 0},
+                {CommandLog.MOVE, Integer.MAX_VALUE, Integer.MIN_VALUE, 0},
+                {CommandLog.UP, -5, 70000, 0},
+                {CommandLog.INK, 0, 0, 0x00000000},
+                {CommandLog.INK, 0, 0, 0xFFFFFFFF},
+                {CommandLog.PAPER, 0, 0, 0x80123456},
+                {CommandLog.ERASE, 0, 0, 0x80123456},
+        };
+        byte[] log = write(session);
+        assertRead(session, new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log))));
+    }
+
+    @Test
+    public void pens_roundTripOnlyWhenChanged() throws Exception
+    {
+        int stylus = PenState.pack(0.5f, 0.1f, PenState.TOOL_STYLUS);
+        int harder = PenState.pack(0.75f, 0.1f, PenState.TOOL_STYLUS);
+        int[][] session = {
+                {CommandLog.DOWN, 10, 10, stylus},
+                {CommandLog.MOVE, 12, 11, stylus},
+                {CommandLog.MOVE, 14, 12, harder},
+                {CommandLog.UP, 15, 12, harder},
+                {CommandLog.FILL, 40, 40, 0},
+        };
+        byte[] log = write(session);
+
+        //Header, then three bytes a point plus the pen when it changes,
+        //including back to none for the fill, and a byte of time for
+        //each stroke point
+        assertEquals(4 + 3 * 5 + 4 + 4 + 1 + 4, log.length);
+        CommandLog.Reader reader = new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log)));
+        for (int[] c : session)
+        {
+            assertTrue(reader.next());
+            assertEquals(c[3], reader.getPen());
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void versionOne_readsWithoutPens() throws Exception
+    {
+        byte[] log = {'C', 'V', 'L', 1, (byte) (CommandLog.DOWN << 1), 20, 40, (byte) (CommandLog.MOVE << 1), 2, 1};
+        CommandLog.Reader reader = new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log)));
+        assertTrue(reader.next());
+        assertEquals(10, reader.getX());
+        assertEquals(20, reader.getY());
+        assertEquals(PenState.NONE, reader.getPen());
+        assertTrue(reader.next());
+        assertEquals(11, reader.getX());
+        assertEquals(19, reader.getY());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void times_roundTripExactly() throws Exception
+    {
+        long milli = 1000000L;
+        long down = 987654321 * milli;
+        long[] times = {down, down + 16 * milli, down + 24 * milli + 123457, down + 20 * milli, down + 36 * milli, 0};
+        int[] types = {CommandLog.DOWN, CommandLog.MOVE, CommandLog.MOVE, CommandLog.MOVE, CommandLog.UP, CommandLog.FILL};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CommandLog.Writer writer = new CommandLog.Writer(Channels.newChannel(bytes));
+        for (int i = 0; i < times.length; i++)
+        {
+            writer.write(types[i], 10 + i, 10, 0, times[i]);
+        }
+        writer.flush();
+
+        //Swapping the three byte fill for a MOVE a frame after the UP
+        //costs four bytes
+        byte[] small = bytes.toByteArray();
+        bytes.reset();
+        writer = new CommandLog.Writer(Channels.newChannel(bytes));
+        for (int i = 0; i < times.length - 1; i++)
+        {
+            writer.write(types[i], 10 + i, 10, 0, times[i]);
+        }
+        writer.write(CommandLog.MOVE, 16, 10, 0, down + 52 * milli);
+        writer.flush();
+        assertEquals(small.length - 3 + 4, bytes.size());
+
+        CommandLog.Reader reader = new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(small)));
+        for (long time : times)
+        {
+            assertTrue(reader.next());
+            assertEquals(time, reader.getTime());
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void versionTwo_readsWithoutTimes() throws Exception
+    {
+        byte[] log = {'C', 'V', 'L', 2, (byte) (CommandLog.DOWN << 1), 20, 40, (byte) (CommandLog.UP << 1), 2, 1};
+        CommandLog.Reader reader = new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log)));
+        assertTrue(reader.next());
+        assertEquals(0, reader.getTime());
+        assertTrue(reader.next());
+        assertEquals(11, reader.getX());
+        assertEquals(0, reader.getTime());
+        assertFalse(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagic_isRejected() throws Exception
+    {
+        new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(new byte[] {'P', 'K', 3, 4, 0})));
+    }
+
+    @Test
+    public void size_againstJavaSerialization() throws Exception
+    {
+        int[][] session = session(200000, 1);
+
+        byte[] log = write(session);
+        CommandLog.Reader reader = new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log)));
+        long checksum = 0;
+        while (reader.next())
+        {
+            checksum += reader.getX() + reader.getY() + reader.getColor();
+        }
+
+        List<SerialCommand> list = new ArrayList<SerialCommand>(session.length);
+        for (int[] c : session)
+        {
+            list.add(new SerialCommand(c[0], c[1], c[2], c[3]));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(list);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        @SuppressWarnings("unchecked")
+        List<SerialCommand> back = (List<SerialCommand>) in.readObject();
+        long serialChecksum = 0;
+        for (SerialCommand c : back)
+        {
+            serialChecksum += c.x + c.y + c.color;
+        }
+
+        assertEquals(serialChecksum, checksum);
+        assertTrue(log.length * 5 < bytes.size());
+    }
+
+    //Strokes of short moves with the odd ink change, fill and erase,
+    //roughly what a drawing session records
+    private static int[][] session(int count, long seed)
+    {
+        Random random = new Random(seed);
+        int[][] session = new int[count][];
+        int n = 0;
+        int paper = 0xFFFFFFFF;
+        session[n++] = new int[] {CommandLog.RESET, 1200, 1600, 0};
+        while (n < count)
+        {
+            int pick = random.nextInt(100);
+            if (pick < 3)
+            {
+                session[n++] = new int[] {CommandLog.INK, 0, 0, random.nextInt(4) == 0 ? 0xFF000000 : random.nextInt()};
+            }
+            else if (pick < 4)
+            {
+                session[n++] = new int[] {CommandLog.FILL, random.nextInt(1200), random.nextInt(1600), 0};
+            }
+            else if (pick == 4)
+            {
+                if (random.nextBoolean())
+                {
+                    paper = random.nextInt();
+                    session[n++] = new int[] {CommandLog.PAPER, 0, 0, paper};
+                }
+                else
+                {
+                    session[n++] = new int[] {CommandLog.ERASE, 0, 0, paper};
+                }
+            }
+            else
+            {
+                int x = random.nextInt(1200), y = random.nextInt(1600);
+                session[n++] = new int[] {CommandLog.DOWN, x, y, 0};
+                int moves = 10 + random.nextInt(60);
+                for (int i = 0; i < moves && n < count - 1; i++)
+                {
+                    x += random.nextInt(21) - 10;
+                    y += random.nextInt(21) - 10;
+                    session[n++] = new int[] {CommandLog.MOVE, x, y, 0};
+                }
+                if (n < count)
+                {
+                    session[n++] = new int[] {CommandLog.UP, x, y, 0};
+                }
+            }
+        }
+        return session;
+    }
+
+    private static byte[] write(int[][] session) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CommandLog.Writer writer = new CommandLog.Writer(Channels.newChannel(bytes));
+        for (int[] c : session)
+        {
+            writer.write(c[0], c[1], c[2], c[3]);
+        }
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void assertRead(int[][] session, CommandLog.Reader reader) throws IOException
+    {
+        for (int i = 0; i < session.length; i++)
+        {
+            int[] c = session[i];
+            assertTrue("command " + i, reader.next());
+            assertEquals("type of " + i, c[0], reader.getType());
+            if (c[0] == CommandLog.PAPER || c[0] == CommandLog.INK || c[0] == CommandLog.ERASE)
+            {
+                assertEquals("color of " + i, c[3], reader.getColor());
+            }
+            else
+            {
+                assertEquals("x of " + i, c[1], reader.getX());
+                assertEquals("y of " + i, c[2], reader.getY());
+            }
+        }
+        assertFalse(reader.next());
+    }
+
+    //What the command list would look like with plain serialization
+    private static class SerialCommand implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int type, x, y, color;
+
+        SerialCommand(int type, int x, int y, int color)
+        {
+            this.type  = type;
+            this.x     = x;
+            this.y     = y;
+            this.color = color;
+        }
+    }
+}
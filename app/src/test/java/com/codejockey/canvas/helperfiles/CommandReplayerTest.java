@@ -0,0 +1,291 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records strokes, seeks, draws and replays through the command replayer
+ * and compares pixels, and replays a recorded log. The target rasterizes
+ * strokes the way Drawing does, but it is the test's own; Drawing's
+ * drawing of each command is not covered here.
+ */
+public class CommandReplayerTest
+{
+    private static final int WIDTH = 200, HEIGHT = 150;
+    private static final int PAPER = 0xFFFFFFFF;
+
+    @Test
+    public void seekThenDraw_replaysAsShown() throws Exception
+    {
+        Raster raster = new Raster();
+        Random random = new Random(9);
+        for (int stroke = 0; stroke < 12; stroke++)
+        {
+            raster.stroke(random, 0xFF000000 + stroke);
+        }
+        int[] drawn = raster.pixels.clone();
+
+        //Back to the middle of stroke history and forward again
+        int middle = raster.commands.size() / 2;
+        raster.replayer.seek(middle);
+        assertTrue(raster.replayer.isSeeking());
+        assertFalse(Arrays.equals(drawn, raster.pixels));
+        raster.replayer.seek(raster.commands.size());
+        assertTrue(Arrays.equals(drawn, raster.pixels));
+
+        //Drawing after a seek drops the history past it
+        raster.replayer.seek(middle);
+        for (int stroke = 0; stroke < 4; stroke++)
+        {
+            raster.stroke(random, 0xFF0000FF + stroke);
+        }
+        assertFalse(raster.replayer.isSeeking());
+        int[] shown = raster.pixels.clone();
+
+        raster.replayer.replay(0);
+        assertTrue(Arrays.equals(shown, raster.pixels));
+        raster.replayer.seek(raster.commands.size());
+        assertTrue(Arrays.equals(shown, raster.pixels));
+
+        //And from scratch, without the checkpoints
+        Raster fresh = new Raster();
+        for (int i = 0; i < raster.commands.size(); i++)
+        {
+            fresh.commands.add(raster.commands.getType(i), raster.commands.getX(i), raster.commands.getY(i),
+                    raster.commands.getColor(i), raster.commands.getTime(i));
+        }
+        fresh.replayer.replay(0);
+        assertTrue(Arrays.equals(shown, fresh.pixels));
+    }
+
+    @Test
+    public void seek_startsFromNearestCheckpoint() throws Exception
+    {
+        Raster raster = new Raster();
+        Random random = new Random(10);
+        for (int stroke = 0; stroke < 12; stroke++)
+        {
+            raster.stroke(random, 0xFF000000);
+        }
+        raster.ran = 0;
+        raster.replayer.seek(raster.commands.size() - 1);
+        assertTrue(raster.ran > 0);
+        assertTrue(raster.ran < raster.commands.size() / 4);
+    }
+
+    @Test
+    public void replayOfLog_drawsIdenticalPixels() throws Exception
+    {
+        Raster raster = new Raster();
+        raster.load(log(1));
+        raster.replayer.replay(0);
+        int[] first = raster.pixels.clone();
+        raster.replayer.replay(0);
+        assertTrue(Arrays.equals(first, raster.pixels));
+        raster.replayer.seek(raster.commands.size());
+        assertTrue(Arrays.equals(first, raster.pixels));
+
+        //The widths do come from the recorded times
+        int inked = 0;
+        for (int pixel : first)
+        {
+            inked += pixel != PAPER ? 1 : 0;
+        }
+        assertTrue(inked > 1000);
+        Raster slow = new Raster();
+        slow.load(log(3));
+        slow.replayer.replay(0);
+        assertFalse(Arrays.equals(first, slow.pixels));
+    }
+
+    //Strokes at uneven sample intervals, some of them not whole millis,
+    //with the intervals stretched by slow
+    private static byte[] log(int slow) throws IOException
+    {
+        Random random = new Random(25);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CommandLog.Writer writer = new CommandLog.Writer(Channels.newChannel(bytes));
+        long time = 123456789L * 1000000L;
+        for (int stroke = 0; stroke < 20; stroke++)
+        {
+            int x = 20 + random.nextInt(WIDTH - 40), y = 20 + random.nextInt(HEIGHT - 40);
+            writer.write(CommandLog.DOWN, x, y, PenState.NONE, time);
+            int moves = 5 + random.nextInt(30);
+            for (int i = 0; i <= moves; i++)
+            {
+                time += slow * ((8 + random.nextInt(20)) * 1000000L + (random.nextInt(4) == 0 ? random.nextInt(1000000) : 0));
+                x = Math.max(0, Math.min(WIDTH, x + random.nextInt(21) - 10));
+                y = Math.max(0, Math.min(HEIGHT, y + random.nextInt(21) - 10));
+                writer.write(i < moves ? CommandLog.MOVE : CommandLog.UP, x, y, PenState.NONE, time);
+            }
+            time += 500 * 1000000L;
+        }
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    //A raster drawn by stroking recorded samples through the
+    //curve engine, checkpointed every few commands
+    private static class Raster implements CommandReplayer.Target
+    {
+        final CommandBuffer commands = new CommandBuffer(100);
+        final CheckpointStore checkpoints = new CheckpointStore(20, Long.MAX_VALUE);
+        final CommandReplayer replayer = new CommandReplayer(commands, checkpoints, this);
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        int ink;
+        int ran;
+        long time = 1000000000L;
+
+        final CurveEngine curve = new CurveEngine(new VelocityWidthModel(1, 8, 2, 40), 3);
+        final StrokeTessellator tessellator = new StrokeTessellator();
+        final float[] xs = new float[101], ys = new float[101], widths = new float[101];
+        boolean capped;
+
+        Raster()
+        {
+            Arrays.fill(pixels, PAPER);
+            checkpoint(0);
+        }
+
+        void load(byte[] log) throws IOException
+        {
+            commands.readFrom(new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log))));
+        }
+
+        //Records and draws a random stroke in this color, as Drawing does
+        //for touch events
+        void stroke(Random random, int color)
+        {
+            record(CommandBuffer.INK, 0, 0, color, 0);
+            int x = 20 + random.nextInt(WIDTH - 40), y = 20 + random.nextInt(HEIGHT - 40);
+            record(CommandBuffer.DOWN, x, y, PenState.NONE, time);
+            int moves = 5 + random.nextInt(20);
+            for (int i = 0; i <= moves; i++)
+            {
+                time += (8 + random.nextInt(20)) * 1000000L;
+                x = Math.max(0, Math.min(WIDTH, x + random.nextInt(21) - 10));
+                y = Math.max(0, Math.min(HEIGHT, y + random.nextInt(21) - 10));
+                record(i < moves ? CommandBuffer.MOVE : CommandBuffer.UP, x, y, PenState.NONE, time);
+            }
+            time += 300 * 1000000L;
+        }
+
+        void record(int type, int x, int y, int value, long at)
+        {
+            replayer.cut();
+            if (type == CommandBuffer.INK)
+            {
+                commands.addColor(type, value);
+            }
+            else
+            {
+                commands.addPoint(type, x, y, value, at);
+            }
+            CommandBuffer.Cursor cursor = commands.cursor();
+            cursor.seek(commands.size() - 1);
+            cursor.next();
+            run(cursor);
+            if (type != CommandBuffer.DOWN && type != CommandBuffer.MOVE)
+            {
+                checkpoint(commands.size());
+            }
+        }
+
+        public int restore(int index)
+        {
+            CheckpointStore.Checkpoint checkpoint = checkpoints.nearest(index);
+            if (checkpoint == null)
+            {
+                Arrays.fill(pixels, PAPER);
+                ink = 0;
+                return 0;
+            }
+            checkpoints.restore(checkpoint, pixels);
+            ink = checkpoint.ink;
+            return checkpoint.index;
+        }
+
+        public void checkpoint(int index)
+        {
+            if (checkpoints.isDue(index))
+            {
+                checkpoints.save(index, pixels, WIDTH, HEIGHT, PAPER, ink);
+            }
+        }
+
+        public void run(CommandBuffer.Cursor command)
+        {
+            ran++;
+            switch (command.getType())
+            {
+                case CommandBuffer.INK:
+                    ink = command.getColor();
+                    break;
+                case CommandBuffer.DOWN:
+                    curve.open(command.getX(), command.getY(), command.getTime(), command.getPen());
+                    capped = false;
+                    break;
+                case CommandBuffer.MOVE:
+                    plot(command, false);
+                    break;
+                case CommandBuffer.UP:
+                    plot(command, false);
+                    plot(command, false);
+                    plot(command, true);
+                    break;
+            }
+        }
+
+        private void plot(CommandBuffer.Cursor command, boolean closing)
+        {
+            curve.add(command.getX(), command.getY(), command.getTime(), command.getPen());
+            int points = curve.plot(curve.steps(0.5f, 8, 100));
+            for (int i = 0; i < points; i++)
+            {
+                xs[i] = curve.getX(i);
+                ys[i] = curve.getY(i);
+                widths[i] = curve.getWidth(i);
+            }
+            int vertices = tessellator.strip(xs, ys, widths, points, !capped, closing);
+            fillStrip(tessellator.getVertices(), vertices);
+            capped |= vertices > 0;
+        }
+
+        //Inks every pixel whose center is inside a triangle of the strip
+        private void fillStrip(float[] v, int vertices)
+        {
+            for (int i = 0; i + 2 < vertices; i++)
+            {
+                float ax = v[i * 2], ay = v[i * 2 + 1];
+                float bx = v[i * 2 + 2], by = v[i * 2 + 3];
+                float cx = v[i * 2 + 4], cy = v[i * 2 + 5];
+                int left   = Math.max(0, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+                int top    = Math.max(0, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+                int right  = Math.min(WIDTH - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+                int bottom = Math.min(HEIGHT - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+                for (int y = top; y <= bottom; y++)
+                {
+                    for (int x = left; x <= right; x++)
+                    {
+                        float px = x + 0.5f, py = y + 0.5f;
+                        float e0 = (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+                        float e1 = (cx - bx) * (py - by) - (cy - by) * (px - bx);
+                        float e2 = (ax - cx) * (py - cy) - (ay - cy) * (px - cx);
+                        if ((e0 >= 0 && e1 >= 0 && e2 >= 0) || (e0 <= 0 && e1 <= 0 && e2 <= 0))
+                        {
+                            pixels[y * WIDTH + x] = ink;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
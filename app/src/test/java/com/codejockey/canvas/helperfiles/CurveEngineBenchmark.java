@@ -0,0 +1,130 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times CurveEngine.plot against evaluating each step of the same spans
+ * by Horner's rule. Not a unit test; run its main() by hand.
+ *
+ * Both sides feed the same knots through CurveEngine.add, compute the
+ * span's coefficients once, fill point and width buffers for every step
+ * and sum every point, so they differ only in how points are sampled.
+ * Each side is warmed up first, then the two are timed in alternating
+ * rounds and the minimum and median round are reported.
+ */
+public class CurveEngineBenchmark
+{
+    private static final int STEPS  = 30;
+    private static final int SPANS  = 200000;
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 11;
+
+    private static final float[] xs     = new float[STEPS + 1];
+    private static final float[] ys     = new float[STEPS + 1];
+    private static final float[] widths = new float[STEPS + 1];
+    private static final int[]   knots  = new int[SPANS * 2];
+
+    private static double sink;
+
+    public static void main(String[] args)
+    {
+        Random random = new Random(7);
+        for (int i = 0; i < knots.length; i++)
+        {
+            knots[i] = random.nextInt(1000);
+        }
+
+        for (int round = 0; round < WARMUP; round++)
+        {
+            differenced();
+            evaluated();
+        }
+        long[] differenced = new long[ROUNDS];
+        long[] evaluated   = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            differenced[round] = differenced();
+            evaluated[round]   = evaluated();
+        }
+        Arrays.sort(differenced);
+        Arrays.sort(evaluated);
+
+        System.out.printf("%d spans of %d steps, %d rounds after %d warm-up:%n", SPANS, STEPS, ROUNDS, WARMUP);
+        System.out.printf("  forward differencing  min %.1f ms, median %.1f ms%n",
+                differenced[0] / 1e6, differenced[ROUNDS / 2] / 1e6);
+        System.out.printf("  Horner evaluation     min %.1f ms, median %.1f ms%n",
+                evaluated[0] / 1e6, evaluated[ROUNDS / 2] / 1e6);
+        System.out.printf("  (checksum %s)%n", sink != 0);
+    }
+
+    private static long differenced()
+    {
+        CurveEngine curve = new CurveEngine();
+        curve.open(0, 0);
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int span = 0; span < SPANS; span++)
+        {
+            curve.add(knots[span * 2], knots[span * 2 + 1]);
+            int points = curve.plot(STEPS);
+            for (int i = 0; i < points; i++)
+            {
+                sum += curve.getX(i) + curve.getY(i) + curve.getWidth(i);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += sum;
+        return elapsed;
+    }
+
+    private static long evaluated()
+    {
+        CurveEngine curve = new CurveEngine();
+        curve.open(0, 0);
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int span = 0; span < SPANS; span++)
+        {
+            curve.add(knots[span * 2], knots[span * 2 + 1]);
+            float k0 = curve.getKnotX(0), k1 = curve.getKnotX(1), k2 = curve.getKnotX(2), k3 = curve.getKnotX(3);
+            float a0 = (k0 + 4 * k1 + k2) / 6;
+            float a1 = (k2 - k0) / 2;
+            float a2 = (k0 - 2 * k1 + k2) / 2;
+            float a3 = (k3 - k0 + 3 * (k1 - k2)) / 6;
+            k0 = curve.getKnotY(0);
+            k1 = curve.getKnotY(1);
+            k2 = curve.getKnotY(2);
+            k3 = curve.getKnotY(3);
+            float b0 = (k0 + 4 * k1 + k2) / 6;
+            float b1 = (k2 - k0) / 2;
+            float b2 = (k0 - 2 * k1 + k2) / 2;
+            float b3 = (k3 - k0 + 3 * (k1 - k2)) / 6;
+            for (int step = 0; step <= STEPS; step++)
+            {
+                float t = (float) step / STEPS;
+                xs[step] = ((a3 * t + a2) * t + a1) * t + a0;
+                ys[step] = ((b3 * t + b2) * t + b1) * t + b0;
+            }
+
+            //The same width pass plot() makes, with no model to ease to
+            float width = curve.getWidth(), target = width, change = 0;
+            widths[0] = width;
+            for (int step = 1; step <= STEPS; step++)
+            {
+                if (xs[step] != xs[step - 1] || ys[step] != ys[step - 1])
+                {
+                    width = target > width ? Math.min(target, width + change) : Math.max(target, width - change);
+                }
+                widths[step] = width;
+            }
+            for (int i = 0; i <= STEPS; i++)
+            {
+                sum += xs[i] + ys[i] + widths[i];
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += sum;
+        return elapsed;
+    }
+}
@@ -0,0 +1,165 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the forward-differenced spans against the b-spline polynomial
+ * and that spans join up. Adaptive steps are measured against the fixed
+ * 30 steps Drawing used to take. Speed is timed by CurveEngineBenchmark;
+ * replays of a recorded log are compared in CommandReplayerTest.
+ */
+public class CurveEngineTest
+{
+    private static final int STEPS = 30;
+
+    @Test
+    public void plot_matchesPolynomial() throws Exception
+    {
+        Random random = new Random(21);
+        CurveEngine curve = new CurveEngine();
+        curve.open(500, 500);
+        float[] knots = new float[8];
+        for (int move = 0; move < 200; move++)
+        {
+            curve.add(random.nextInt(1000), random.nextInt(1000));
+            for (int i = 0; i < 4; i++)
+            {
+                knots[i * 2]     = curve.getKnotX(i);
+                knots[i * 2 + 1] = curve.getKnotY(i);
+            }
+            assertEquals(STEPS + 1, curve.plot(STEPS));
+            for (int step = 0; step <= STEPS; step++)
+            {
+                float t = (float) step / STEPS;
+                assertEquals(spline(knots, 0, t), curve.getX(step), 0.01f);
+                assertEquals(spline(knots, 1, t), curve.getY(step), 0.01f);
+            }
+        }
+    }
+
+    @Test
+    public void spans_joinEndToEnd() throws Exception
+    {
+        CurveEngine curve = new CurveEngine();
+        curve.open(10, 20);
+        curve.add(40, 20);
+        int points = curve.plot(STEPS);
+        assertEquals(10, curve.getX(0), 0);
+        assertEquals(20, curve.getY(0), 0);
+
+        int[] next = {70, 50, 70, 90, 30, 90, 30, 90, 30, 90};
+        for (int i = 0; i < next.length; i += 2)
+        {
+            float endX = curve.getX(points - 1);
+            float endY = curve.getY(points - 1);
+            curve.add(next[i], next[i + 1]);
+            points = curve.plot(STEPS);
+            assertEquals(endX, curve.getX(0), 0.001f);
+            assertEquals(endY, curve.getY(0), 0.001f);
+        }
+
+        //Closing repeats the last knot three times, ending on it
+        assertEquals(30, curve.getX(points - 1), 0.001f);
+        assertEquals(90, curve.getY(points - 1), 0.001f);
+    }
+
+    @Test
+    public void adaptiveSteps_fewerLinesWithinTolerance() throws Exception
+    {
+        float tolerance = 0.5f;
+        CurveEngine curve = new CurveEngine();
+        Random random = new Random(22);
+        float[] fixedX = new float[STEPS + 1];
+        float[] fixedY = new float[STEPS + 1];
+        long fixedLines = 0, adaptiveLines = 0;
+        double maxDeviation = 0;
+
+        //Arcs of varying radius and speed, with a pixel of jitter
+        for (int stroke = 0; stroke < 200; stroke++)
+        {
+            double cx = 200 + random.nextInt(800), cy = 200 + random.nextInt(1200);
+            double radius = 20 + random.nextInt(300);
+            double angle = random.nextDouble() * Math.PI * 2;
+            double speed = (1 + random.nextInt(40)) / radius * (random.nextBoolean() ? 1 : -1);
+            int samples = 10 + random.nextInt(40);
+            curve.open((float) (cx + radius * Math.cos(angle)), (float) (cy + radius * Math.sin(angle)));
+            for (int i = 1; i < samples + 3; i++)
+            {
+                if (i < samples)
+                {
+                    angle += speed;
+                }
+                curve.add(Math.round(cx + radius * Math.cos(angle)) + random.nextInt(3) - 1,
+                        Math.round(cy + radius * Math.sin(angle)) + random.nextInt(3) - 1);
+
+                curve.plot(STEPS);
+                for (int step = 0; step <= STEPS; step++)
+                {
+                    fixedX[step] = curve.getX(step);
+                    fixedY[step] = curve.getY(step);
+                }
+                fixedLines += lines(fixedX, fixedY, STEPS + 1);
+
+                int points = curve.plot(curve.steps(tolerance, 8, 100));
+                float[] xs = new float[points], ys = new float[points];
+                for (int point = 0; point < points; point++)
+                {
+                    xs[point] = curve.getX(point);
+                    ys[point] = curve.getY(point);
+                }
+                adaptiveLines += lines(xs, ys, points);
+                for (int step = 0; step <= STEPS; step++)
+                {
+                    maxDeviation = Math.max(maxDeviation, distance(fixedX[step], fixedY[step], xs, ys));
+                }
+            }
+        }
+
+        assertTrue(adaptiveLines < fixedLines / 2);
+        assertTrue(maxDeviation <= tolerance);
+    }
+
+    //Lines Drawing would draw for a span: one per step that moves
+    private static int lines(float[] xs, float[] ys, int count)
+    {
+        int lines = 0;
+        for (int i = 1; i < count; i++)
+        {
+            if (xs[i] != xs[i - 1] || ys[i] != ys[i - 1])
+            {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    //Distance from a point to the nearest of a polyline's lines
+    private static double distance(float x, float y, float[] xs, float[] ys)
+    {
+        double nearest = Math.hypot(x - xs[0], y - ys[0]);
+        for (int i = 1; i < xs.length; i++)
+        {
+            double sx = xs[i] - xs[i - 1], sy = ys[i] - ys[i - 1];
+            double dx = x - xs[i - 1], dy = y - ys[i - 1];
+            double length = sx * sx + sy * sy;
+            double t = length == 0 ? 0 : Math.max(0, Math.min(1, (dx * sx + dy * sy) / length));
+            nearest = Math.min(nearest, Math.hypot(dx - t * sx, dy - t * sy));
+        }
+        return nearest;
+    }
+
+    //The cubic at t, by Horner's rule, for axis 0 (x) or 1 (y)
+    private static float spline(float[] knots, int axis, float t)
+    {
+        float k0 = knots[axis], k1 = knots[2 + axis], k2 = knots[4 + axis], k3 = knots[6 + axis];
+        float a0 = (k0 + 4 * k1 + k2) / 6;
+        float a1 = (k2 - k0) / 2;
+        float a2 = (k0 - 2 * k1 + k2) / 2;
+        float a3 = (k3 - k0 + 3 * (k1 - k2)) / 6;
+        return ((a3 * t + a2) * t + a1) * t + a0;
+    }
+}
@@ -0,0 +1,179 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the gap-closing fill stays inside outlines with small breaks,
+ * still reaches the strokes, and gives up on fills that leak.
+ */
+public class GapClosingFloodFillerTest
+{
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int GREY  = 0xFFB0B0B0;
+    private static final int INK   = 0xFF3366CC;
+
+    private static final int SIZE = 100;
+
+    @Test
+    public void ringWithSmallGap_staysInside() throws Exception
+    {
+        int[] image = ring(3);
+        GapClosingFloodFiller filler = filler(image, 4, 1.0f);
+
+        assertTrue(filler.floodFill(50, 50));
+        assertEquals(WHITE, image[0]);
+        assertEquals(WHITE, image[5 * SIZE + 50]);
+        //Filled right up to the anti-aliased fringe, corners included
+        assertEquals(INK, image[23 * SIZE + 23]);
+        assertEquals(INK, image[76 * SIZE + 76]);
+        assertEquals(INK, image[50 * SIZE + 23]);
+        assertEquals(GREY, image[50 * SIZE + 22]);
+    }
+
+    @Test
+    public void ringWithSmallGap_leaksWithoutGapClosing() throws Exception
+    {
+        int[] image = ring(3);
+        GapClosingFloodFiller filler = filler(image, 0, 1.0f);
+
+        assertTrue(filler.floodFill(50, 50));
+        assertEquals(INK, image[0]);
+    }
+
+    @Test
+    public void wideGap_leakIsDroppedAndPixelsUntouched() throws Exception
+    {
+        int[] image = ring(20);
+        int[] before = image.clone();
+        GapClosingFloodFiller filler = filler(image, 4, 0.5f);
+
+        assertFalse(filler.floodFill(50, 50));
+        assertArrayEquals(before, image);
+    }
+
+    @Test
+    public void leakPastLimitAfterGrowingBack_isDropped() throws Exception
+    {
+        //Inside the ring is 54 pixels square; closing 2 pixels off each
+        //side leaves 50 square to fill before growing back
+        int[] image = ring(0);
+        int[] before = image.clone();
+        assertFalse(filler(image, 4, 0.27f).floodFill(50, 50));
+        assertArrayEquals(before, image);
+
+        GapClosingFloodFiller filler = filler(image, 4, 0.30f);
+        assertTrue(filler.floodFill(50, 50));
+        assertEquals(54 * 54, filler.getFilledCount());
+    }
+
+    @Test
+    public void source_readsOnlyBandsTheFillReaches() throws Exception
+    {
+        //The ring on top of a canvas four times as tall
+        final int[] tall = new int[SIZE * SIZE * 4];
+        Arrays.fill(tall, WHITE);
+        System.arraycopy(ring(3), 0, tall, 0, SIZE * SIZE);
+        int[] expected = tall.clone();
+        GapClosingFloodFiller reference = new GapClosingFloodFiller(expected, SIZE, SIZE * 4);
+        reference.setTargetColor(WHITE);
+        reference.setTolerance(25);
+        reference.setFillColor(INK);
+        reference.setMaxGap(4);
+        assertTrue(reference.floodFill(50, 50));
+
+        final int[] rowsRead = new int[1];
+        GapClosingFloodFiller filler = new GapClosingFloodFiller(new int[tall.length], SIZE, SIZE * 4);
+        filler.setSource(new ScanlineFloodFiller.PixelSource()
+        {
+            public void readPixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+            {
+                rowsRead[0] += h;
+                for (int row = 0; row < h; row++)
+                {
+                    System.arraycopy(tall, (y + row) * SIZE + x, pixels, offset + row * stride, w);
+                }
+            }
+
+            public void writePixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+            {
+                for (int row = 0; row < h; row++)
+                {
+                    System.arraycopy(pixels, offset + row * stride, tall, (y + row) * SIZE + x, w);
+                }
+            }
+        });
+        filler.setTargetColor(WHITE);
+        filler.setTolerance(25);
+        filler.setFillColor(INK);
+        filler.setMaxGap(4);
+        assertTrue(filler.floodFill(50, 50));
+
+        assertArrayEquals(expected, tall);
+        assertTrue(rowsRead[0] <= 4 * 32);
+    }
+
+    @Test
+    public void closedShape_matchesScanlineFill() throws Exception
+    {
+        int[] expected = ring(0);
+        ScanlineFloodFiller reference = new ScanlineFloodFiller(expected, SIZE, SIZE, WHITE, INK);
+        reference.setTolerance(25);
+        reference.floodFill(50, 50);
+
+        int[] actual = ring(0);
+        GapClosingFloodFiller filler = filler(actual, 4, 1.0f);
+        assertTrue(filler.floodFill(50, 50));
+
+        assertArrayEquals(expected, actual);
+        assertEquals(23, filler.getDirtyLeft());
+        assertEquals(76, filler.getDirtyBottom());
+    }
+
+    private static GapClosingFloodFiller filler(int[] image, int gap, float fraction)
+    {
+        GapClosingFloodFiller filler = new GapClosingFloodFiller(image, SIZE, SIZE);
+        filler.setTargetColor(WHITE);
+        filler.setTolerance(25);
+        filler.setFillColor(INK);
+        filler.setMaxGap(gap);
+        filler.setMaxFillFraction(fraction);
+        return filler;
+    }
+
+    //Square outline from 20 to 79, two pixels of black with a pale grey
+    //fringe either side, broken at the top by a gap of the given width
+    private static int[] ring(int gap)
+    {
+        int[] image = new int[SIZE * SIZE];
+        Arrays.fill(image, WHITE);
+        outline(image, 19, 80, GREY);
+        outline(image, 20, 79, BLACK);
+        outline(image, 21, 78, BLACK);
+        outline(image, 22, 77, GREY);
+
+        for (int y = 19; y <= 22; y++)
+        {
+            for (int x = 50; x < 50 + gap; x++)
+            {
+                image[y * SIZE + x] = WHITE;
+            }
+        }
+        return image;
+    }
+
+    private static void outline(int[] image, int lo, int hi, int color)
+    {
+        for (int i = lo; i <= hi; i++)
+        {
+            image[lo * SIZE + i] = color;
+            image[hi * SIZE + i] = color;
+            image[i * SIZE + lo] = color;
+            image[i * SIZE + hi] = color;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks level gating, timer percentiles and the trace dump.
+ */
+public class MetricsTest
+{
+    @Before
+    public void setUp() throws Exception
+    {
+        Metrics.setLevel(Metrics.LEVEL_COUNTERS);
+        Metrics.reset();
+    }
+
+    @Test
+    public void levels_gateRecording() throws Exception
+    {
+        Metrics.setLevel(Metrics.LEVEL_OFF);
+        Metrics.PAINT_ALLOCATIONS.increment();
+        Metrics.FRAME.record(1000);
+        assertEquals(0, Metrics.FRAME.start());
+        assertEquals(0, Metrics.PAINT_ALLOCATIONS.get());
+        assertEquals(0, Metrics.FRAME.getCount());
+
+        Metrics.setLevel(Metrics.LEVEL_COUNTERS);
+        Metrics.PAINT_ALLOCATIONS.increment();
+        Metrics.PATHS.set(42);
+        Metrics.trace("not kept", 1);
+        assertEquals(1, Metrics.PAINT_ALLOCATIONS.get());
+        assertEquals(42, Metrics.PATHS.get());
+        assertFalse(Metrics.dump().contains("not kept"));
+
+        Metrics.setLevel(Metrics.LEVEL_TRACE);
+        Metrics.trace("kept", 2.5);
+        assertTrue(Metrics.dump().contains("kept 2.5"));
+    }
+
+    @Test
+    public void timer_percentilesOverRecentSamples() throws Exception
+    {
+        for (int i = 1; i <= 100; i++)
+        {
+            Metrics.FRAME.record(i * 1000000L);
+        }
+        assertEquals(100, Metrics.FRAME.getCount());
+        assertEquals(50000000L, Metrics.FRAME.getPercentile(50));
+        assertEquals(99000000L, Metrics.FRAME.getPercentile(99));
+        assertEquals(100000000L, Metrics.FRAME.getPercentile(100));
+        assertTrue(Metrics.dump().contains("frame: 100 samples, p50 50.00 ms"));
+
+        //Old samples roll off once the window is full
+        for (int i = 0; i < 1000; i++)
+        {
+            Metrics.FRAME.record(5);
+        }
+        assertEquals(5, Metrics.FRAME.getPercentile(100));
+        assertEquals(1100, Metrics.FRAME.getTotal());
+    }
+
+    @Test
+    public void traceRing_keepsLatestEventsInOrder() throws Exception
+    {
+        Metrics.setLevel(Metrics.LEVEL_TRACE);
+        for (int i = 0; i < 300; i++)
+        {
+            Metrics.trace("event", i);
+        }
+        String dump = Metrics.dump();
+        assertFalse(dump.contains("event 43.0\n"));
+        assertTrue(dump.contains("event 44.0\n"));
+        assertTrue(dump.indexOf("event 100.0\n") < dump.indexOf("event 299.0\n"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks predictions on straight, accelerating and turning strokes.
+ */
+public class MotionPredictorTest
+{
+    @Test
+    public void straightLine_isExtendedExactly() throws Exception
+    {
+        MotionPredictor predictor = new MotionPredictor();
+        float[] out = new float[4];
+        predictor.add(10, 20);
+        assertEquals(0, predictor.predict(2, out));
+
+        predictor.add(14, 23);
+        predictor.add(18, 26);
+        assertEquals(2, predictor.predict(2, out));
+        assertArrayEquals(new float[] {22, 29, 26, 32}, out, 1e-4f);
+    }
+
+    @Test
+    public void standingStill_predictsNothing() throws Exception
+    {
+        MotionPredictor predictor = new MotionPredictor();
+        float[] out = new float[4];
+        predictor.add(5, 5);
+        predictor.add(5, 5);
+        predictor.add(5, 5);
+        assertEquals(0, predictor.predict(2, out));
+    }
+
+    @Test
+    public void acceleration_isFollowedButCapped() throws Exception
+    {
+        MotionPredictor predictor = new MotionPredictor();
+        float[] out = new float[4];
+
+        //Steps of 2 then 4: half the change carries on, 4 + 1 = 5
+        predictor.add(0, 0);
+        predictor.add(2, 0);
+        predictor.add(6, 0);
+        predictor.predict(1, out);
+        assertEquals(11, out[0], 1e-4f);
+
+        //A sharp turn can't fling the prediction further than 1.5 steps
+        predictor.reset();
+        predictor.add(0, 0);
+        predictor.add(0, 10);
+        predictor.add(10, 10);
+        predictor.predict(2, out);
+        float step1 = (float) Math.hypot(out[0] - 10, out[1] - 10);
+        float step2 = (float) Math.hypot(out[2] - out[0], out[3] - out[1]);
+        assertTrue(step1 <= 15.001f);
+        assertTrue(step2 <= 15.001f);
+    }
+}
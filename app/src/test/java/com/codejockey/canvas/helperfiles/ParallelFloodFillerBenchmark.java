@@ -0,0 +1,133 @@
+package com.codejockey.canvas.helperfiles;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times ParallelFloodFiller against QueueLinearFloodFiller and
+ * ScanlineFloodFiller on a 3840x2160 canvas. Not a unit test; run its
+ * main() by hand.
+ *
+ * Every filler fills the background of the same image of scattered bars
+ * from the same corner, into a copy made before its clock starts. Each is
+ * warmed up first, then the three are timed in alternating rounds and the
+ * minimum and median round are reported, with the speedup of the median
+ * parallel fill over the other two. The results are compared once, so a
+ * fast but wrong fill doesn't pass unnoticed.
+ */
+public class ParallelFloodFillerBenchmark
+{
+    private static final int WIDTH  = 3840;
+    private static final int HEIGHT = 2160;
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 11;
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int INK   = 0xFF3366CC;
+
+    private static final int[] image = new int[WIDTH * HEIGHT];
+    private static final int[] work  = new int[WIDTH * HEIGHT];
+
+    public static void main(String[] args)
+    {
+        Arrays.fill(image, WHITE);
+        Random random = new Random(1);
+        for (int i = 0; i < 400; i++)
+        {
+            int x = random.nextInt(WIDTH - 200), y = random.nextInt(HEIGHT - 200);
+            int w = 20 + random.nextInt(180), h = 20 + random.nextInt(180);
+            for (int dx = 0; dx < w; dx++)
+            {
+                image[y * WIDTH + x + dx] = BLACK;
+                image[(y + h) * WIDTH + x + dx] = BLACK;
+            }
+        }
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ParallelFloodFiller parallel = new ParallelFloodFiller(threads);
+        ScanlineFloodFiller scanline = new ScanlineFloodFiller(new int[0], 0, 0);
+        try
+        {
+            for (int round = 0; round < WARMUP; round++)
+            {
+                queue();
+                scanline(scanline);
+                parallel(parallel);
+            }
+            long[] queueTimes    = new long[ROUNDS];
+            long[] scanlineTimes = new long[ROUNDS];
+            long[] parallelTimes = new long[ROUNDS];
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                queueTimes[round]    = queue();
+                scanlineTimes[round] = scanline(scanline);
+                parallelTimes[round] = parallel(parallel);
+            }
+            Arrays.sort(queueTimes);
+            Arrays.sort(scanlineTimes);
+            Arrays.sort(parallelTimes);
+
+            queue();
+            int[] expected = work.clone();
+            scanline(scanline);
+            boolean same = Arrays.equals(expected, work);
+            parallel(parallel);
+            same &= Arrays.equals(expected, work);
+
+            System.out.printf("%dx%d background fill, %d rounds after %d warm-up, %d threads:%n",
+                    WIDTH, HEIGHT, ROUNDS, WARMUP, threads);
+            report("queue   ", queueTimes);
+            report("scanline", scanlineTimes);
+            report("parallel", parallelTimes);
+            System.out.printf("  parallel speedup %.2fx over queue, %.2fx over scanline (fills %s)%n",
+                    (double) queueTimes[ROUNDS / 2] / parallelTimes[ROUNDS / 2],
+                    (double) scanlineTimes[ROUNDS / 2] / parallelTimes[ROUNDS / 2],
+                    same ? "identical" : "DIFFER");
+        }
+        finally
+        {
+            parallel.shutdown();
+        }
+    }
+
+    private static long queue()
+    {
+        System.arraycopy(image, 0, work, 0, work.length);
+        QueueLinearFloodFiller filler = new QueueLinearFloodFiller(work, WIDTH, HEIGHT, WHITE, INK);
+        filler.setTolerance(25);
+        long start = System.nanoTime();
+        filler.floodFill(0, 0);
+        return System.nanoTime() - start;
+    }
+
+    private static long scanline(ScanlineFloodFiller filler)
+    {
+        System.arraycopy(image, 0, work, 0, work.length);
+        filler.usePixels(work, WIDTH, HEIGHT);
+        filler.setTargetColor(WHITE);
+        filler.setFillColor(INK);
+        filler.setTolerance(25);
+        long start = System.nanoTime();
+        filler.floodFill(0, 0);
+        return System.nanoTime() - start;
+    }
+
+    private static long parallel(ParallelFloodFiller filler)
+    {
+        System.arraycopy(image, 0, work, 0, work.length);
+        filler.usePixels(work, WIDTH, HEIGHT);
+        filler.setTargetColor(WHITE);
+        filler.setFillColor(INK);
+        filler.setTolerance(25);
+        long start = System.nanoTime();
+        filler.floodFill(0, 0);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long[] rounds)
+    {
+        System.out.printf("  %s  min %.1f ms, median %.1f ms%n",
+                name, rounds[0] / 1e6, rounds[ROUNDS / 2] / 1e6);
+    }
+}
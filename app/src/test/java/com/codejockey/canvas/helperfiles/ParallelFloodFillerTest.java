@@ -0,0 +1,128 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the banded parallel fill matches the sequential fillers,
+ * up to a 4K canvas.
+ */
+public class ParallelFloodFillerTest
+{
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int INK   = 0xFF3366CC;
+
+    @Test
+    public void serpentineAcrossBands_matchesQueueFiller() throws Exception
+    {
+        //Horizontal walls with alternating gaps force the fill to cross
+        //every band boundary many times, in both directions
+        int width = 257, height = 301;
+        int[] image = blank(width, height, WHITE);
+        for (int y = 3; y < height - 3; y += 6)
+        {
+            boolean gapOnLeft = (y / 6) % 2 == 0;
+            for (int x = 0; x < width; x++)
+            {
+                if ((gapOnLeft && x > 4) || (!gapOnLeft && x < width - 5))
+                {
+                    image[y * width + x] = BLACK;
+                }
+            }
+        }
+        for (int threads : new int[] {1, 2, 3, 8, 64})
+        {
+            assertSameFill(image, width, height, 0, 0, 25, threads);
+            assertSameFill(image, width, height, 128, 150, 25, threads);
+        }
+    }
+
+    @Test
+    public void noisyImage_matchesQueueFiller() throws Exception
+    {
+        int width = 200, height = 180;
+        int[] image = new int[width * height];
+        Random random = new Random(7);
+        for (int i = 0; i < image.length; i++)
+        {
+            image[i] = random.nextInt(3) == 0 ? BLACK : WHITE - random.nextInt(40);
+        }
+        image[90 * width + 100] = WHITE;
+        for (int threads : new int[] {2, 4, 7})
+        {
+            assertSameFill(image, width, height, 100, 90, 25, threads);
+        }
+    }
+
+    @Test
+    public void canvas4k_matchesQueueFiller() throws Exception
+    {
+        int width = 3840, height = 2160;
+        int[] image = blank(width, height, WHITE);
+
+        //A few closed shapes and stray strokes so the fill has real edges
+        Random random = new Random(1);
+        for (int i = 0; i < 400; i++)
+        {
+            int x = random.nextInt(width - 200), y = random.nextInt(height - 200);
+            int w = 20 + random.nextInt(180), h = 20 + random.nextInt(180);
+            for (int dx = 0; dx < w; dx++)
+            {
+                image[y * width + x + dx] = BLACK;
+                image[(y + h) * width + x + dx] = BLACK;
+            }
+        }
+        assertSameFill(image, width, height, 0, 0, 25, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        int[] expected = image.clone();
+        QueueLinearFloodFiller reference = new QueueLinearFloodFiller(expected, width, height, WHITE, INK);
+        reference.setTolerance(25);
+        reference.floodFill(0, 0);
+        int[] sequential = image.clone();
+        ScanlineFloodFiller scanline = new ScanlineFloodFiller(sequential, width, height);
+        scanline.setTargetColor(WHITE);
+        scanline.setFillColor(INK);
+        scanline.setTolerance(25);
+        scanline.floodFill(0, 0);
+        assertArrayEquals(expected, sequential);
+    }
+
+    private static void assertSameFill(int[] image, int width, int height, int x, int y, int tolerance, int threads)
+    {
+        int target = image[y * width + x];
+
+        int[] expected = image.clone();
+        QueueLinearFloodFiller reference = new QueueLinearFloodFiller(expected, width, height, target, INK);
+        reference.setTolerance(tolerance);
+        reference.floodFill(x, y);
+
+        int[] actual = image.clone();
+        ParallelFloodFiller filler = new ParallelFloodFiller(threads);
+        try
+        {
+            filler.usePixels(actual, width, height);
+            filler.setTargetColor(target);
+            filler.setFillColor(INK);
+            filler.setTolerance(tolerance);
+            filler.floodFill(x, y);
+        }
+        finally
+        {
+            filler.shutdown();
+        }
+
+        assertArrayEquals("fill from " + x + "," + y + " on " + threads + " threads", expected, actual);
+    }
+
+    private static int[] blank(int width, int height, int color)
+    {
+        int[] image = new int[width * height];
+        Arrays.fill(image, color);
+        return image;
+    }
+}
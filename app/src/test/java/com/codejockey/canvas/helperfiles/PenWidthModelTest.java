@@ -0,0 +1,61 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks widths follow stylus pressure and finger size, fall back on speed
+ * when the pen is unknown, and that PenState packs what it is given.
+ */
+public class PenWidthModelTest
+{
+    private static final long MILLI = 1000000L;
+
+    @Test
+    public void penState_roundTrips() throws Exception
+    {
+        int pen = PenState.pack(0.25f, 0.5f, PenState.TOOL_STYLUS);
+        assertTrue(PenState.isKnown(pen));
+        assertEquals(0.25f, PenState.getPressure(pen), 0.001f);
+        assertEquals(0.5f, PenState.getSize(pen), 0.001f);
+        assertEquals(PenState.TOOL_STYLUS, PenState.getTool(pen));
+
+        //Out of range values are clamped
+        pen = PenState.pack(1.7f, -1, PenState.TOOL_ERASER);
+        assertEquals(1, PenState.getPressure(pen), 0);
+        assertEquals(0, PenState.getSize(pen), 0);
+        assertEquals(PenState.TOOL_ERASER, PenState.getTool(pen));
+        assertFalse(PenState.isKnown(PenState.NONE));
+    }
+
+    @Test
+    public void stylus_widthFollowsPressure() throws Exception
+    {
+        PenWidthModel model = new PenWidthModel(new VelocityWidthModel(1, 8, 2, 40), 2, 12, 0.1f);
+        assertEquals(2, model.start(0, 0, 0, PenState.pack(0, 0, PenState.TOOL_STYLUS)), 0.001f);
+        assertEquals(7, model.sample(100, 0, 10 * MILLI, PenState.pack(0.5f, 0, PenState.TOOL_STYLUS)), 0.01f);
+        assertEquals(12, model.sample(100, 0, 20 * MILLI, PenState.pack(1, 0, PenState.TOOL_STYLUS)), 0.001f);
+    }
+
+    @Test
+    public void finger_scalesSpeedWidthBySize() throws Exception
+    {
+        VelocityWidthModel speed = new VelocityWidthModel(1, 8, 2, 40);
+        PenWidthModel model = new PenWidthModel(new VelocityWidthModel(1, 8, 2, 40), 2, 12, 0.1f);
+        speed.start(0, 0, 0, PenState.NONE);
+        model.start(0, 0, 0, PenState.NONE);
+
+        //Sizes are kept to 1/1023, so scale by the size as packed
+        int pen = PenState.pack(0.8f, 0.15f, PenState.TOOL_FINGER);
+        float plain = speed.sample(10, 0, 16 * MILLI, PenState.NONE);
+        assertEquals(plain * PenState.getSize(pen) / 0.1f, model.sample(10, 0, 16 * MILLI, pen), 0.001f);
+
+        plain = speed.sample(20, 0, 32 * MILLI, PenState.NONE);
+        assertEquals(plain * 2, model.sample(20, 0, 32 * MILLI,
+                PenState.pack(0.8f, 0.9f, PenState.TOOL_FINGER)), 0.01f);
+
+        plain = speed.sample(30, 0, 48 * MILLI, PenState.NONE);
+        assertEquals(plain, model.sample(30, 0, 48 * MILLI, PenState.NONE), 0);
+    }
+}
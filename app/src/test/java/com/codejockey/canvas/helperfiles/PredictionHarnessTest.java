@@ -0,0 +1,72 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a recorded log of curved strokes through the prediction harness
+ * and checks prediction error against drawing no tail at all.
+ */
+public class PredictionHarnessTest
+{
+    private static final long SAMPLE_NANOS = 16000000L;
+
+    @Test
+    public void curvedStrokes_predictionBeatsNoTail() throws Exception
+    {
+        byte[] log = strokes(200, 7);
+
+        for (int steps = 1; steps <= 2; steps++)
+        {
+            PredictionHarness harness = new PredictionHarness(steps);
+            harness.run(new CommandLog.Reader(Channels.newChannel(new ByteArrayInputStream(log))));
+
+            assertTrue(harness.getPredictions() > 1000);
+            assertTrue(harness.getMeanError() < harness.getMeanBaselineError() / 2);
+            assertTrue(harness.getLatencySaved(SAMPLE_NANOS) > steps * SAMPLE_NANOS / 2);
+        }
+    }
+
+    @Test
+    public void emptyLog_savesNothing() throws Exception
+    {
+        PredictionHarness harness = new PredictionHarness(1);
+        harness.run(new CommandBuffer(4));
+        assertEquals(0, harness.getPredictions());
+        assertEquals(0, harness.getLatencySaved(SAMPLE_NANOS));
+    }
+
+    //Log of strokes along arcs of varying radius and speed, sampled with
+    //a pixel of jitter the way a touch screen reports them
+    private static byte[] strokes(int count, long seed) throws Exception
+    {
+        Random random = new Random(seed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CommandLog.Writer writer = new CommandLog.Writer(Channels.newChannel(bytes));
+        writer.write(CommandLog.RESET, 1200, 1600, 0);
+        for (int stroke = 0; stroke < count; stroke++)
+        {
+            double cx = 200 + random.nextInt(800), cy = 200 + random.nextInt(1200);
+            double radius = 50 + random.nextInt(300);
+            double angle = random.nextDouble() * Math.PI * 2;
+            double speed = (4 + random.nextInt(20)) / radius * (random.nextBoolean() ? 1 : -1);
+            int samples = 10 + random.nextInt(40);
+            for (int i = 0; i < samples; i++)
+            {
+                int type = i == 0 ? CommandLog.DOWN : i == samples - 1 ? CommandLog.UP : CommandLog.MOVE;
+                int x = (int) Math.round(cx + radius * Math.cos(angle)) + random.nextInt(3) - 1;
+                int y = (int) Math.round(cy + radius * Math.sin(angle)) + random.nextInt(3) - 1;
+                writer.write(type, x, y, 0);
+                angle += speed;
+            }
+        }
+        writer.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,69 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the replay pacer with a fake clock.
+ */
+public class ReplayPacerTest
+{
+    private static final long MS = 1000000L;
+
+    @Test
+    public void frames_cappedAtFrameRate() throws Exception
+    {
+        ReplayPacer pacer = new ReplayPacer(60, 0, 40 * MS);
+        pacer.start(0);
+
+        //A thousand commands in 100ms, one every 100us, as fast replay does
+        int frames = 0;
+        for (long now = 0; now < 100 * MS; now += MS / 10)
+        {
+            assertEquals(0, pacer.delayBefore(0, now));
+            if (pacer.isFrameDue(now))
+            {
+                pacer.framePublished(now);
+                frames++;
+            }
+        }
+        //First frame right away, then one per 16.7ms
+        assertEquals(6, frames);
+    }
+
+    @Test
+    public void speed_pacesCommandsToRecordedTimes() throws Exception
+    {
+        ReplayPacer pacer = new ReplayPacer(60, 2.0f, 40 * MS);
+        pacer.start(1000 * MS);
+
+        //Recorded 10ms, then 30ms apart; at 2x, 5ms and 20ms into the replay
+        assertEquals(0, pacer.delayBefore(5000 * MS, 1000 * MS));
+        assertEquals(5 * MS, pacer.delayBefore(5010 * MS, 1000 * MS));
+        assertEquals(15 * MS, pacer.delayBefore(5040 * MS, 1005 * MS));
+
+        //A minute's pause counts for one second, and untimed commands
+        //between strokes go with the stroke after them
+        assertEquals(0, pacer.delayBefore(0, 1020 * MS));
+        assertEquals(500 * MS, pacer.delayBefore(65040 * MS, 1020 * MS));
+
+        pacer.setSpeed(0);
+        assertEquals(0, pacer.delayBefore(99000 * MS, 1000 * MS));
+    }
+
+    @Test
+    public void untimedCommands_pacedToSampleInterval() throws Exception
+    {
+        ReplayPacer pacer = new ReplayPacer(60, 2.0f, 40 * MS);
+        pacer.start(1000 * MS);
+
+        //A log without times, at 2x, runs a command every 20ms
+        assertEquals(0, pacer.delayBefore(0, 1000 * MS));
+        for (int done = 1; done < 10; done++)
+        {
+            pacer.delayBefore(0, 1000 * MS);
+        }
+        assertEquals(150 * MS, pacer.delayBefore(0, 1050 * MS));
+    }
+}
@@ -0,0 +1,245 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ScanlineFloodFiller against QueueLinearFloodFiller, pixel for pixel,
+ * on synthetic shapes.
+ */
+public class ScanlineFloodFillerTest
+{
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int INK   = 0xFF3366CC;
+
+    @Test
+    public void rectangleOutline_matchesQueueFiller() throws Exception
+    {
+        int width = 120, height = 90;
+        int[] image = blank(width, height, WHITE);
+        rect(image, width, 10, 10, 100, 70, BLACK);
+
+        assertSameFill(image, width, height, 50, 40, 25);
+        assertSameFill(image, width, height, 2, 2, 25);
+    }
+
+    @Test
+    public void ringWithGap_matchesQueueFiller() throws Exception
+    {
+        int width = 200, height = 200;
+        int[] image = blank(width, height, WHITE);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int dx = x - 100, dy = y - 100;
+                int d2 = dx * dx + dy * dy;
+                if (d2 >= 60 * 60 && d2 <= 64 * 64 && !(dy > -3 && dy < 3 && dx > 0))
+                {
+                    image[y * width + x] = BLACK;
+                }
+            }
+        }
+        assertSameFill(image, width, height, 100, 100, 25);
+        assertSameFill(image, width, height, 0, 199, 25);
+    }
+
+    @Test
+    public void noisyImage_matchesQueueFillerWithTolerance() throws Exception
+    {
+        int width = 160, height = 120;
+        int[] image = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < image.length; i++)
+        {
+            int grey = 200 + random.nextInt(56);
+            image[i] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+            if (random.nextInt(7) == 0)
+            {
+                image[i] = BLACK;
+            }
+        }
+        for (int tolerance : new int[] {0, 10, 25, 60})
+        {
+            assertSameFill(image, width, height, 80, 60, tolerance);
+        }
+    }
+
+    @Test
+    public void serpentine_matchesQueueFiller() throws Exception
+    {
+        int width = 301, height = 301;
+        int[] image = blank(width, height, WHITE);
+        for (int x = 2; x < width - 2; x += 4)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                boolean gapAtTop = (x / 4) % 2 == 0;
+                if ((gapAtTop && y > 3) || (!gapAtTop && y < height - 4))
+                {
+                    image[y * width + x] = BLACK;
+                }
+            }
+        }
+        assertSameFill(image, width, height, 0, 150, 25);
+    }
+
+    @Test
+    public void dottedGrid_growsRangeBuffer() throws Exception
+    {
+        //Every odd row splits into single pixel ranges, so hundreds of ranges
+        //are queued at once and the ring buffer has to grow and wrap
+        int width = 301, height = 301;
+        int[] image = blank(width, height, WHITE);
+        for (int y = 1; y < height; y += 2)
+        {
+            for (int x = 1; x < width; x += 2)
+            {
+                image[y * width + x] = BLACK;
+            }
+        }
+        assertSameFill(image, width, height, 150, 150, 25);
+    }
+
+    @Test
+    public void blackTarget_usesSeedPixelLikeQueueFiller() throws Exception
+    {
+        int width = 64, height = 64;
+        int[] image = blank(width, height, BLACK);
+        rect(image, width, 16, 16, 48, 48, WHITE);
+
+        assertSameFill(image, width, height, 32, 32, 25);
+        assertSameFill(image, width, height, 20, 20, 25);
+    }
+
+    @Test
+    public void reusedFiller_clearsOnlyDirtyBoxBetweenFills() throws Exception
+    {
+        //One filler over one buffer, like Drawing does, against fresh reference fills
+        int width = 97, height = 83;
+        int[] image = blank(width, height, WHITE);
+        rect(image, width, 5, 5, 40, 30, BLACK);
+        rect(image, width, 50, 10, 90, 70, BLACK);
+        rect(image, width, 60, 20, 80, 60, BLACK);
+
+        int[] expected = image.clone();
+        int[] actual   = image.clone();
+        ScanlineFloodFiller filler = new ScanlineFloodFiller(actual, width, height);
+        filler.setTolerance(25);
+
+        int[][] seeds = { {20, 20}, {70, 40}, {55, 15}, {1, 1}, {20, 20}, {70, 40} };
+        int[] colors  = { INK, 0xFFCC0000, 0xFF00CC00, 0xFFFFFF00, WHITE, INK };
+
+        for (int i = 0; i < seeds.length; i++)
+        {
+            int x = seeds[i][0], y = seeds[i][1];
+
+            QueueLinearFloodFiller reference = new QueueLinearFloodFiller(expected, width, height, expected[y * width + x], colors[i]);
+            reference.setTolerance(25);
+            reference.floodFill(x, y);
+
+            filler.setTargetColor(actual[y * width + x]);
+            filler.setFillColor(colors[i]);
+            filler.floodFill(x, y);
+
+            assertArrayEquals("fill " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void pixelSource_readsBandsLazilyAndWritesDirtyBoxOnly() throws Exception
+    {
+        int width = 400, height = 600;
+        final int[] canvas = blank(width, height, WHITE);
+        rect(canvas, width, 100, 300, 140, 340, BLACK);
+        int[] expected = canvas.clone();
+
+        final int[] readRows  = new int[1];
+        final int[] written   = new int[4];
+        ScanlineFloodFiller.PixelSource source = new ScanlineFloodFiller.PixelSource()
+        {
+            public void readPixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+            {
+                for (int row = 0; row < h; row++)
+                {
+                    System.arraycopy(canvas, (y + row) * stride + x, pixels, offset + row * stride, w);
+                }
+                readRows[0] += h;
+            }
+
+            public void writePixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+            {
+                for (int row = 0; row < h; row++)
+                {
+                    System.arraycopy(pixels, offset + row * stride, canvas, (y + row) * stride + x, w);
+                }
+                written[0] = x;
+                written[1] = y;
+                written[2] = w;
+                written[3] = h;
+            }
+        };
+
+        //Garbage in the cache must never leak into the canvas
+        int[] cache = blank(width, height, 0xFF123456);
+        ScanlineFloodFiller filler = new ScanlineFloodFiller(cache, width, height, WHITE, INK);
+        filler.setSource(source);
+        filler.setTolerance(25);
+        filler.floodFill(120, 320);
+
+        QueueLinearFloodFiller reference = new QueueLinearFloodFiller(expected, width, height, WHITE, INK);
+        reference.setTolerance(25);
+        reference.floodFill(120, 320);
+
+        assertArrayEquals(expected, canvas);
+        assertTrue("read " + readRows[0] + " rows", readRows[0] <= 64);
+        assertArrayEquals(new int[] {101, 301, 39, 39}, written);
+        assertEquals(101, filler.getDirtyLeft());
+        assertEquals(339, filler.getDirtyBottom());
+    }
+
+    //Fills copies of the image with both fillers and compares every pixel
+    private static void assertSameFill(int[] image, int width, int height, int x, int y, int tolerance)
+    {
+        int target = image[y * width + x];
+
+        int[] expected = image.clone();
+        QueueLinearFloodFiller reference = new QueueLinearFloodFiller(expected, width, height, target, INK);
+        reference.setTolerance(tolerance);
+        reference.floodFill(x, y);
+
+        int[] actual = image.clone();
+        ScanlineFloodFiller filler = new ScanlineFloodFiller(actual, width, height, target, INK);
+        filler.setTolerance(tolerance);
+        filler.floodFill(x, y);
+
+        assertArrayEquals("fill from " + x + "," + y + " tolerance " + tolerance, expected, actual);
+    }
+
+    private static int[] blank(int width, int height, int color)
+    {
+        int[] image = new int[width * height];
+        Arrays.fill(image, color);
+        return image;
+    }
+
+    //Draws a one pixel rectangle outline
+    private static void rect(int[] image, int width, int left, int top, int right, int bottom, int color)
+    {
+        for (int x = left; x <= right; x++)
+        {
+            image[top * width + x]    = color;
+            image[bottom * width + x] = color;
+        }
+        for (int y = top; y <= bottom; y++)
+        {
+            image[y * width + left]  = color;
+            image[y * width + right] = color;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that queries find exactly the strokes whose boxes overlap, in id
+ * order, through removes, re-inserts and resizes.
+ */
+public class StrokeIndexTest
+{
+    private static final int CELL = 32;
+
+    @Test
+    public void query_findsOverlappingInIdOrder() throws Exception
+    {
+        StrokeIndex index = new StrokeIndex(CELL);
+        index.resize(200, 100);
+        index.insert(3, 10, 10, 150, 20);
+        index.insert(0, 100, 50, 120, 70);
+        index.insert(7, -40, -40, 5, 5);
+        index.insert(2, 180, 80, 400, 300);
+        assertEquals(4, index.size());
+
+        assertEquals(2, index.query(90, 0, 130, 60));
+        assertEquals(0, index.getResult(0));
+        assertEquals(3, index.getResult(1));
+
+        //Boxes off the canvas are found from the edge cells
+        assertEquals(1, index.query(0, 0, 2, 2));
+        assertEquals(7, index.getResult(0));
+        assertEquals(1, index.query(190, 90, 200, 100));
+        assertEquals(2, index.getResult(0));
+
+        //Touching edges don't overlap
+        assertEquals(0, index.query(150, 10, 160, 20));
+    }
+
+    @Test
+    public void remove_keepsBoundsForUndo() throws Exception
+    {
+        StrokeIndex index = new StrokeIndex(CELL);
+        index.resize(200, 100);
+        index.insert(0, 10, 10, 90, 90);
+        index.insert(1, 50, 50, 60, 60);
+
+        assertTrue(index.remove(0));
+        assertFalse(index.remove(0));
+        assertFalse(index.contains(0));
+        assertEquals(1, index.query(0, 0, 200, 100));
+        assertEquals(1, index.getResult(0));
+
+        index.insert(0, index.getLeft(0), index.getTop(0), index.getRight(0), index.getBottom(0));
+        assertEquals(2, index.query(20, 20, 55, 55));
+        assertEquals(0, index.getResult(0));
+        assertEquals(1, index.getResult(1));
+    }
+
+    @Test
+    public void query_matchesBruteForce() throws Exception
+    {
+        Random random = new Random(20);
+        StrokeIndex index = new StrokeIndex(CELL);
+        index.resize(300, 200);
+        float[][] boxes = new float[500][];
+        for (int id = 0; id < boxes.length; id++)
+        {
+            float x = random.nextFloat() * 340 - 20, y = random.nextFloat() * 240 - 20;
+            boxes[id] = new float[] {x, y, x + random.nextFloat() * 80, y + random.nextFloat() * 80};
+            index.insert(id, boxes[id][0], boxes[id][1], boxes[id][2], boxes[id][3]);
+        }
+        for (int id = 0; id < boxes.length; id += 3)
+        {
+            index.remove(id);
+            boxes[id] = null;
+        }
+        index.resize(400, 100);
+
+        for (int q = 0; q < 200; q++)
+        {
+            float l = random.nextFloat() * 300, t = random.nextFloat() * 200;
+            float r = l + random.nextFloat() * 60, b = t + random.nextFloat() * 60;
+            int count = index.query(l, t, r, b);
+            int found = 0;
+            for (int id = 0; id < boxes.length; id++)
+            {
+                float[] box = boxes[id];
+                if (box != null && box[0] < r && l < box[2] && box[1] < b && t < box[3])
+                {
+                    assertEquals(id, index.getResult(found++));
+                }
+            }
+            assertEquals(found, count);
+        }
+    }
+}
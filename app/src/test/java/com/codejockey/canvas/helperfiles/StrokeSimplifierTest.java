@@ -0,0 +1,140 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Simplifies recorded-looking strokes and checks that the curves drawn
+ * through the kept points stay within the tolerance of the originals
+ * while dropping at least half the points.
+ */
+public class StrokeSimplifierTest
+{
+    private static final float TOLERANCE = 0.75f;
+
+    @Test
+    public void straightLine_keepsEnds() throws Exception
+    {
+        float[] xs = new float[50];
+        float[] ys = new float[50];
+        for (int i = 0; i < 50; i++)
+        {
+            xs[i] = i * 3;
+            ys[i] = i * 2;
+        }
+        int kept = new StrokeSimplifier().simplify(xs, ys, 50, TOLERANCE);
+        assertEquals(2, kept);
+        assertEquals(147, xs[1], 0);
+        assertEquals(98, ys[1], 0);
+    }
+
+    @Test
+    public void turnBack_isKept() throws Exception
+    {
+        //Out and back along one line; the far end is off the chord's ends
+        float[] xs = {0, 10, 20, 30, 20, 10, 5};
+        float[] ys = {0, 0, 0, 0, 0, 0, 0};
+        int kept = new StrokeSimplifier().simplify(xs, ys, 7, TOLERANCE);
+        assertEquals(3, kept);
+        assertEquals(30, xs[1], 0);
+    }
+
+    @Test
+    public void strokes_renderWithinTolerance() throws Exception
+    {
+        Random random = new Random(19);
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        int before = 0, after = 0;
+        double worst = 0;
+        for (int stroke = 0; stroke < 40; stroke++)
+        {
+            int count = 50 + random.nextInt(250);
+            float[] xs = new float[count];
+            float[] ys = new float[count];
+            wander(random, xs, ys, count);
+            float[] original = flatten(xs, ys, count);
+
+            int kept = simplifier.simplify(xs, ys, count, TOLERANCE);
+            float[] simplified = flatten(xs, ys, kept);
+
+            before += count;
+            after  += kept;
+            worst = Math.max(worst, Math.max(deviation(original, simplified), deviation(simplified, original)));
+        }
+        assertTrue(worst <= TOLERANCE);
+        assertTrue(after < before / 2);
+    }
+
+    //Smooth wandering stroke sampled a few pixels apart, on whole pixels
+    //like touch samples
+    private static void wander(Random random, float[] xs, float[] ys, int count)
+    {
+        double x = 500, y = 500, heading = random.nextDouble() * Math.PI * 2, turn = 0;
+        for (int i = 0; i < count; i++)
+        {
+            xs[i] = Math.round(x);
+            ys[i] = Math.round(y);
+            turn = turn * 0.9 + (random.nextDouble() - 0.5) * 0.05;
+            heading += turn;
+            double step = 4 + random.nextDouble() * 4;
+            x += Math.cos(heading) * step;
+            y += Math.sin(heading) * step;
+        }
+    }
+
+    //The curve CustomView draws through the points: a quad from each
+    //point's predecessor midpoint, with it as control, then a line to the
+    //last point; returned as dense x, y pairs
+    private static float[] flatten(float[] xs, float[] ys, int count)
+    {
+        final int steps = 16;
+        float[] out = new float[(count * steps + 2) * 2];
+        int size = 0;
+        float sx = xs[0], sy = ys[0];
+        out[size++] = sx;
+        out[size++] = sy;
+        for (int i = 1; i < count; i++)
+        {
+            float cx = xs[i - 1], cy = ys[i - 1];
+            float ex = (xs[i] + cx) / 2, ey = (ys[i] + cy) / 2;
+            for (int step = 1; step <= steps; step++)
+            {
+                float t = (float) step / steps, u = 1 - t;
+                out[size++] = u * u * sx + 2 * u * t * cx + t * t * ex;
+                out[size++] = u * u * sy + 2 * u * t * cy + t * t * ey;
+            }
+            sx = ex;
+            sy = ey;
+        }
+        out[size++] = xs[count - 1];
+        out[size++] = ys[count - 1];
+        return java.util.Arrays.copyOf(out, size);
+    }
+
+    //Furthest any point of a lies from the polyline b
+    private static double deviation(float[] a, float[] b)
+    {
+        double worst = 0;
+        for (int i = 0; i < a.length; i += 2)
+        {
+            double best = Double.MAX_VALUE;
+            for (int j = 0; j + 3 < b.length; j += 2)
+            {
+                best = Math.min(best, segmentDistance(a[i], a[i + 1], b[j], b[j + 1], b[j + 2], b[j + 3]));
+            }
+            worst = Math.max(worst, best);
+        }
+        return worst;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by)
+    {
+        double dx = bx - ax, dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length));
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+}
@@ -0,0 +1,82 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks strip vertices sit half the width either side of the points,
+ * that caps extend the ends, and that spans meet edge to edge.
+ */
+public class StrokeTessellatorTest
+{
+    @Test
+    public void strip_straightLineWithCaps() throws Exception
+    {
+        StrokeTessellator tessellator = new StrokeTessellator();
+        float[] xs = {10, 20, 20, 30};
+        float[] ys = {50, 50, 50, 50};
+        float[] widths = {2, 4, 5, 6};
+
+        //The repeated point is dropped, taking the later width
+        assertEquals(6, tessellator.strip(xs, ys, widths, 4, false, false));
+        float[] vertices = tessellator.getVertices();
+        float[] expected = {10, 49, 10, 51, 20, 47.5f, 20, 52.5f, 30, 47, 30, 53};
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals("value " + i, expected[i], vertices[i], 0.0001f);
+        }
+
+        tessellator.strip(xs, ys, widths, 4, true, true);
+        assertEquals(9, vertices[0], 0.0001f);
+        assertEquals(33, vertices[8], 0.0001f);
+        assertEquals(33, vertices[10], 0.0001f);
+    }
+
+    @Test
+    public void strip_nothingToDraw() throws Exception
+    {
+        StrokeTessellator tessellator = new StrokeTessellator();
+        float[] xs = {5, 5, 5};
+        float[] ys = {7, 7, 7};
+        float[] widths = {2, 2, 2};
+        assertEquals(0, tessellator.strip(xs, ys, widths, 3, true, true));
+        assertEquals(0, tessellator.strip(xs, ys, widths, 1, true, true));
+        assertEquals(0, tessellator.getVertexCount());
+    }
+
+    @Test
+    public void strip_spansMeetEdgeToEdge() throws Exception
+    {
+        CurveEngine curve = new CurveEngine();
+        StrokeTessellator tessellator = new StrokeTessellator();
+        float[] xs = new float[31], ys = new float[31], widths = new float[31];
+        Arrays.fill(widths, 8);
+
+        curve.open(100, 100);
+        int[] knots = {160, 110, 200, 170, 190, 240, 130, 260};
+        float[] lastEnd = null;
+        for (int k = 0; k < knots.length; k += 2)
+        {
+            curve.add(knots[k], knots[k + 1]);
+            int points = curve.plot(30);
+            for (int i = 0; i < points; i++)
+            {
+                xs[i] = curve.getX(i);
+                ys[i] = curve.getY(i);
+            }
+            int vertices = tessellator.strip(xs, ys, widths, points, false, false);
+            float[] v = tessellator.getVertices();
+            if (lastEnd != null)
+            {
+                for (int i = 0; i < 4; i++)
+                {
+                    assertEquals(lastEnd[i], v[i], 0.5f);
+                }
+            }
+            lastEnd = new float[] {v[vertices * 2 - 4], v[vertices * 2 - 3], v[vertices * 2 - 2], v[vertices * 2 - 1]};
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backs up a plain int[] canvas while drawing boxes on it, then checks
+ * that restoring brings back the original pixels and that only the tiles
+ * drawn over were read.
+ */
+public class TileBackupTest
+{
+    private static final int WIDTH  = 300;
+    private static final int HEIGHT = 200;
+    private static final int TILE   = 32;
+
+    @Test
+    public void restore_undoesEverythingDrawnOverSavedAreas() throws Exception
+    {
+        int[] canvas = new int[WIDTH * HEIGHT];
+        Random random = new Random(3);
+        for (int i = 0; i < canvas.length; i++)
+        {
+            canvas[i] = random.nextInt(4);
+        }
+        int[] before = canvas.clone();
+        Source source = new Source(canvas);
+        TileBackup backup = new TileBackup(TILE);
+        backup.setSource(source, WIDTH, HEIGHT);
+
+        //Boxes along a stroke, some past the edges
+        for (int x = -20; x < WIDTH + 20; x += 15)
+        {
+            int y = x / 3;
+            backup.save(x - 5, y - 5, x + 6, y + 6);
+            fill(canvas, x - 5, y - 5, x + 6, y + 6, 9);
+        }
+        assertFalse(Arrays.equals(before, canvas));
+        backup.restore();
+        assertTrue(Arrays.equals(before, canvas));
+
+        //Only tiles near the diagonal, never the whole canvas
+        int tiles = ((WIDTH + TILE - 1) / TILE) * ((HEIGHT + TILE - 1) / TILE);
+        assertTrue(backup.getTileCount() < tiles / 2);
+        assertTrue(source.read <= backup.getTileCount() * TILE * TILE);
+        assertEquals(0, backup.getLeft());
+        assertEquals(0, backup.getTop());
+        assertEquals(WIDTH, backup.getRight());
+    }
+
+    @Test
+    public void save_readsEachTileOnce() throws Exception
+    {
+        Source source = new Source(new int[WIDTH * HEIGHT]);
+        TileBackup backup = new TileBackup(TILE);
+        backup.setSource(source, WIDTH, HEIGHT);
+        backup.save(10, 10, 20, 20);
+        backup.save(12, 12, 18, 18);
+        assertEquals(1, backup.getTileCount());
+        assertEquals(TILE * TILE, source.read);
+
+        //Cleared, the same tile is read again for the next operation
+        backup.clear();
+        assertEquals(0, backup.getTileCount());
+        assertEquals(WIDTH, backup.getLeft());
+        backup.save(10, 10, 20, 20);
+        assertEquals(2 * TILE * TILE, source.read);
+    }
+
+    private static void fill(int[] canvas, int left, int top, int right, int bottom, int color)
+    {
+        for (int y = Math.max(0, top); y < Math.min(HEIGHT, bottom); y++)
+        {
+            for (int x = Math.max(0, left); x < Math.min(WIDTH, right); x++)
+            {
+                canvas[y * WIDTH + x] = color;
+            }
+        }
+    }
+
+    //An int[] canvas that counts the pixels read from it
+    private static class Source implements ScanlineFloodFiller.PixelSource
+    {
+        final int[] canvas;
+        int read;
+
+        Source(int[] canvas)
+        {
+            this.canvas = canvas;
+        }
+
+        public void readPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height)
+        {
+            for (int row = 0; row < height; row++)
+            {
+                System.arraycopy(canvas, (y + row) * WIDTH + x, pixels, offset + row * stride, width);
+            }
+            read += width * height;
+        }
+
+        public void writePixels(int[] pixels, int offset, int stride, int x, int y, int width, int height)
+        {
+            for (int row = 0; row < height; row++)
+            {
+                System.arraycopy(pixels, offset + row * stride, canvas, (y + row) * WIDTH + x, width);
+            }
+        }
+    }
+}
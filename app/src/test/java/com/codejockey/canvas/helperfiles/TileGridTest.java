@@ -0,0 +1,96 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that marked areas round out to whole tiles and come back as
+ * rectangles covering exactly the dirty tiles.
+ */
+public class TileGridTest
+{
+    private static final int TILE = 10;
+
+    @Test
+    public void mark_roundsOutToTilesAndClips() throws Exception
+    {
+        TileGrid grid = new TileGrid(TILE);
+        grid.resize(95, 42);
+
+        grid.mark(12, 5, 13, 6);
+        assertEquals(1, grid.getDirtyCount());
+        assertTrue(grid.isDirty(1, 0));
+
+        grid.mark(-50, 38, 200, 400);
+        assertEquals(1 + 2 * 10, grid.getDirtyCount());
+
+        int[] rect = new int[4];
+        assertTrue(grid.takeRect(rect));
+        assertArrayEquals(new int[] {10, 0, 20, 10}, rect);
+        assertTrue(grid.takeRect(rect));
+        assertArrayEquals(new int[] {0, 30, 95, 42}, rect);
+        assertFalse(grid.takeRect(rect));
+        assertTrue(grid.isEmpty());
+    }
+
+    @Test
+    public void takeRect_coversEveryDirtyTileOnce() throws Exception
+    {
+        TileGrid grid = new TileGrid(TILE);
+        grid.resize(200, 150);
+        boolean[][] expected = new boolean[15][20];
+
+        //A diagonal stroke, as a chain of small segment boxes
+        for (int i = 0; i < 30; i++)
+        {
+            int x = 10 + i * 6, y = 5 + i * 4;
+            grid.mark(x - 3, y - 3, x + 9, y + 7);
+            for (int ty = (y - 3) / TILE; ty <= (y + 6) / TILE; ty++)
+            {
+                for (int tx = (x - 3) / TILE; tx <= Math.min(199, x + 8) / TILE; tx++)
+                {
+                    expected[ty][tx] = true;
+                }
+            }
+        }
+        int dirty = grid.getDirtyCount();
+        assertTrue(dirty < 20 * 15 / 2);
+
+        boolean[][] covered = new boolean[15][20];
+        int[] rect = new int[4];
+        int rects = 0;
+        while (grid.takeRect(rect))
+        {
+            rects++;
+            for (int ty = rect[1] / TILE; ty < (rect[3] + TILE - 1) / TILE; ty++)
+            {
+                for (int tx = rect[0] / TILE; tx < (rect[2] + TILE - 1) / TILE; tx++)
+                {
+                    assertFalse(covered[ty][tx]);
+                    covered[ty][tx] = true;
+                }
+            }
+        }
+        for (int ty = 0; ty < 15; ty++)
+        {
+            assertTrue("tile row " + ty, Arrays.equals(expected[ty], covered[ty]));
+        }
+        assertTrue(rects < dirty);
+    }
+
+    @Test
+    public void markAll_comesBackAsOneRect() throws Exception
+    {
+        TileGrid grid = new TileGrid(TILE);
+        grid.resize(95, 42);
+        grid.markAll();
+
+        int[] rect = new int[4];
+        assertTrue(grid.takeRect(rect));
+        assertArrayEquals(new int[] {0, 0, 95, 42}, rect);
+        assertFalse(grid.takeRect(rect));
+    }
+}
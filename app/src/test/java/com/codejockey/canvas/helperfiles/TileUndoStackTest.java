@@ -0,0 +1,197 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that tile-delta undo and redo restore the exact pixels of every
+ * step, for painting, erasing and fills, and that the depth and memory
+ * limits drop the oldest steps.
+ */
+public class TileUndoStackTest
+{
+    private static final int WIDTH  = 100;
+    private static final int HEIGHT = 70;
+    private static final int TILE   = 16;
+
+    private int[] image;
+    private ScanlineFloodFiller.PixelSource source;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        image = new int[WIDTH * HEIGHT];
+        source = new ScanlineFloodFiller.PixelSource()
+        {
+            public void readPixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+            {
+                for (int row = 0; row < h; row++)
+                {
+                    System.arraycopy(image, (y + row) * WIDTH + x, pixels, offset + row * stride, w);
+                }
+            }
+
+            public void writePixels(int[] pixels, int offset, int stride, int x, int y, int w, int h)
+            {
+                for (int row = 0; row < h; row++)
+                {
+                    System.arraycopy(pixels, offset + row * stride, image, (y + row) * WIDTH + x, w);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void undoAndRedo_restoreEveryStep() throws Exception
+    {
+        TileUndoStack stack = new TileUndoStack(TILE, Long.MAX_VALUE, 1000);
+        stack.setSource(source, WIDTH, HEIGHT);
+
+        Random random = new Random(3);
+        List<int[]> states = new ArrayList<int[]>();
+        states.add(image.clone());
+        for (int step = 0; step < 40; step++)
+        {
+            int x = random.nextInt(WIDTH), y = random.nextInt(HEIGHT);
+            int w = 1 + random.nextInt(30), h = 1 + random.nextInt(30);
+            //Every third step erases, the rest paint
+            int color = step % 3 == 2 ? 0 : 0xFF000000 | random.nextInt();
+
+            stack.begin(x - 2, y - 2, x + w + 2, y + h + 2);
+            rect(x, y, w, h, color);
+            stack.commit();
+            states.add(image.clone());
+        }
+
+        for (int step = 40; step > 0; step--)
+        {
+            assertTrue(stack.undo());
+            assertArrayEquals("undo to " + (step - 1), states.get(step - 1), image);
+        }
+        assertFalse(stack.undo());
+
+        for (int step = 1; step <= 40; step++)
+        {
+            assertTrue(stack.redo());
+            assertArrayEquals("redo to " + step, states.get(step), image);
+        }
+        assertFalse(stack.redo());
+    }
+
+    @Test
+    public void fill_isUndoneLikeAnyOtherStep() throws Exception
+    {
+        TileUndoStack stack = new TileUndoStack(TILE, Long.MAX_VALUE, 10);
+        stack.setSource(source, WIDTH, HEIGHT);
+
+        stack.begin(0, 0, WIDTH, HEIGHT);
+        rect(20, 20, 40, 30, 0xFF000000);
+        rect(22, 22, 36, 26, 0);
+        stack.commit();
+        int[] outline = image.clone();
+
+        ScanlineFloodFiller filler = new ScanlineFloodFiller(image, WIDTH, HEIGHT, 0, 0xFF00FF00);
+        stack.begin(0, 0, WIDTH, HEIGHT);
+        filler.floodFill(30, 30);
+        stack.commit();
+
+        assertEquals(0xFF00FF00, image[30 * WIDTH + 30]);
+        stack.undo();
+        assertArrayEquals(outline, image);
+        stack.redo();
+        assertEquals(0xFF00FF00, image[30 * WIDTH + 30]);
+    }
+
+    @Test
+    public void unchangedTiles_areNotStored() throws Exception
+    {
+        TileUndoStack stack = new TileUndoStack(TILE, Long.MAX_VALUE, 10);
+        stack.setSource(source, WIDTH, HEIGHT);
+
+        //Snapshot the whole canvas but change one pixel
+        stack.begin(0, 0, WIDTH, HEIGHT);
+        image[5 * WIDTH + 5] = 0xFFFF0000;
+        stack.commit();
+        assertEquals(TILE * TILE * 4, stack.getMemory());
+
+        stack.undo();
+        assertEquals(0, stack.getDirtyLeft());
+        assertEquals(0, stack.getDirtyTop());
+        assertEquals(TILE, stack.getDirtyRight());
+        assertEquals(TILE, stack.getDirtyBottom());
+
+        //A step that changes nothing still counts, to stay in line
+        stack.begin(-10, -10, 5, 5);
+        stack.commit();
+        assertEquals(1, stack.getUndoDepth());
+        assertEquals(0, stack.getRedoDepth());
+        assertEquals(0, stack.getMemory());
+    }
+
+    @Test
+    public void beginAgain_dropsUncommittedSnapshot() throws Exception
+    {
+        TileUndoStack stack = new TileUndoStack(TILE, Long.MAX_VALUE, 10);
+        stack.setSource(source, WIDTH, HEIGHT);
+
+        //An abandoned begin() over the whole canvas leaves nothing behind
+        stack.begin(0, 0, WIDTH, HEIGHT);
+        rect(0, 0, WIDTH, HEIGHT, 0xFF000000);
+        int[] painted = image.clone();
+        stack.begin(40, 40, 50, 50);
+        rect(40, 40, 10, 10, 0xFFFFFFFF);
+        stack.commit();
+        assertEquals(4 * TILE * TILE * 4, stack.getMemory());
+
+        stack.undo();
+        assertArrayEquals(painted, image);
+    }
+
+    @Test
+    public void limits_dropOldestSteps() throws Exception
+    {
+        TileUndoStack stack = new TileUndoStack(TILE, Long.MAX_VALUE, 3);
+        stack.setSource(source, WIDTH, HEIGHT);
+        for (int step = 0; step < 5; step++)
+        {
+            stack.begin(0, 0, TILE, TILE);
+            rect(0, 0, TILE, TILE, 0xFF000000 | step);
+            stack.commit();
+        }
+        assertEquals(3, stack.getUndoDepth());
+
+        //Each step holds one tile; room for two
+        stack = new TileUndoStack(TILE, 2 * TILE * TILE * 4, 100);
+        stack.setSource(source, WIDTH, HEIGHT);
+        for (int step = 0; step < 5; step++)
+        {
+            stack.begin(0, 0, TILE, TILE);
+            rect(0, 0, TILE, TILE, 0xFF000100 | step);
+            stack.commit();
+        }
+        assertEquals(2, stack.getUndoDepth());
+        assertTrue(stack.getMemory() <= 2 * TILE * TILE * 4);
+
+        stack.undo();
+        stack.undo();
+        assertEquals(0xFF000102, image[0]);
+        assertFalse(stack.undo());
+    }
+
+    private void rect(int x, int y, int w, int h, int color)
+    {
+        for (int row = Math.max(0, y); row < Math.min(HEIGHT, y + h); row++)
+        {
+            for (int col = Math.max(0, x); col < Math.min(WIDTH, x + w); col++)
+            {
+                image[row * WIDTH + col] = color;
+            }
+        }
+    }
+}
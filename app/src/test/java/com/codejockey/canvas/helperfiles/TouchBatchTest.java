@@ -0,0 +1,55 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a touch batch keeps every sample in order as it grows, and
+ * records latency and throughput for each batch.
+ */
+public class TouchBatchTest
+{
+    @Test
+    public void samples_areKeptInOrderAcrossGrowth() throws Exception
+    {
+        TouchBatch batch = new TouchBatch();
+        for (int i = 0; i < 100; i++)
+        {
+            batch.add(i * 1.5f, i * 2.5f, 1000 + i);
+        }
+        assertEquals(100, batch.size());
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(i * 1.5f, batch.getX(i), 0);
+            assertEquals(i * 2.5f, batch.getY(i), 0);
+            assertEquals(1000 + i, batch.getTime(i));
+        }
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(0, batch.getLatency(5000));
+    }
+
+    @Test
+    public void recordMetrics_countsSamplesAndOldestAge() throws Exception
+    {
+        Metrics.setLevel(Metrics.LEVEL_COUNTERS);
+        Metrics.reset();
+        TouchBatch batch = new TouchBatch();
+        batch.add(0, 0, 100);
+        batch.add(1, 1, 104);
+        batch.add(2, 2, 108);
+        assertEquals(12, batch.getLatency(112));
+
+        batch.recordMetrics(Metrics.INPUT_BATCH.start(), 112);
+        batch.clear();
+        batch.add(3, 3, 120);
+        batch.recordMetrics(Metrics.INPUT_BATCH.start(), 124);
+
+        assertEquals(2, Metrics.INPUT_BATCH.getCount());
+        assertEquals(4, Metrics.INPUT_SAMPLES.get());
+        assertEquals(12000000L, Metrics.INPUT_LATENCY.getPercentile(100));
+        assertEquals(4000000L, Metrics.INPUT_LATENCY.getPercentile(50));
+    }
+}
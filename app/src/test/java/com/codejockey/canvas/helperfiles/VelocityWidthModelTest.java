@@ -0,0 +1,64 @@
+package com.codejockey.canvas.helperfiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the smoothed speed settles on the drawing speed whatever the
+ * sample rate, and that replaying the same samples gives the same widths.
+ */
+public class VelocityWidthModelTest
+{
+    private static final long MILLI = 1000000L;
+
+    @Test
+    public void steadySpeed_sameWidthAtAnySampleRate() throws Exception
+    {
+        //0.5 pixels per ms, sampled every 8 ms and every 40 ms
+        float fast = widthAfter(8, 4, 500);
+        float slow = widthAfter(40, 20, 500);
+        assertEquals(1 + 8 * 0.5f, fast, 0.01f);
+        assertEquals(fast, slow, 0.01f);
+    }
+
+    @Test
+    public void sameTime_leavesSpeedAlone() throws Exception
+    {
+        VelocityWidthModel model = new VelocityWidthModel(1, 8, 2, 40);
+        assertEquals(2, model.start(0, 0, 0, PenState.NONE), 0);
+        float width = model.sample(10, 0, 20 * MILLI, PenState.NONE);
+        assertEquals(width, model.sample(10, 0, 20 * MILLI, PenState.NONE), 0);
+        assertEquals(width, model.sample(50, 0, 20 * MILLI, PenState.NONE), 0);
+    }
+
+    @Test
+    public void replay_givesIdenticalWidths() throws Exception
+    {
+        VelocityWidthModel first = new VelocityWidthModel(1, 8, 2, 40);
+        VelocityWidthModel second = new VelocityWidthModel(1, 8, 2, 40);
+        first.start(100, 100, 5 * MILLI, PenState.NONE);
+        second.start(100, 100, 5 * MILLI, PenState.NONE);
+        long time = 5 * MILLI;
+        for (int i = 1; i < 500; i++)
+        {
+            time += (7 + i % 13) * MILLI + i * 1379;
+            float x = 100 + i * (i % 7), y = 100 + (float) Math.sin(i * 0.1) * 80;
+            assertEquals(Float.floatToIntBits(first.sample(x, y, time, PenState.NONE)),
+                    Float.floatToIntBits(second.sample(x, y, time, PenState.NONE)));
+        }
+    }
+
+    //Width after moving along x at step pixels every interval ms
+    private static float widthAfter(long interval, float step, long duration)
+    {
+        VelocityWidthModel model = new VelocityWidthModel(1, 8, 2, 40);
+        model.start(0, 0, 0, PenState.NONE);
+        float width = 0;
+        for (long time = interval; time <= duration; time += interval)
+        {
+            width = model.sample(step * time / interval, 0, time * MILLI, PenState.NONE);
+        }
+        return width;
+    }
+}